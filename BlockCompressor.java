@@ -0,0 +1,146 @@
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses one client's output, for clients that asked for compression in the username handshake.
+ * A client that sees the server offer it in its welcome line sends {@link BlockCompressor#REQUEST} before its username,
+ * and everything the server sends after the accepted line then comes in blocks.
+ * <p>
+ * Layout of a block: type (1 byte, {@link BlockCompressor#RAW} or {@link BlockCompressor#DEFLATED}),
+ * length (4 bytes, big-endian), then the bytes. A raw block holds output as it is,
+ * a deflated block the raw deflate data for its output, ending in a sync flush so the client can inflate it whole.
+ * <p>
+ * Each writer compresses a batch of queued messages as it drains them, so the messages coalesced into one write
+ * also share one flush, and messages dropped from a full queue never reach the stream.
+ * The deflate stream lasts as long as the connection, so every line is compressed against the ones before it,
+ * and the time and name at the start of each line cost a few bits once the client has been sent a few.
+ * Batches smaller than the threshold go out as raw blocks, saving the time for output too small to shrink much.
+ * Not thread-safe, only the connection's writer uses it.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class BlockCompressor {
+
+	/**
+	 * Added to the welcome line by a server that offers compression.
+	 */
+	static final String OFFER = "[deflate]";
+
+	/**
+	 * Line a client sends before its username to ask for compression.
+	 */
+	static final String REQUEST = "\\deflate";
+
+	/**
+	 * Block holding output as it is.
+	 */
+	static final byte RAW = 0;
+
+	/**
+	 * Block holding deflated output.
+	 */
+	static final byte DEFLATED = 1;
+
+	/**
+	 * Bytes before the data of a block.
+	 */
+	static final int HEADER_LENGTH = 5;
+
+	/**
+	 * Deflate stream of the connection, without zlib headers.
+	 */
+	private final Deflater deflater;
+
+	/**
+	 * Bytes a batch needs before it is compressed.
+	 */
+	private final int threshold;
+
+	/**
+	 * Counters every block is added to.
+	 */
+	private final CompressionStats stats;
+
+	/**
+	 * Pool the scratch space is borrowed from.
+	 */
+	private final BufferPool pool;
+
+	/**
+	 * Scratch space the deflater writes to, borrowed for each block and grown as needed, null between blocks.
+	 */
+	private ByteBuffer deflated = null;
+
+	/**
+	 * Constructor method for {@link BlockCompressor}.
+	 * @param level deflate level, 1 fastest to 9 smallest
+	 * @param threshold bytes a batch needs before it is compressed
+	 * @param stats counters every block is added to
+	 * @param pool pool the scratch space is borrowed from
+	 */
+	BlockCompressor(int level, int threshold, CompressionStats stats, BufferPool pool) {
+		deflater = new Deflater(level, true);
+		this.threshold = threshold;
+		this.stats = stats;
+		this.pool = pool;
+	}
+
+	/**
+	 * Turns a batch of messages into one block, consuming them.
+	 * @param batch messages to send, oldest first
+	 * @param offset index of the first message
+	 * @param count number of messages
+	 * @return block ready to be written
+	 */
+	ByteBuffer compress(ByteBuffer[] batch, int offset, int count) {
+
+		long length = 0;
+
+		for(int i = offset; i < offset + count; i++) length += batch[i].remaining();
+
+		if(length < threshold) {
+			ByteBuffer block = ByteBuffer.allocate(HEADER_LENGTH + (int) length);
+			block.put(RAW).putInt((int) length);
+			for(int i = offset; i < offset + count; i++) block.put(batch[i]);
+			stats.skipped(length);
+			return block.flip();
+		}
+
+		long start = System.nanoTime();
+
+		deflated = pool.acquire((int) Math.min(length, BufferPool.LARGEST) / 2); // text usually deflates to less than half
+		for(int i = offset; i < offset + count; i++) {
+			deflater.setInput(batch[i]); // moves the buffer's position on as it is consumed
+			while(!deflater.needsInput()) deflate(Deflater.NO_FLUSH);
+		}
+		deflate(Deflater.SYNC_FLUSH);
+		deflated.flip();
+
+		ByteBuffer block = ByteBuffer.allocate(HEADER_LENGTH + deflated.remaining());
+		block.put(DEFLATED).putInt(deflated.remaining()).put(deflated).flip();
+		pool.release(deflated);
+		deflated = null;
+		stats.compressed(length, block.remaining(), System.nanoTime() - start);
+		return block;
+	} // end of compress() in the class BlockCompressor
+
+	/**
+	 * Runs the deflater into the scratch space, growing it until the deflater has nothing more to give for now.
+	 * @param flush {@link Deflater#NO_FLUSH} while input remains, {@link Deflater#SYNC_FLUSH} to end the block
+	 */
+	private void deflate(int flush) {
+		while(true) {
+			if(!deflated.hasRemaining()) deflated = pool.grow(deflated.flip(), deflated.capacity() * 2);
+			deflater.deflate(deflated, flush);
+			if(flush == Deflater.NO_FLUSH || deflated.hasRemaining()) return; // a full buffer may be hiding more of a flush
+		}
+	}
+
+	/**
+	 * Frees the deflater's native memory, called by the writer once the connection has gone.
+	 */
+	void end() {
+		deflater.end();
+	}
+} // end of the class BlockCompressor
@@ -0,0 +1,114 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads what a server sends a client that asked for compression, the blocks written by {@link BlockCompressor},
+ * inflating the deflated ones with one inflater for the whole connection, as the server deflates them with one deflater.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class BlockInputStream extends InputStream {
+
+	/**
+	 * Blocks from the server.
+	 */
+	private final DataInputStream in;
+
+	/**
+	 * Inflate stream of the connection, without zlib headers.
+	 */
+	private final Inflater inflater = new Inflater(true);
+
+	/**
+	 * Data of the block being read.
+	 */
+	private byte[] block = new byte[8192];
+
+	/**
+	 * True if the block being read is raw, false if it is being inflated.
+	 */
+	private boolean isRaw = true;
+
+	/**
+	 * Next byte of a raw block to read.
+	 */
+	private int position = 0;
+
+	/**
+	 * Length of a raw block.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Constructor method for {@link BlockInputStream}.
+	 * @param in blocks from the server, starting at the first block
+	 */
+	BlockInputStream(DataInputStream in) {
+		this.in = in;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if(len == 0) return 0;
+
+		while(true) {
+			if(isRaw && position < limit) {
+				int count = Math.min(len, limit - position);
+				System.arraycopy(block, position, b, off, count);
+				position += count;
+				return count;
+			}
+			if(!isRaw && !inflater.needsInput()) {
+				try {
+					int count = inflater.inflate(b, off, len);
+					if(count > 0) return count;
+				}
+				catch(DataFormatException e) {
+					throw new IOException("Corrupt compressed block: " + e.getMessage());
+				}
+			}
+			if(!nextBlock()) return -1;
+		}
+	} // end of read() in the class BlockInputStream
+
+	/**
+	 * Reads the next block, handing a deflated one to the inflater.
+	 * @return false if the stream ended between blocks
+	 * @throws IOException if the stream ended inside a block or the block is too long
+	 */
+	private boolean nextBlock() throws IOException {
+
+		int type = in.read();
+		if(type < 0) return false; // end of stream
+
+		int length = in.readInt();
+		if(length < 0 || length > Frame.MAX_PAYLOAD) throw new IOException("Block too long: " + length);
+		if(length > block.length) block = new byte[length];
+		in.readFully(block, 0, length);
+
+		isRaw = type == BlockCompressor.RAW;
+		if(isRaw) {
+			position = 0;
+			limit = length;
+		}
+		else inflater.setInput(block, 0, length);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		in.close();
+	}
+} // end of the class BlockInputStream
@@ -0,0 +1,225 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared pool of direct buffers, which connections borrow only while bytes are in flight and give back as soon as they are handled,
+ * so an idle connection holds no buffer at all, and a busy one is read into memory the socket can fill without the JDK copying it first.
+ * <p>
+ * Buffers come in size classes, each four times the one before, {@link BufferPool#SMALLEST} bytes up to {@link BufferPool#LARGEST}.
+ * Asking for a size gets a buffer of the smallest class that holds it, taken from the class's stack of idle buffers
+ * or allocated if the stack is empty. A buffer given back goes on its class's stack, unless as many are idle there as are kept,
+ * in which case it is left to the garbage collector, so the pool shrinks back after a burst.
+ * Anything bigger than the largest class is allocated on the heap each time and never pooled.
+ * <p>
+ * Each class has a lock of its own, held only to push or pop one buffer.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class BufferPool {
+
+	/**
+	 * Size of the smallest class, enough for most lines.
+	 */
+	static final int SMALLEST = 512;
+
+	/**
+	 * Size of the largest class.
+	 */
+	static final int LARGEST = 128 * 1024;
+
+	/**
+	 * Idle buffers of one size class.
+	 */
+	private static final class SizeClass {
+
+		/**
+		 * Capacity of every buffer of the class.
+		 */
+		final int size;
+
+		/**
+		 * Idle buffers, the first {@link BufferPool.SizeClass#count} in use.
+		 */
+		final ByteBuffer[] idle;
+
+		/**
+		 * Number of idle buffers.
+		 */
+		int count = 0;
+
+		/**
+		 * Guards the stack.
+		 */
+		final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Constructor method for {@link BufferPool.SizeClass}.
+		 * @param size capacity of every buffer of the class
+		 * @param kept idle buffers kept at most
+		 */
+		SizeClass(int size, int kept) {
+			this.size = size;
+			idle = new ByteBuffer[kept];
+		}
+	}
+
+	/**
+	 * Size classes, smallest first.
+	 */
+	private final SizeClass[] classes;
+
+	/**
+	 * Buffers lent from a class's idle stack.
+	 */
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * Buffers allocated because their class had none idle, or because they were too big to pool.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Direct bytes the pool has allocated and not yet let go of, lent or idle.
+	 */
+	private final AtomicLong residentBytes = new AtomicLong();
+
+	/**
+	 * Direct bytes sitting idle in the pool.
+	 */
+	private final AtomicLong idleBytes = new AtomicLong();
+
+	/**
+	 * Constructor method for {@link BufferPool}.
+	 * @param idleBytesPerClass bytes of idle buffers each size class keeps at most, so more small buffers than large ones, at least one
+	 */
+	BufferPool(long idleBytesPerClass) {
+
+		int count = 0;
+		for(int size = SMALLEST; size <= LARGEST; size *= 4) count++;
+
+		classes = new SizeClass[count];
+		for(int i = 0, size = SMALLEST; i < count; i++, size *= 4) {
+			classes[i] = new SizeClass(size, (int) Math.max(1, idleBytesPerClass / size));
+		}
+	}
+
+	/**
+	 * Borrows a buffer, to be given back with {@link BufferPool#release(ByteBuffer)} once its bytes have been handled.
+	 * @param minimum bytes the buffer must hold
+	 * @return cleared buffer of at least that capacity, direct unless bigger than the largest class
+	 */
+	ByteBuffer acquire(int minimum) {
+
+		SizeClass sizeClass = classOf(minimum);
+
+		if(sizeClass == null) { // too big to pool, a rare line or frame
+			misses.increment();
+			return ByteBuffer.allocate(minimum);
+		}
+
+		ByteBuffer buffer = null;
+		sizeClass.lock.lock();
+		try {
+			if(sizeClass.count > 0) {
+				buffer = sizeClass.idle[--sizeClass.count];
+				sizeClass.idle[sizeClass.count] = null;
+			}
+		} finally {
+			sizeClass.lock.unlock();
+		}
+
+		if(buffer != null) {
+			hits.increment();
+			idleBytes.addAndGet(-buffer.capacity());
+			return buffer.clear();
+		}
+		misses.increment();
+		residentBytes.addAndGet(sizeClass.size);
+		return ByteBuffer.allocateDirect(sizeClass.size);
+	} // end of acquire() in the class BufferPool
+
+	/**
+	 * Borrows a bigger buffer holding what was in a full one, giving the full one back.
+	 * @param buffer borrowed buffer, ready to be read from
+	 * @param minimum bytes the new buffer must hold
+	 * @return buffer ready to be written to, after the bytes copied
+	 */
+	ByteBuffer grow(ByteBuffer buffer, int minimum) {
+		ByteBuffer larger = acquire(Math.max(minimum, buffer.capacity() * 2));
+		larger.put(buffer);
+		release(buffer);
+		return larger;
+	}
+
+	/**
+	 * Gives a borrowed buffer back, it must not be used afterwards.
+	 * @param buffer buffer from {@link BufferPool#acquire(int)}
+	 */
+	void release(ByteBuffer buffer) {
+
+		if(!buffer.isDirect()) return; // never pooled
+
+		SizeClass sizeClass = classOf(buffer.capacity());
+		boolean isKept = false;
+
+		sizeClass.lock.lock();
+		try {
+			if(sizeClass.count < sizeClass.idle.length) {
+				sizeClass.idle[sizeClass.count++] = buffer;
+				isKept = true;
+			}
+		} finally {
+			sizeClass.lock.unlock();
+		}
+
+		if(isKept) idleBytes.addAndGet(buffer.capacity());
+		else residentBytes.addAndGet(-buffer.capacity()); // freed once collected
+	}
+
+	/**
+	 * Smallest size class holding a size.
+	 * @param size bytes wanted
+	 * @return the class, null if bigger than the largest
+	 */
+	private SizeClass classOf(int size) {
+		for(SizeClass sizeClass : classes) {
+			if(sizeClass.size >= size) return sizeClass;
+		}
+		return null;
+	}
+
+	/**
+	 * Share of the buffers borrowed that were lent from the pool rather than allocated.
+	 * @return ratio, 1 before anything has been borrowed
+	 */
+	double hitRate() {
+		long hit = hits.sum();
+		long total = hit + misses.sum();
+		return total == 0 ? 1 : (double) hit / total;
+	}
+
+	/**
+	 * Direct memory held by the pool, lent or idle.
+	 * @return bytes
+	 */
+	long residentBytes() {
+		return residentBytes.get();
+	}
+
+	/**
+	 * Direct memory sitting idle in the pool.
+	 * @return bytes
+	 */
+	long idleBytes() {
+		return idleBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f%% of %d borrowed from the pool, %d KiB resident, %d KiB of it idle",
+			hitRate() * 100, hits.sum() + misses.sum(), residentBytes() / 1024, idleBytes() / 1024);
+	}
+} // end of the class BufferPool
@@ -0,0 +1,100 @@
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Wall clock for message timestamps, formats the time as HH:mm:ss
+ * and keeps the string and its encoded bytes until the second changes,
+ * so stamping a message costs a clock read instead of a format and an encode.
+ * Safe to share between threads, the cached second is swapped in as one immutable object.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class CachedClock {
+
+	/**
+	 * Thread-safe formatter, only used once a second.
+	 */
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	/**
+	 * One second of the clock, formatted.
+	 */
+	private static final class Tick {
+
+		/**
+		 * Seconds since the epoch this tick is for.
+		 */
+		final long second;
+
+		/**
+		 * Time as HH:mm:ss.
+		 */
+		final String text;
+
+		/**
+		 * Time as HH:mm:ss encoded for the wire, must not be modified.
+		 */
+		final byte[] bytes;
+
+		Tick(long second, Charset charset) {
+			this.second = second;
+			text = FORMAT.format(Instant.ofEpochSecond(second));
+			bytes = text.getBytes(charset);
+		}
+	}
+
+	/**
+	 * Character set the bytes are encoded in.
+	 */
+	private final Charset charset;
+
+	/**
+	 * Most recent second formatted.
+	 */
+	private volatile Tick tick;
+
+	/**
+	 * Constructor method for {@link CachedClock}.
+	 * @param charset character set the bytes are encoded in
+	 */
+	CachedClock(Charset charset) {
+		this.charset = charset;
+		tick = new Tick(System.currentTimeMillis() / 1000, charset);
+	}
+
+	/**
+	 * Current time as a string.
+	 * @return time as HH:mm:ss
+	 */
+	String time() {
+		return current().text;
+	}
+
+	/**
+	 * Current time as encoded bytes, shared by every caller in the same second so must not be modified.
+	 * @return time as HH:mm:ss
+	 */
+	byte[] timeBytes() {
+		return current().bytes;
+	}
+
+	/**
+	 * Tick for the current second, formatting a new one if the second has changed.
+	 * Two threads may both format the new second, either result is correct.
+	 * @return current tick
+	 */
+	private Tick current() {
+
+		long second = System.currentTimeMillis() / 1000;
+		Tick current = tick;
+
+		if(current.second != second) {
+			current = new Tick(second, charset);
+			tick = current;
+		}
+		return current;
+	}
+} // end of the class CachedClock
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent messages of every room, replayed to clients as they sign in or join a room.
+ * Each room keeps its last messages in a {@link HistoryRing}, and when a {@link ChatLog} is given
+ * every message is appended to it first and the ring holds the logged bytes,
+ * so the history survives a restart and the messages on the heap are only references into the log's mappings.
+ * Rings are kept by room name, so a room that empties and is created again still has its history.
+ * There is no lock over the whole history: each ring has its own and the log only locks to reserve a record's space,
+ * so broadcasts to different rooms are recorded in parallel.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class ChatHistory {
+
+	/**
+	 * Messages each room keeps.
+	 */
+	private final int capacity;
+
+	/**
+	 * Log on disk, null to keep the history in memory only, volatile as it is dropped by whichever broadcast finds it failing.
+	 */
+	private volatile ChatLog log;
+
+	/**
+	 * Server log a failing chat log is reported to.
+	 */
+	private final ServerLog serverLog;
+
+	/**
+	 * Ring of each room by name.
+	 */
+	private final Map<String, HistoryRing> rings = new ConcurrentHashMap<String, HistoryRing>();
+
+	/**
+	 * Constructor method for {@link ChatHistory}.
+	 * @param capacity messages each room keeps
+	 * @param log log on disk, null to keep the history in memory only
+	 * @param serverLog server log a failing chat log is reported to
+	 */
+	ChatHistory(int capacity, ChatLog log, ServerLog serverLog) {
+		this.capacity = capacity;
+		this.log = log;
+		this.serverLog = serverLog;
+	}
+
+	/**
+	 * Fills the rings from the log on disk, if there is one.
+	 * @throws IOException if the log could not be read
+	 */
+	void recover() throws IOException {
+
+		if(log != null) log.recover((room, sender, timestamp, line) -> ring(room).add(new WireMessage(line)));
+	}
+
+	/**
+	 * Records a line sent to a room and returns it ready to be sent,
+	 * backed by the log's mapping when there is a log, so it is encoded just once for logging and sending.
+	 * Concurrent lines to one room may reach its ring in another order than the log, as they may reach its members.
+	 * @param room name of the room
+	 * @param sender username of the sender
+	 * @param isDirect whether a line kept in memory only should be a direct buffer
+	 * @param first first encoded part of the line
+	 * @param second second encoded part
+	 * @param third third encoded part
+	 * @return message to offer to the room's members
+	 */
+	WireMessage record(String room, String sender, boolean isDirect, byte[] first, byte[] second, byte[] third) {
+
+		ChatLog chatLog = log;
+		WireMessage message = null;
+
+		if(chatLog != null) {
+			try {
+				ByteBuffer line = chatLog.append(System.currentTimeMillis(), room, sender, first, second, third, WireFormat.LINE_SEPARATOR);
+				if(line != null) message = new WireMessage(line);
+			}
+			catch(IOException e) { // keep chatting without the log rather than fail every message
+				serverLog.error("Chat history log disabled: " + e);
+				log = null;
+			}
+		}
+		if(message == null) message = WireFormat.line(isDirect, first, second, third);
+
+		ring(room).add(message);
+		return message;
+	} // end of record() in the class ChatHistory
+
+	/**
+	 * The most recent messages of a room.
+	 * @param room name of the room
+	 * @param count most messages wanted
+	 * @return up to count messages, oldest first
+	 */
+	List<WireMessage> recent(String room, int count) {
+
+		HistoryRing ring = rings.get(room);
+		return ring == null ? Collections.<WireMessage>emptyList() : ring.recent(count);
+	}
+
+	/**
+	 * Ring of a room, created on first use.
+	 * @param room name of the room
+	 * @return the room's ring
+	 */
+	private HistoryRing ring(String room) {
+		return rings.computeIfAbsent(room, r -> new HistoryRing(capacity));
+	}
+} // end of the class ChatHistory
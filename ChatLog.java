@@ -0,0 +1,370 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of the messages broadcast in every room, kept in memory-mapped segment files on local disk.
+ * Each record is written straight into the mapping and the line it holds is handed back as a slice of it,
+ * so the same bytes are logged, sent and later replayed without being copied onto the heap.
+ * <p>
+ * Record layout: length of the rest of the record (4 bytes), sequence number (8 bytes),
+ * timestamp in milliseconds (8 bytes), room length (1 byte), sender length (1 byte),
+ * room and sender (UTF-8), then the line exactly as it was sent to the room.
+ * A length of 0 marks the end of a segment, as new files are zero-filled.
+ * Segments are named after the sequence number reached when they were created, so they sort oldest first,
+ * and the oldest are deleted past a limit.
+ * <p>
+ * Thread-safe: a short lock reserves each record's space and sequence number, and the record is then written without it,
+ * so broadcasts to different rooms copy their lines in parallel.
+ * The next segment is created, and its pages touched, on a thread of its own before it is needed,
+ * so rolling over is a swap under the lock rather than file work on a broadcasting thread.
+ * A crash while a record is half written loses the records after it in that segment, as recovery stops at its 0 length.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class ChatLog {
+
+	/**
+	 * Bytes in a record before the room, after the length.
+	 */
+	private static final int RECORD_HEADER = 8 + 8 + 1 + 1;
+
+	/**
+	 * Ending of segment file names.
+	 */
+	private static final String SUFFIX = ".log";
+
+	/**
+	 * Directory holding the segment files.
+	 */
+	private final Path directory;
+
+	/**
+	 * Size each segment file is mapped at.
+	 */
+	private final int segmentBytes;
+
+	/**
+	 * Most segment files kept, the oldest are deleted beyond this.
+	 */
+	private final int maxSegments;
+
+	/**
+	 * Bytes between the writes touching every page of a new segment.
+	 */
+	private static final int PAGE = 4096;
+
+	/**
+	 * Segment files, oldest first, the segment made ready not included.
+	 */
+	private final ArrayDeque<Path> segments = new ArrayDeque<Path>();
+
+	/**
+	 * Guards the segments, the newest one's position and the sequence numbers, held only to reserve a record's space.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Mapping of the newest segment, positioned where the next record goes, null before the first.
+	 */
+	private MappedByteBuffer current;
+
+	/**
+	 * Sequence number of the next record.
+	 */
+	private long nextSequence = 1;
+
+	/**
+	 * Number the newest segment file was named after, the next is named after a greater one.
+	 */
+	private long lastSegment = 0;
+
+	/**
+	 * Segment made ready for the next roll over, null while there is none.
+	 */
+	private MappedByteBuffer spare;
+
+	/**
+	 * File of the segment made ready.
+	 */
+	private Path spareFile;
+
+	/**
+	 * Whether a segment is being made ready, so only one is at a time.
+	 */
+	private boolean isPreparing = false;
+
+	/**
+	 * Constructor method for {@link ChatLog}.
+	 * @param directory directory holding the segment files, created if need be
+	 * @param segmentBytes size of each segment file
+	 * @param maxSegments most segment files kept
+	 */
+	ChatLog(Path directory, int segmentBytes, int maxSegments) {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.maxSegments = Math.max(1, maxSegments);
+	}
+
+	/**
+	 * Something told about each record found by {@link ChatLog#recover(RecordHandler)}.
+	 */
+	interface RecordHandler {
+
+		/**
+		 * Called for each record, oldest first.
+		 * @param room room the line was sent to
+		 * @param sender username of the sender
+		 * @param timestamp time the line was sent, in milliseconds
+		 * @param line read-only slice of the mapping holding the line
+		 */
+		void record(String room, String sender, long timestamp, ByteBuffer line);
+	}
+
+	/**
+	 * Maps the segments already on disk and passes every record in them to the handler,
+	 * then carries on appending to the newest segment, or a new one if there was none,
+	 * and starts making the next one ready. Called once, before any record is appended.
+	 * @param handler told about each record, oldest first
+	 * @throws IOException if the directory or a segment could not be read
+	 */
+	void recover(RecordHandler handler) throws IOException {
+
+		Files.createDirectories(directory);
+
+		List<Path> found = new ArrayList<Path>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for(Path file : files) found.add(file);
+		}
+		Collections.sort(found); // names are zero-padded sequence numbers
+
+		for(int i = 0; i < found.size(); i++) {
+			boolean isNewest = i == found.size() - 1;
+			MappedByteBuffer segment = map(found.get(i), isNewest);
+			segments.add(found.get(i));
+			try {
+				String name = found.get(i).getFileName().toString();
+				lastSegment = Math.max(lastSegment, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+			}
+			catch(NumberFormatException e) { // not named by this log, sorted all the same
+			}
+
+			int position = 0;
+			while(position + 4 <= segment.limit()) {
+				int length = segment.getInt(position);
+				if(length < RECORD_HEADER || position + 4 + length > segment.limit()) break; // end of the written part
+
+				int start = position + 4;
+				long sequence = segment.getLong(start);
+				long timestamp = segment.getLong(start + 8);
+				int roomLength = segment.get(start + 16) & 0xFF;
+				int senderLength = segment.get(start + 17) & 0xFF;
+				int lineStart = start + RECORD_HEADER + roomLength + senderLength;
+
+				handler.record(string(segment, start + RECORD_HEADER, roomLength),
+					string(segment, start + RECORD_HEADER + roomLength, senderLength),
+					timestamp, segment.slice(lineStart, start + length - lineStart).asReadOnlyBuffer());
+				nextSequence = sequence + 1;
+				position = start + length;
+			}
+			if(isNewest) {
+				segment.position(position);
+				current = segment;
+			}
+		}
+
+		lock.lock();
+		try {
+			if(current == null) roll(); // the first run, at start-up rather than on the first broadcast
+			else prepareNext();
+		}
+		finally {
+			lock.unlock();
+		}
+	} // end of recover() in the class ChatLog
+
+	/**
+	 * Appends a record holding a line made of several encoded parts.
+	 * @param timestamp time the line was sent, in milliseconds
+	 * @param room room the line was sent to, at most 255 bytes once encoded
+	 * @param sender username of the sender, at most 255 bytes once encoded
+	 * @param parts encoded parts of the line, separator included
+	 * @return read-only slice of the mapping holding the line, or null if the record would not fit in a segment
+	 * @throws IOException if a new segment could not be created
+	 */
+	ByteBuffer append(long timestamp, String room, String sender, byte[]... parts) throws IOException {
+
+		byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+		byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+		int lineLength = 0;
+		for(byte[] part : parts) lineLength += part.length;
+
+		int recordLength = RECORD_HEADER + roomBytes.length + senderBytes.length + lineLength;
+		if(4 + recordLength > segmentBytes) return null;
+
+		ByteBuffer record;
+		long sequence;
+		lock.lock();
+		try {
+			if(current == null || current.remaining() < 4 + recordLength) roll();
+			sequence = nextSequence++;
+			int start = current.position();
+			current.position(start + 4 + recordLength);
+			record = current.slice(start, 4 + recordLength);
+		}
+		finally {
+			lock.unlock();
+		}
+
+		record.position(4);
+		record.putLong(sequence).putLong(timestamp)
+			.put((byte) roomBytes.length).put((byte) senderBytes.length).put(roomBytes).put(senderBytes);
+		int lineStart = record.position();
+		for(byte[] part : parts) record.put(part);
+		record.putInt(0, recordLength); // last, so a record is never seen half written
+
+		return record.slice(lineStart, lineLength).asReadOnlyBuffer();
+	} // end of append() in the class ChatLog
+
+	/**
+	 * Starts a new segment, the one made ready if there is one, and starts making the next one ready, the lock must be held.
+	 * Lines already handed out stay readable, a mapping outlives the file it was made from.
+	 * @throws IOException if no segment was ready and one could not be created
+	 */
+	private void roll() throws IOException {
+
+		if(spare != null) {
+			current = spare;
+			segments.add(spareFile);
+			spare = null;
+		}
+		else { // the first, or rolling over faster than segments are made ready
+			Path file = fileFor(nextNumber());
+			current = map(file, true);
+			segments.add(file);
+		}
+		prepareNext();
+	}
+
+	/**
+	 * Starts a thread making the next segment ready, unless there is one or one is being made, the lock must be held.
+	 */
+	private void prepareNext() {
+
+		if(spare != null || isPreparing) return;
+		isPreparing = true;
+
+		long number = nextNumber();
+		Path file = fileFor(number);
+		Thread thread = new Thread(() -> prepare(number, file), "history-roll");
+		thread.setDaemon(true); // never keeps the process alive
+		thread.start();
+	}
+
+	/**
+	 * Creates the next segment and touches every page of it, so its first records do not wait for the file system,
+	 * then deletes the oldest segments past the limit, on the thread started by {@link ChatLog#prepareNext()}.
+	 * A failure is left for the next roll over, which then creates a segment itself and reports it.
+	 * A segment overtaken by one the roll over had to create meanwhile would sort before it, so it is deleted and another made ready.
+	 * @param number number the segment is named after
+	 * @param file file of the segment
+	 */
+	private void prepare(long number, Path file) {
+
+		MappedByteBuffer segment = null;
+		List<Path> old = new ArrayList<Path>();
+
+		try {
+			segment = map(file, true);
+			for(int i = 0; i < segment.limit(); i += PAGE) segment.put(i, segment.get(i));
+		}
+		catch(IOException e) {
+			segment = null;
+		}
+
+		lock.lock();
+		try {
+			isPreparing = false;
+			if(number == lastSegment) {
+				spare = segment;
+				spareFile = file;
+			}
+			else {
+				old.add(file);
+				prepareNext();
+			}
+			while(segments.size() > maxSegments) old.add(segments.poll());
+		}
+		finally {
+			lock.unlock();
+		}
+		for(Path path : old) {
+			try {
+				Files.deleteIfExists(path);
+			}
+			catch(IOException e) { // left on disk, recovery reads it as an old segment
+			}
+		}
+	} // end of prepare() in the class ChatLog
+
+	/**
+	 * Number a new segment is named after, the next sequence number or past the newest segment's, the lock must be held.
+	 * @return the number
+	 */
+	private long nextNumber() {
+		lastSegment = Math.max(nextSequence, lastSegment + 1);
+		return lastSegment;
+	}
+
+	/**
+	 * File of a segment.
+	 * @param number number the segment is named after
+	 * @return path of the file
+	 */
+	private Path fileFor(long number) {
+		return directory.resolve(String.format("%020d", number) + SUFFIX);
+	}
+
+	/**
+	 * Maps a segment file.
+	 * @param file segment file
+	 * @param isWritable true to map it read-write at full size, creating or growing the file
+	 * @return the mapping
+	 * @throws IOException if the file could not be mapped
+	 */
+	private MappedByteBuffer map(Path file, boolean isWritable) throws IOException {
+		if(isWritable) {
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, channel.size()));
+			}
+		}
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Decodes a UTF-8 string held in a mapping.
+	 * @param buffer the mapping
+	 * @param index where the string starts
+	 * @param length bytes in the string
+	 * @return the string
+	 */
+	private static String string(ByteBuffer buffer, int index, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(index, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+} // end of the class ChatLog
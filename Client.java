@@ -1,5 +1,7 @@
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Client program for the chat room.
@@ -13,17 +15,26 @@ public class Client {
 	
 	/**
 	 * Main method. 
-	 * @param args command-line arguments
+	 * @param args command-line arguments, --frames to use frames when the server offers them,
+	 * --deflate to have what the server sends compressed when it offers to, 
+	 * --load to run the headless {@link LoadGenerator} with the options it takes instead
 	 * @throws Exception simply terminate running clientInstance when exception is thrown
 	 */
 	public static void main(String[] args) throws Exception {
-		ClientInstance client = new ClientInstance();
+		if (java.util.Arrays.asList(args).contains("--load")) {
+			LoadGenerator.main(args);
+			return;
+		}
+		ClientInstance client = new ClientInstance(java.util.Arrays.asList(args).contains("--frames"), 
+			java.util.Arrays.asList(args).contains("--deflate"));
 		client.run();
 	}
 }
 
 /**
  * Instance of each client in the chat room. 
+ * When the server offers it the client can resume its session, 
+ * so if the connection drops it reconnects by itself and is sent only the lines it missed. 
  * @author jack
  * @version 1.0
  * @since 2017-12-09
@@ -46,6 +57,37 @@ class ClientInstance {
 	 */
 	private String accepted = "Your username is accepted.";
 	
+	/**
+	 * Wait before the first attempt to reconnect, in milliseconds, doubled after each failed one. 
+	 */
+	private static final long INITIAL_BACKOFF_MILLIS = 250;
+	
+	/**
+	 * Longest wait between attempts to reconnect, in milliseconds. 
+	 */
+	private static final long MAX_BACKOFF_MILLIS = 8000;
+	
+	/**
+	 * Attempts to reconnect before giving up, a couple of minutes at the longest wait. 
+	 */
+	private static final int RECONNECT_ATTEMPTS = 20;
+	
+	/**
+	 * Milliseconds without a line from the server before the client pings it, 
+	 * shorter than the server's default idle timeout so the server seldom needs to ping the client. 
+	 */
+	private static final long HEARTBEAT_IDLE_MILLIS = 20000;
+	
+	/**
+	 * Milliseconds after a ping before a server that still sends nothing is taken for gone and the client reconnects. 
+	 */
+	private static final long HEARTBEAT_READ_MILLIS = 10000;
+	
+	/**
+	 * Address of the server, kept for reconnecting. 
+	 */
+	private String serverAddress;
+	
 	/**
 	 * Endpoint of the client for the two-way communication link with the server.
 	 */
@@ -61,6 +103,82 @@ class ClientInstance {
 	 */
 	private PrintWriter out;
 	
+	/**
+	 * Whether to ask for frames when the server offers them. 
+	 */
+	private boolean useFrames;
+	
+	/**
+	 * Whether to ask for compression when the server offers it. 
+	 */
+	private boolean useDeflate;
+	
+	/**
+	 * Reads the handshake lines and then the frames from the server when frames or compression may be used, 
+	 * a byte stream so nothing after the handshake is decoded as text. 
+	 */
+	private DataInputStream frameIn;
+	
+	/**
+	 * Sends frames to the server. 
+	 */
+	private OutputStream frameOut;
+	
+	/**
+	 * Set once frames have been asked for, the server remembers the request if a username is refused. 
+	 */
+	private boolean isFramesRequested = false;
+	
+	/**
+	 * Set once compression has been asked for, everything after the accepted line then comes in blocks. 
+	 */
+	private boolean isDeflateRequested = false;
+	
+	/**
+	 * Set once resuming has been asked for, the server then gives a token after the accepted line. 
+	 */
+	private boolean isResumeRequested = false;
+	
+	/**
+	 * Set once pings have been asked for, the client then answers the server's and pings a quiet server itself. 
+	 */
+	private boolean isHeartbeatRequested = false;
+	
+	/**
+	 * Deadlines of the heartbeat, one thread for the client's one connection. 
+	 */
+	private final TimingWheel timers = new TimingWheel("client-timers", 100, 64);
+	
+	/**
+	 * Watches for the server going quiet on the current connection, null when the server does not ping. 
+	 */
+	private volatile Heartbeat heartbeat = null;
+	
+	/**
+	 * Token to resume the session with, null until the server gives one or once the session has gone. 
+	 */
+	private String resumeToken = null;
+	
+	/**
+	 * Lines read from the server since the username was accepted, which tells it where to resume from. 
+	 */
+	private long linesRead = 0;
+	
+	/**
+	 * Set once the user has signed out, so a closed connection is not reconnected. 
+	 */
+	private volatile boolean isQuitting = false;
+	
+	/**
+	 * Held while sending and while reconnecting, so what is typed meanwhile waits for the new connection. 
+	 */
+	private final ReentrantLock connectionLock = new ReentrantLock();
+	
+	/**
+	 * True once the server has accepted the username of a client that asked for frames. 
+	 */
+	private volatile boolean isFramed = false;
+	
 	/**
 	 * Client ability to chat initally set to false. 
 	 */
@@ -76,13 +194,25 @@ class ClientInstance {
 	 */
 	private String clientName;
 	
+	/**
+	 * Constructor method for {@link ClientInstance}. 
+	 * @param useFrames whether to ask for frames when the server offers them
+	 * @param useDeflate whether to ask for compression when the server offers it
+	 */
+	ClientInstance(boolean useFrames, boolean useDeflate) {
+		this.useFrames = useFrames;
+		this.useDeflate = useDeflate;
+	}
+	
 	/**
 	 * Runs all the methods for each instance of the client, 
 	 * established connection to the server, 
 	 * handles the outgoing and incoming messages to and from the server. 
 	 */
 	public void run() { 
+		timers.start();
 		establishConnection();
+		if (!isAllowedToChat) return; // the connection closed before the username was accepted
 		handleOutgoingMessages();
 		handleIncomingMessages();
 	}
@@ -93,12 +223,9 @@ class ClientInstance {
 	 */
 	private void establishConnection() {
 		
-		String serverAddress = getClientInput("What is the address of the server that you wish to connect to?");
-		// Socket used by client to connect to server
+		serverAddress = getClientInput("What is the address of the server that you wish to connect to?");
 		try {
-			socket = new Socket(serverAddress, portNumber);
-			in = new BufferedReader( new InputStreamReader(socket.getInputStream()));
-			out = new PrintWriter(socket.getOutputStream(), true);
+			openConnection();
 			isServerConnected = true;
 		} 
 		catch (IOException e) {
@@ -106,10 +233,27 @@ class ClientInstance {
 		}
 		handleProfileSetUp();
 	} // end of handleConnection() in the class ClientInstance
+	
+	/**
+	 * Connects to the server and creates the streams, 
+	 * reading bytes rather than text when frames or compression may be used. 
+	 * @throws IOException if the server cannot be reached
+	 */
+	private void openConnection() throws IOException {
+		
+		socket = new Socket(serverAddress, portNumber); // Socket used by client to connect to server
+		if (useFrames || useDeflate) {
+			frameIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			frameOut = new BufferedOutputStream(socket.getOutputStream());
+		}
+		else in = new BufferedReader( new InputStreamReader(socket.getInputStream()));
+		out = new PrintWriter(socket.getOutputStream(), true);
+	}
 		
 	/**
 	 * Asks user for username, when accepted 
-	 * allows them to send messages to the server. 
+	 * allows them to send messages to the server, 
+	 * gives up if the connection closes first. 
 	 */
 	private void handleProfileSetUp() {
 		
@@ -117,22 +261,108 @@ class ClientInstance {
 		
 		while (!isAllowedToChat) {
 			try {
-				line = in.readLine();
+				line = !isServerConnected ? null : frameIn != null ? Frame.readLine(frameIn) : in.readLine();
 			}
 			catch (IOException e) {
 				System.err.println("Exception in handleProfileSetUp:" + e);
+				line = null;
+			}
+			if (line == null) {
+				System.err.println("The connection to the server closed before you signed in");
+				isServerConnected = false;
+				return;
 			}
 			if (line.startsWith(welcome)) {
+				requestOffers(line);
 				out.println(getClientInput(welcome));
 			}
 			else if (line.startsWith(accepted)) {
 				isAllowedToChat = true; // username ok
+				switchStreams();
+				watchConnection();
 				System.out.println(accepted + " You can type messages.");
 				System.out.println("To see a list of server commands, type \\help.");
 			}
 			else System.out.println(line);
 		}
 	}	// end of handleProfileSetUp()	in the class ClientInstance	
+	
+	/**
+	 * Asks for what the server offers in its welcome line and the client wants, before the username, 
+	 * frames and compression start once it is accepted, and resuming is always asked for. 
+	 * @param line welcome line from the server
+	 */
+	private void requestOffers(String line) {
+		
+		if (useFrames && !isFramesRequested && line.contains(Frame.OFFER)) {
+			out.println(Frame.REQUEST); // before the username, frames start once it is accepted
+			isFramesRequested = true;
+		}
+		if (useDeflate && !isDeflateRequested && line.contains(BlockCompressor.OFFER)) {
+			out.println(BlockCompressor.REQUEST); // likewise, blocks start once it is accepted
+			isDeflateRequested = true;
+		}
+		if (!isResumeRequested && line.contains(ReplayBuffer.OFFER)) {
+			out.println(ReplayBuffer.REQUEST); // the token comes after the accepted line
+			isResumeRequested = true;
+		}
+		if (!isHeartbeatRequested && line.contains(Heartbeat.OFFER)) {
+			out.println(Heartbeat.REQUEST); // pings start once signed in
+			isHeartbeatRequested = true;
+		}
+	}
+	
+	/**
+	 * Starts watching the connection just signed in on, when the server pings, 
+	 * pinging the server once it has been quiet and closing the connection if it stays quiet, 
+	 * which the listener sees as the connection dropping. 
+	 */
+	private void watchConnection() {
+		
+		if (!isHeartbeatRequested) return;
+		
+		Socket watched = socket; // a later connection has a watch of its own
+		heartbeat = new Heartbeat(timers, HEARTBEAT_IDLE_MILLIS, HEARTBEAT_READ_MILLIS, 
+			() -> new Thread(() -> sendHeartbeat(Heartbeat.PING)).start(), // the wheel must not wait on the socket
+			() -> {
+				System.err.println("Nothing heard from the server, the connection is taken for dead");
+				try {
+					watched.close();
+				}
+				catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+			});
+		heartbeat.start();
+	}
+	
+	/**
+	 * Sends a ping or a pong on the current connection. 
+	 * @param line {@link Heartbeat#PING} or {@link Heartbeat#PONG}
+	 */
+	private void sendHeartbeat(String line) {
+		
+		connectionLock.lock();
+		try {
+			sendNow(line); // a command frame once frames are in use
+		}
+		finally {
+			connectionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Switches to frames, compression, or both, as asked for, once the server has accepted the username or resumed the session. 
+	 */
+	private void switchStreams() {
+		
+		isFramed = isFramesRequested;
+		if (frameIn != null) { // the rest of the stream, inflated if compression was asked for
+			InputStream rest = isDeflateRequested ? new BlockInputStream(frameIn) : frameIn;
+			if (isFramed) frameIn = new DataInputStream(rest);
+			else in = new BufferedReader(new InputStreamReader(rest));
+		}
+	}
 
 	/**
 	 * Create thread to send messages to the server. 
@@ -142,13 +372,64 @@ class ClientInstance {
 		Thread senderThread = new Thread(new Runnable() { //Sender thread
 			public void run() {
 				while(isServerConnected) {
-					out.println(getClientInput(null));
+					send(getClientInput(null));
 				}
 			}
 		});
 		senderThread.start();
 	} // end of handleOutgoingMessages() in the class ClientInstance
 
+	/**
+	 * Sends a line typed by the client, as it is or as a frame once frames are in use, 
+	 * the frame type worked out here so the server does not have to look through the text. 
+	 * @param message line typed by the client
+	 */
+	private void send(String message) {
+		
+		if (message == null || message.equals("\\quit")) isQuitting = true; // the connection closing is no cause to reconnect
+		
+		connectionLock.lock();
+		try {
+			sendNow(message);
+		}
+		finally {
+			connectionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Sends a line on the current connection, with the connection lock held. 
+	 * @param message line typed by the client
+	 */
+	private void sendNow(String message) {
+		
+		if (!isFramed) {
+			out.println(message);
+			return;
+		}
+		
+		String target = "";
+		byte type;
+		
+		if (message == null || message.equals("\\quit")) type = Frame.QUIT;
+		else if (message.startsWith("\\")) type = Frame.COMMAND;
+		else if (message.startsWith("@") && message.indexOf(' ') > 0) {
+			type = Frame.PRIVATE;
+			target = message.substring(1, message.indexOf(' '));
+			message = message.substring(message.indexOf(' ') + 1);
+		}
+		else type = Frame.MESSAGE;
+		
+		try {
+			java.nio.ByteBuffer frame = Frame.encode(type, target, message == null ? "" : message);
+			frameOut.write(frame.array(), 0, frame.limit());
+			frameOut.flush();
+		}
+		catch (IOException | IllegalArgumentException e) {
+			System.err.println("Exception in send(): " + e);
+		}
+	} // end of sendNow() in the class ClientInstance
+
 	/**
 	 * Get messages from the server via BufferedReader. 
 	 * @param clientInstructions to ask client for server ip address they wish to connect to
@@ -179,8 +460,11 @@ class ClientInstance {
 
 	/**
 	 * Handles the messages received from the server, 
-	 * creates listener thread and 
-	 * informs client if server has been disconnected. 
+	 * creates listener thread, 
+	 * counts the lines read for resuming, 
+	 * answers the server's pings, 
+	 * reconnects if the connection drops and the session can be resumed, 
+	 * and informs client if server has been disconnected. 
 	 */
 	private void handleIncomingMessages() { // Listener thread
 		Thread listenerThread = new Thread(new Runnable() {
@@ -188,16 +472,33 @@ class ClientInstance {
 				while (isServerConnected) {
 					String line = null;
 					try {
-						line = in.readLine();
+						if (isFramed) {
+							line = readText();
+						}
+						else line = in.readLine();
+						if (line == null && reconnect()) continue;
 						if (line == null) { // server isn't responsive
 							isServerConnected = false;
 							System.err.println("Disconnected from the server");
 							closeConnection();
 							break;
 						}
-						System.out.println(line);
+						linesRead += isFramed ? line.chars().filter(c -> c == '\n').count() : 1;
+						Heartbeat watch = heartbeat;
+						if (watch != null) watch.heard();
+						if (Heartbeat.isHeartbeat(line.strip())) { // a frame holds the ping with its separator
+							if (Heartbeat.PING.equals(line.strip())) sendHeartbeat(Heartbeat.PONG);
+							continue;
+						}
+						if (line.startsWith(ReplayBuffer.TOKEN)) {
+							resumeToken = line.substring(ReplayBuffer.TOKEN.length()).trim();
+							continue;
+						}
+						if (isFramed) System.out.print(line); // the lines keep their separators
+						else System.out.println(line);
 					}
 					catch(IOException e) {
+						if (reconnect()) continue;
 						isServerConnected = false;
 						System.err.println("IOE in handleIncomingMessages()");
 						break;
@@ -208,6 +509,115 @@ class ClientInstance {
 		listenerThread.start();			
 	} // end of handleIncomingMessages() in the class ClientInstance
 
+	/**
+	 * Reconnects once the connection to the server has dropped, unless the user signed out, 
+	 * waiting twice as long after each failed attempt, half of each wait random so clients that lost the same server 
+	 * do not all come back at once. 
+	 * What is typed meanwhile waits to be sent on the new connection. 
+	 * @return true if the session carries on over a new connection
+	 */
+	private boolean reconnect() {
+		
+		Heartbeat watch = heartbeat;
+		if (watch != null) watch.stop(); // the new connection gets a watch of its own
+		heartbeat = null;
+		
+		if (resumeToken == null || isQuitting) return false;
+		
+		System.err.println("Connection to the server lost, reconnecting ...");
+		long backoff = INITIAL_BACKOFF_MILLIS;
+		
+		connectionLock.lock();
+		try {
+			for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+				Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+				try {
+					socket.close();
+					openConnection();
+					return rejoin();
+				}
+				catch (IOException e) { // server not back yet
+					System.err.println("Reconnecting failed: " + e.getMessage());
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			connectionLock.unlock();
+		}
+		return false;
+	} // end of reconnect() in the class ClientInstance
+	
+	/**
+	 * Goes through the handshake again on a new connection, asking for the same frames and compression as before, 
+	 * and resumes the session with its token and the lines read so far, 
+	 * or signs in again under the same username if the server no longer holds the session. 
+	 * @return true once the session carries on, false if the username has been taken meanwhile
+	 * @throws IOException if the new connection drops too
+	 */
+	private boolean rejoin() throws IOException {
+		
+		boolean isNameSent = false;
+		isFramesRequested = false;
+		isDeflateRequested = false;
+		isResumeRequested = false;
+		isHeartbeatRequested = false;
+		isFramed = false;
+		
+		while (true) {
+			String line = frameIn != null ? Frame.readLine(frameIn) : in.readLine();
+			if (line == null) throw new EOFException("connection closed during the handshake");
+			
+			if (line.startsWith(welcome)) {
+				if (isNameSent) return false; // refused
+				requestOffers(line);
+				if (resumeToken != null && line.contains(ReplayBuffer.OFFER)) {
+					out.println(ReplayBuffer.RESUME + resumeToken + " " + linesRead);
+				}
+				else {
+					out.println(clientName);
+					isNameSent = true;
+				}
+			}
+			else if (line.startsWith(ReplayBuffer.RESUMED)) {
+				long resumedAt = Long.parseLong(line.substring(ReplayBuffer.RESUMED.length()).trim());
+				switchStreams();
+				watchConnection();
+				System.err.println("Reconnected to the server" 
+					+ (resumedAt > linesRead ? ", " + (resumedAt - linesRead) + " lines were lost" : ""));
+				linesRead = resumedAt;
+				return true;
+			}
+			else if (line.startsWith(accepted)) {
+				switchStreams();
+				watchConnection();
+				linesRead = 0;
+				System.err.println("Reconnected to the server, signed in again as " + clientName);
+				return true;
+			}
+			else if (line.startsWith(ReplayBuffer.EXPIRED)) resumeToken = null; // sign in again instead
+			else System.out.println(line);
+		}
+	} // end of rejoin() in the class ClientInstance
+
+	/**
+	 * Reads frames from the server until one carries text. 
+	 * @return text of the frame, whole lines with their separators, or null once the server has gone
+	 * @throws IOException if the frames could not be read
+	 */
+	private String readText() throws IOException {
+		
+		Frame frame;
+		
+		while ((frame = Frame.read(frameIn)) != null) {
+			if (frame.type == Frame.TEXT) return frame.payload;
+		}
+		return null;
+	} // end of readText() in the class ClientInstance
+
 	/**
 	 * Closes the connection to the server. 
 	 */
@@ -0,0 +1,26 @@
+import java.io.IOException;
+
+/**
+ * A command clients type, a line starting with '\', handled once the client is signed in.
+ * Commands are registered with the server's {@link CommandRegistry} under their name, the first word of the line,
+ * the server's own at start-up and an operator's by a {@link CommandPlugin}.
+ * <p>
+ * A command runs on the thread handling the client, an event loop's in NIO mode,
+ * so anything that may take long is to be handed to another thread.
+ * It sees the client through {@link CommandSession}, all a plugin's command can count on,
+ * the server's own commands are handed the whole {@link Server.HandleSession} behind it.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+@FunctionalInterface
+public interface Command {
+
+	/**
+	 * Handles one use of the command, answering with {@link CommandSession#reply(String)}.
+	 * @param session session of the client that typed it
+	 * @param argument what followed the name and a space, trimmed, empty if nothing did
+	 * @throws IOException if the command could not be carried out, which ends the session
+	 */
+	void run(CommandSession session, String argument) throws IOException;
+} // end of the interface Command
@@ -0,0 +1,22 @@
+/**
+ * Adds an operator's commands to the server without changing it.
+ * Plugins are found with {@link java.util.ServiceLoader} as the server starts,
+ * so a plugin is a class on the class path with a public no-argument constructor,
+ * named in a META-INF/services/CommandPlugin file on the class path.
+ * A plugin may also replace one of the server's commands by registering one of the same name.
+ * <p>
+ * A plugin sees only the public types: {@link CommandRegistry} to register with, {@link Command}, and {@link CommandSession}
+ * for the client that typed a command. Like the rest of the server these are in the unnamed package,
+ * which a class in a named package cannot refer to, so a plugin is in the unnamed package too.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+public interface CommandPlugin {
+
+	/**
+	 * Registers the plugin's commands.
+	 * @param registry registry of the server's commands
+	 */
+	void register(CommandRegistry registry);
+} // end of the interface CommandPlugin
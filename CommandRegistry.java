@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Every command clients can type, by name, so a command line is dispatched with one hash lookup of its first word
+ * rather than by comparing it with every command in turn.
+ * <p>
+ * Each command is registered with its usage and a description for \help, and a permission,
+ * admin-only commands being refused to everyone not named with --admins.
+ * The \help text, the only output every client asks for that is the same every time,
+ * is encoded once for each permission and sent to every client that asks as a view of the same bytes,
+ * and encoded again only when a command is registered. {@link CommandRegistry#constant(Text)} does the same for any command
+ * whose output does not change while the server runs.
+ * <p>
+ * Registering replaces a command of the same name, so an operator's {@link CommandPlugin} may change the server's own.
+ * Public, with {@link CommandRegistry#register(String, String, Permission, Command)} and {@link CommandRegistry#describe(String, String)},
+ * as that is what a plugin is handed, everything else is the server's.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+public class CommandRegistry {
+
+	/**
+	 * Who may use a command.
+	 */
+	public enum Permission {
+
+		/**
+		 * Every signed in client.
+		 */
+		EVERYONE,
+
+		/**
+		 * Only the admins named at start-up, the command is left out of everyone else's \help.
+		 */
+		ADMIN
+	}
+
+	/**
+	 * Output of a command that does not change, worked out when it is first asked for.
+	 */
+	@FunctionalInterface
+	interface Text {
+
+		/**
+		 * Works the output out.
+		 * @return lines, without the last line's terminator
+		 * @throws IOException if the output could not be worked out, it is tried again next time
+		 */
+		String get() throws IOException;
+	}
+
+	/**
+	 * A registered command with what \help says about it.
+	 */
+	private static final class Entry {
+
+		/**
+		 * How the command is typed, its name first.
+		 */
+		final String usage;
+
+		/**
+		 * What the command does.
+		 */
+		final String description;
+
+		/**
+		 * Who may use the command.
+		 */
+		final Permission permission;
+
+		/**
+		 * The command.
+		 */
+		final Command command;
+
+		/**
+		 * Constructor method for {@link CommandRegistry.Entry}.
+		 * @param usage how the command is typed
+		 * @param description what the command does
+		 * @param permission who may use the command
+		 * @param command the command
+		 */
+		Entry(String usage, String description, Permission permission, Command command) {
+			this.usage = usage;
+			this.description = description;
+			this.permission = permission;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * Command of each name, the name starting with '\'.
+	 */
+	private final Map<String, Entry> commands = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Lines of \help in the order they were first registered, usage and description, commands and notes alike.
+	 */
+	private final List<String[]> helpOrder = new ArrayList<String[]>();
+
+	/**
+	 * \help for each permission, by its ordinal, null until asked for after a command is registered.
+	 */
+	private final AtomicReferenceArray<WireMessage> help = new AtomicReferenceArray<WireMessage>(Permission.values().length);
+
+	/**
+	 * Guards {@link CommandRegistry#helpOrder} and the building of \help.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Whether a username is one of the admins.
+	 */
+	private final Predicate<String> isAdmin;
+
+	/**
+	 * Constructor method for {@link CommandRegistry}.
+	 * @param isAdmin whether a username is one of the admins
+	 */
+	CommandRegistry(Predicate<String> isAdmin) {
+		this.isAdmin = isAdmin;
+	}
+
+	/**
+	 * Registers a command, replacing any of the same name.
+	 * @param usage how the command is typed, its name first, e.g. "\\join 'room'"
+	 * @param description what the command does, for \help
+	 * @param permission who may use the command
+	 * @param command the command
+	 */
+	public void register(String usage, String description, Permission permission, Command command) {
+
+		String name = usage.split(" ", 2)[0];
+
+		lock.lock();
+		try {
+			if(commands.put(name, new Entry(usage, description, permission, command)) == null) {
+				helpOrder.add(new String[] {name});
+			}
+			forgetHelp();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a line to \help that is not a command of its own, such as how to send a private message.
+	 * @param usage what is typed
+	 * @param description what it does
+	 */
+	public void describe(String usage, String description) {
+		lock.lock();
+		try {
+			helpOrder.add(new String[] {usage, description});
+			forgetHelp();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the encoded \help, which no longer lists every command, with the lock held.
+	 */
+	private void forgetHelp() {
+		for(int i = 0; i < help.length(); i++) help.set(i, null);
+	}
+
+	/**
+	 * Runs the command a line names, if the client may use it, nothing happens for a name no command has.
+	 * @param session session of the client that typed the line
+	 * @param line line typed, starting with '\'
+	 * @throws IOException if the command could not be carried out
+	 */
+	void dispatch(Server.HandleSession session, String line) throws IOException {
+
+		int space = line.indexOf(' ');
+		Entry entry = commands.get(space < 0 ? line : line.substring(0, space));
+
+		if(entry == null) return;
+		if(entry.permission == Permission.ADMIN && !isAdmin.test(session.name)) {
+			session.reply("Sorry, " + entry.usage.split(" ", 2)[0] + " is for admins only");
+			return;
+		}
+		entry.command.run(session, space < 0 ? "" : line.substring(space + 1).trim());
+	}
+
+	/**
+	 * \help as a client may see it, every command it may use, encoded once.
+	 * @param session session of the client asking
+	 * @return the lines as one message
+	 */
+	WireMessage help(Server.HandleSession session) {
+
+		Permission permission = isAdmin.test(session.name) ? Permission.ADMIN : Permission.EVERYONE;
+		WireMessage message = help.get(permission.ordinal());
+
+		if(message != null) return message;
+
+		lock.lock();
+		try {
+			StringBuilder text = new StringBuilder();
+			for(String[] line : helpOrder) {
+				Entry entry = line.length == 1 ? commands.get(line[0]) : null;
+				if(entry != null && entry.permission.compareTo(permission) > 0) continue; // not theirs to use
+				text.append("Command ").append(entry != null ? entry.usage : line[0]).append(" - ")
+					.append(entry != null ? entry.description : line[1]).append(System.lineSeparator());
+			}
+			message = encode(text.toString());
+			help.set(permission.ordinal(), message);
+			return message;
+		} finally {
+			lock.unlock();
+		}
+	} // end of help() in the class CommandRegistry
+
+	/**
+	 * Command whose output never changes, worked out and encoded the first time it is used,
+	 * every later use sending the same bytes.
+	 * @param text works the output out
+	 * @return command sending the output
+	 */
+	static Command constant(Text text) {
+
+		AtomicReference<WireMessage> encoded = new AtomicReference<WireMessage>(); // two clients asking at once may both encode it
+
+		return (session, argument) -> {
+			WireMessage message = encoded.get();
+			if(message == null) encoded.set(message = encode(text.get() + System.lineSeparator()));
+			((Server.HandleSession) session).send(message); // every session dispatched is one
+		};
+	}
+
+	/**
+	 * Encodes lines as a message.
+	 * @param text lines, each with its terminator
+	 * @return read-only message
+	 */
+	private static WireMessage encode(String text) {
+		return new WireMessage(ByteBuffer.wrap(text.getBytes(WireFormat.CHARSET)).asReadOnlyBuffer());
+	}
+} // end of the class CommandRegistry
@@ -0,0 +1,21 @@
+/**
+ * What a {@link Command} sees of the client that typed it, the session's name and a way to answer,
+ * kept narrow so a {@link CommandPlugin} depends on nothing else of the server.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+public interface CommandSession {
+
+	/**
+	 * Username of the client.
+	 * @return the username
+	 */
+	String name();
+
+	/**
+	 * Answers the client with a line of its own, as one message.
+	 * @param line line without its terminator
+	 */
+	void reply(String line);
+} // end of the interface CommandSession
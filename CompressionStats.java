@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the output compressed for clients that asked for compression, shared by every {@link BlockCompressor},
+ * showing the bandwidth compression saves against the time it costs, so a deployment can tell which it is shorter of.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class CompressionStats {
+
+	/**
+	 * Bytes of output given to the compressors.
+	 */
+	private final LongAdder bytesIn = new LongAdder();
+
+	/**
+	 * Bytes the compressed blocks came to, headers included.
+	 */
+	private final LongAdder bytesOut = new LongAdder();
+
+	/**
+	 * Time spent compressing, in nanoseconds.
+	 */
+	private final LongAdder nanos = new LongAdder();
+
+	/**
+	 * Blocks compressed.
+	 */
+	private final LongAdder blocks = new LongAdder();
+
+	/**
+	 * Bytes sent as they were, in blocks below the threshold.
+	 */
+	private final LongAdder bytesSkipped = new LongAdder();
+
+	/**
+	 * Counts a compressed block.
+	 * @param inCount bytes compressed
+	 * @param outCount bytes of the block
+	 * @param nanoCount time it took
+	 */
+	void compressed(long inCount, long outCount, long nanoCount) {
+		bytesIn.add(inCount);
+		bytesOut.add(outCount);
+		nanos.add(nanoCount);
+		blocks.increment();
+	}
+
+	/**
+	 * Counts a block too small to be worth compressing.
+	 * @param byteCount bytes sent as they were
+	 */
+	void skipped(long byteCount) {
+		bytesSkipped.add(byteCount);
+	}
+
+	/**
+	 * Compressed size over original size of the blocks compressed.
+	 * @return ratio, 1 before anything has been compressed
+	 */
+	double ratio() {
+		long in = bytesIn.sum();
+		return in == 0 ? 1 : (double) bytesOut.sum() / in;
+	}
+
+	/**
+	 * Time spent compressing.
+	 * @return milliseconds
+	 */
+	double millis() {
+		return nanos.sum() / 1e6;
+	}
+
+	/**
+	 * Bytes compressed.
+	 * @return byte count
+	 */
+	long bytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * Bytes saved by compressing, compared with sending the same output as it was.
+	 * @return byte count, negative if compressing made it bigger
+	 */
+	long saved() {
+		return bytesIn.sum() - bytesOut.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d bytes in %d blocks compressed to %.1f%% in %.1f ms, %d bytes saved, %d bytes below the threshold",
+			bytesIn(), blocks.sum(), ratio() * 100, millis(), saved(), bytesSkipped.sum());
+	}
+} // end of the class CompressionStats
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single thread owning a {@link Selector} and many client connections,
+ * used by the server in {@link ServerConfig.SessionMode#NIO} instead of a thread per client.
+ * Every read, write and session callback for a connection happens on the loop that owns it,
+ * other threads only hand work over through the pending queues and wake the selector.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-16
+ * @see NioConnection
+ */
+class EventLoop implements Runnable {
+
+	/**
+	 * Server the sessions of this loop belong to.
+	 */
+	private final Server server;
+
+	/**
+	 * Selector watching every connection owned by this loop.
+	 */
+	private final Selector selector;
+
+	/**
+	 * Thread running {@link EventLoop#run()}.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Accepted channels waiting to be registered with the selector.
+	 */
+	private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
+	/**
+	 * Connections with output queued by any thread, waiting for this loop to write it.
+	 */
+	private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+
+	/**
+	 * Connections to be closed by this loop, because their clients could not keep up.
+	 */
+	private final Queue<NioConnection> pendingCloses = new ConcurrentLinkedQueue<NioConnection>();
+
+	/**
+	 * Connections not being read until their clients are back within their rate limits, soonest first, only touched by the loop.
+	 */
+	private final PriorityQueue<NioConnection> pausedReads = new PriorityQueue<NioConnection>(Comparator.comparingLong(NioConnection::resumeAt));
+
+	/**
+	 * Scratch buffer every connection of this loop reads into,
+	 * safe to share since lines are decoded before the next read.
+	 */
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+
+	/**
+	 * Scratch array every connection of this loop gathers its queued messages in for one write.
+	 */
+	private final ByteBuffer[] writeScratch = new ByteBuffer[64];
+
+	/**
+	 * Set by {@link EventLoop#shutDown()} to leave the loop.
+	 */
+	private volatile boolean isRunning = true;
+
+	/**
+	 * Constructor method for {@link EventLoop}.
+	 * @param server server the sessions belong to
+	 * @param index number of this loop, used to name its thread
+	 * @throws IOException if the selector could not be opened
+	 */
+	EventLoop(Server server, int index) throws IOException {
+		this.server = server;
+		selector = Selector.open();
+		thread = new Thread(this, "event-loop-" + index);
+	}
+
+	/**
+	 * Starts the thread running this loop.
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Gives an accepted connection to this loop, can be called from any thread.
+	 * @param channel connection accepted from a client
+	 * @throws IOException if the channel could not be made non-blocking
+	 */
+	void register(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		pendingChannels.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Asks this loop to write the output queued on a connection, can be called from any thread.
+	 * @param connection connection with output to send
+	 */
+	void requestWrite(NioConnection connection) {
+		pendingWrites.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Has a connection written at the end of this pass, for output queued on the loop's own thread,
+	 * which needs no wakeup as the loop writes pending connections before it selects again.
+	 * @param connection connection with output to send
+	 */
+	void deferWrite(NioConnection connection) {
+		pendingWrites.add(connection);
+	}
+
+	/**
+	 * Scratch array for gathering writes, only to be used on the loop's own thread.
+	 * @return array of the loop
+	 */
+	ByteBuffer[] writeScratch() {
+		return writeScratch;
+	}
+
+	/**
+	 * Stops reading a connection until {@link NioConnection#resumeAt()}, only to be called on the loop's own thread.
+	 * @param connection connection whose client is over its rate limits
+	 */
+	void pauseReads(NioConnection connection) {
+		pausedReads.add(connection);
+	}
+
+	/**
+	 * Asks this loop to close a connection, can be called from any thread.
+	 * @param connection connection to close
+	 */
+	void requestClose(NioConnection connection) {
+		pendingCloses.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Whether the caller is running on this loop.
+	 * @return true on the loop's own thread
+	 */
+	boolean isLoopThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Stops the loop and closes the selector.
+	 */
+	void shutDown() {
+		isRunning = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Selects ready connections until shut down,
+	 * registering new channels, closing overflowed connections and flushing queued output on every pass.
+	 */
+	public void run() {
+		try {
+			while(isRunning) {
+				registerPendingChannels();
+				closePendingConnections();
+				writePendingConnections(); // last, it also writes what the steps before and the last pass queued
+
+				selector.select(resumePausedReads());
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioConnection connection = (NioConnection) key.attachment();
+					if(!key.isValid()) continue; // closed while handling an earlier key
+
+					if(key.isReadable()) connection.read(readBuffer);
+					if(key.isValid() && key.isWritable()) connection.write();
+				}
+			}
+		}
+		catch(IOException | ClosedSelectorException e) {
+			server.log.error("Exception in " + thread.getName() + ": " + e);
+		}
+		finally {
+			for(SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+				if(key.attachment() != null) ((NioConnection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			}
+			catch(IOException e) {
+				server.log.error(e.getMessage());
+			}
+		}
+	} // end of run() in the class EventLoop
+
+	/**
+	 * Registers channels handed over by the acceptor and starts their sessions.
+	 */
+	private void registerPendingChannels() {
+
+		SocketChannel channel;
+
+		while((channel = pendingChannels.poll()) != null) {
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+				NioConnection connection = new NioConnection(server, this, channel, key);
+				key.attach(connection);
+				connection.open();
+			}
+			catch(IOException e) {
+				server.log.error("Exception registering connection: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Closes the connections whose clients could not keep up.
+	 */
+	private void closePendingConnections() {
+
+		NioConnection connection;
+
+		while((connection = pendingCloses.poll()) != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Reads again from the paused connections whose time has come.
+	 * @return milliseconds until the next paused connection is due, 0 if none is paused, to wait for in select
+	 */
+	private long resumePausedReads() {
+
+		long now = System.nanoTime();
+
+		while(!pausedReads.isEmpty() && pausedReads.peek().resumeAt() - now <= 0) {
+			pausedReads.poll().resumeReads();
+		}
+		return pausedReads.isEmpty() ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(pausedReads.peek().resumeAt() - now + 999_999));
+	}
+
+	/**
+	 * Writes the output other threads have queued since the last pass.
+	 */
+	private void writePendingConnections() {
+
+		NioConnection connection;
+
+		while((connection = pendingWrites.poll()) != null) {
+			connection.write();
+		}
+	}
+} // end of the class EventLoop
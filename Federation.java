@@ -0,0 +1,601 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Links several {@link Server} processes into one chat, so clients signed in to different nodes see each other.
+ * Every node listens for its peers on the federation port and connects to each peer named in --peers,
+ * sending over its own connection and receiving over the peer's, so both nodes must list each other.
+ * <p>
+ * Nodes tell each other who signs in and out, giving every node a view of the whole chat's presence
+ * for username uniqueness, \clientnames and \numberclients.
+ * A broadcast goes to every peer, which fans it out to the members of the same room it holds,
+ * and a private message goes only to the node the recipient is signed in to.
+ * Each link is written by a {@link SocketWriter} draining an {@link OutboundQueue}, as for a client,
+ * so relays waiting for the same peer go out together in one write, waiting up to --peer-flush-delay for more to join them.
+ * <p>
+ * Link traffic is {@link Frame frames} of the types below, the target holding the name or room
+ * and the payload the sender and text separated by a newline, which no line a client sends can contain.
+ * Two clients taking the same name on two nodes at once are both accepted, then, once the nodes hear of each other,
+ * the one on the node whose name sorts later is signed out.
+ * A peer that cannot keep up with its link is disconnected and resynchronised when it reconnects,
+ * and private messages to clients signed out everywhere are kept in the sender's node's mailboxes.
+ * <p>
+ * A peer can sign any client here out and speak as any user, so only the hosts named in --peers may connect,
+ * on the address given by --federation-bind, and with --federation-secret every HELLO must carry the secret too.
+ * A connection whose first frame is not such a HELLO is closed, and a frame naming no valid user,
+ * a payload without its newline or a message from a user the peer has not announced is dropped.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class Federation {
+
+	/**
+	 * First frame on a link either way, target is the federation secret, payload is the name of the node sending it.
+	 */
+	static final byte HELLO = 16;
+
+	/**
+	 * A client signed in to the sending node, target is the username.
+	 */
+	static final byte JOIN = 17;
+
+	/**
+	 * A client signed out of the sending node, target is the username.
+	 */
+	static final byte LEAVE = 18;
+
+	/**
+	 * A message broadcast on the sending node, target is the room, payload is the sender and the text.
+	 */
+	static final byte BROADCAST = 19;
+
+	/**
+	 * A private message for a client of the receiving node, target is the recipient, payload is the sender and the text.
+	 */
+	static final byte PRIVATE = 20;
+
+	/**
+	 * Most relays waiting for one peer before the peer is disconnected as too slow.
+	 */
+	private static final int LINK_CAPACITY = 1 << 16;
+
+	/**
+	 * Time between attempts to connect to a peer that is not up, in milliseconds.
+	 */
+	private static final long RECONNECT_MILLIS = 1000;
+
+	/**
+	 * Server the relays received are delivered by.
+	 */
+	private final Server server;
+
+	/**
+	 * Clients signed in to this node, announced to peers as they connect.
+	 */
+	private final SessionRegistry sessions;
+
+	/**
+	 * Options naming the node, its port and its peers.
+	 */
+	private final ServerConfig config;
+
+	/**
+	 * Name of this node, unique among the peers.
+	 */
+	private final String nodeName;
+
+	/**
+	 * Connections from peers, each holding the clients signed in to that peer.
+	 * A name can briefly be held by two peers, until one of them signs its client out.
+	 */
+	private final CopyOnWriteArrayList<Peer> peers = new CopyOnWriteArrayList<Peer>();
+
+	/**
+	 * Connected links to peers, sent to by relays.
+	 */
+	private final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<Link>();
+
+	/**
+	 * Orders sign ins and outs against a new link's list of who is signed in,
+	 * so a peer never hears of a sign out before the sign in it undoes.
+	 */
+	private final ReentrantLock presenceLock = new ReentrantLock();
+
+	/**
+	 * Counters of the writes to peers.
+	 */
+	final WriteStats writeStats = new WriteStats();
+
+	/**
+	 * Socket peers connect to, null if the node only connects out.
+	 */
+	private ServerSocket listener;
+
+	/**
+	 * Connection from a peer, announcing its clients and relaying its messages.
+	 */
+	private static class Peer {
+
+		/**
+		 * Name of the peer node, known once its {@link Federation#HELLO} arrives.
+		 */
+		volatile String node = "";
+
+		/**
+		 * Usernames of the clients signed in to the peer.
+		 */
+		final Set<String> users = ConcurrentHashMap.newKeySet();
+	} // end of the class Peer
+
+	/**
+	 * Connection to a peer, written by a {@link SocketWriter} on the thread that connected it.
+	 */
+	private static class Link {
+
+		/**
+		 * Relays waiting to be written to the peer.
+		 */
+		final OutboundQueue queue;
+
+		/**
+		 * Name of the peer node, known once it answers the link's {@link Federation#HELLO}.
+		 */
+		volatile String node = "";
+
+		/**
+		 * Constructor method for {@link Link}.
+		 * @param queue relays waiting to be written to the peer
+		 */
+		Link(OutboundQueue queue) {
+			this.queue = queue;
+		}
+	} // end of the class Link
+
+	/**
+	 * Constructor method for {@link Federation}.
+	 * @param server server the relays received are delivered by
+	 * @param sessions clients signed in to this node
+	 * @param config options naming the node, its port and its peers
+	 */
+	Federation(Server server, SessionRegistry sessions, ServerConfig config) {
+		this.server = server;
+		this.sessions = sessions;
+		this.config = config;
+		nodeName = config.nodeName.isEmpty() ? localHostName() + ":" + config.portNumber : config.nodeName;
+	}
+
+	/**
+	 * Name of this machine, for the default node name.
+	 * @return host name, or localhost if it cannot be found
+	 */
+	private static String localHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch(UnknownHostException e) {
+			return "localhost";
+		}
+	}
+
+	/**
+	 * Starts listening for peers and connecting to them, each on a daemon thread of its own.
+	 * @throws IOException if the federation port could not be bound
+	 */
+	void start() throws IOException {
+
+		if(config.federationPort > 0) {
+			String bind = config.federationBindAddress;
+			listener = new ServerSocket();
+			listener.bind(bind.isEmpty() || bind.equals("*") ? new InetSocketAddress(config.federationPort) 
+				: new InetSocketAddress(bind, config.federationPort));
+			startDaemon(this::acceptPeers, "federation-accept");
+		}
+		server.log.info("Federation node " + nodeName + (listener != null ? " listening for peers on " + listener.getLocalSocketAddress() : "")
+			+ (config.peers.isEmpty() ? "" : ", peers " + config.peers) + (config.federationSecret.isEmpty() ? "" : ", with a secret"));
+		for(String peer : config.peers) {
+			String[] address = peer.split(":", 2);
+			InetSocketAddress target = new InetSocketAddress(address[0], Integer.parseInt(address[1]));
+			startDaemon(() -> connect(target), "federation-link " + peer);
+		}
+	}
+
+	/**
+	 * Runs a task on a platform thread that never keeps the process alive, there are only a few per peer.
+	 * @param task task to run
+	 * @param name name of the thread
+	 */
+	private static void startDaemon(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops listening for peers, links already made stay until the process ends.
+	 */
+	void shutDown() {
+		try {
+			if(listener != null) listener.close();
+		}
+		catch(IOException e) {
+			server.log.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Accepts peers until the listener is closed, closing at once any connection from a host not named in --peers.
+	 */
+	private void acceptPeers() {
+		try {
+			while(true) {
+				Socket socket = listener.accept();
+				if(!isPeerAddress(socket.getInetAddress())) {
+					server.log.error("Refused a federation connection from " + socket.getInetAddress() + ", not one of the peers");
+					socket.close();
+					continue;
+				}
+				startDaemon(() -> receive(socket), "federation-peer " + socket.getRemoteSocketAddress());
+			}
+		}
+		catch(IOException e) { // closed by shutDown()
+		}
+	}
+
+	/**
+	 * Whether an address is one the hosts named in --peers resolve to, looked up each time so a peer may move.
+	 * @param address address a connection comes from
+	 * @return true if it is a peer's
+	 */
+	private boolean isPeerAddress(InetAddress address) {
+		for(String peer : config.peers) {
+			try {
+				for(InetAddress known : InetAddress.getAllByName(peer.split(":", 2)[0])) {
+					if(known.equals(address)) return true;
+				}
+			}
+			catch(UnknownHostException e) { // not up in the name service, the others may still match
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the target of a HELLO is the federation secret, compared in constant time.
+	 * @param hello HELLO received
+	 * @return true if it carries the secret, or there is none
+	 */
+	private boolean isTrusted(Frame hello) {
+		return hello != null && hello.type == HELLO 
+			&& MessageDigest.isEqual(hello.target.getBytes(WireFormat.CHARSET), config.federationSecret.getBytes(WireFormat.CHARSET));
+	}
+
+	/**
+	 * Reads a peer's connection until it closes, then forgets the clients it announced.
+	 * The peer must send its {@link Federation#HELLO}, with the secret, before anything else,
+	 * and only then is answered with this node's, the only thing ever sent back, so the secret is never given to a stranger.
+	 * @param socket connection from the peer
+	 */
+	private void receive(Socket socket) {
+
+		Peer peer = new Peer();
+
+		try(socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			Frame frame = Frame.read(in);
+
+			if(!isTrusted(frame)) {
+				server.log.error("Refused peer at " + socket.getRemoteSocketAddress() + ", its first frame was not a HELLO with the secret");
+				return;
+			}
+			socket.getOutputStream().write(Frame.encode(HELLO, config.federationSecret, nodeName).array()); // a fresh heap buffer holding just the frame
+			peer.node = frame.payload;
+			if(peer.node.equals(nodeName)) server.log.error("Peer has the same node name as this node: " + nodeName);
+			server.log.info("Peer " + peer.node + " connected");
+			peers.add(peer);
+
+			while((frame = Frame.read(in)) != null) {
+				if(!isValid(frame, peer)) {
+					server.log.error("Dropped a malformed frame of type " + frame.type + " from peer " + peer.node);
+					continue;
+				}
+				switch(frame.type) {
+					case JOIN:
+						remoteJoined(frame.target, peer);
+						break;
+					case LEAVE:
+						if(peer.users.remove(frame.target)) server.presence.changed(Presence.LEFT, frame.target);
+						break;
+					case BROADCAST: {
+						int split = frame.payload.indexOf('\n');
+						server.deliverRelayedBroadcast(frame.target, frame.payload.substring(0, split), frame.payload.substring(split + 1));
+						break;
+					}
+					case PRIVATE: {
+						int split = frame.payload.indexOf('\n');
+						server.deliverRelayedPrivate(frame.payload.substring(0, split), frame.target, frame.payload.substring(split + 1));
+						break;
+					}
+					default:
+						server.log.error("Unknown frame type " + frame.type + " from peer " + peer.node);
+						break;
+				}
+			}
+		}
+		catch(IOException e) { // the peer went away
+		}
+		finally {
+			if(peers.remove(peer)) { // never added if it was not trusted
+				for(String name : peer.users) if(!isRemote(name)) server.presence.changed(Presence.LEFT, name); // unless signed in to another peer
+				server.log.info("Peer " + peer.node + " disconnected");
+			}
+		}
+	} // end of receive() in the class Federation
+
+	/**
+	 * Whether a frame from a peer can be acted on: a username where one is expected,
+	 * a sender and text split by a newline, and a sender the peer has announced, so a peer only speaks for its own clients.
+	 * @param frame frame received after the HELLO
+	 * @param peer connection of the peer it came from
+	 * @return false if the frame is to be dropped
+	 */
+	private static boolean isValid(Frame frame, Peer peer) {
+
+		switch(frame.type) {
+			case JOIN:
+			case LEAVE:
+				return Server.isValidUsername(frame.target);
+			case BROADCAST:
+			case PRIVATE: {
+				int split = frame.payload.indexOf('\n');
+				if(split < 0 || !peer.users.contains(frame.payload.substring(0, split))) return false;
+				return frame.type == BROADCAST ? !frame.target.isEmpty() : Server.isValidUsername(frame.target);
+			}
+			default:
+				return true; // reported as unknown
+		}
+	}
+
+	/**
+	 * Records a client signed in to a peer, signing out a client of the same name here if the peer's node wins the name.
+	 * @param name username
+	 * @param peer connection of the peer it is signed in to
+	 */
+	private void remoteJoined(String name, Peer peer) {
+
+		if(peer.users.add(name)) server.presence.changed(Presence.JOINED, name);
+		server.userSeen(name); // so mail waits for them here once they sign out
+		if(sessions.get(name) != null && peer.node.compareTo(nodeName) < 0) {
+			server.evict(name, "Sorry, " + name + " signed in on another server at the same time, please sign in again");
+		}
+	}
+
+	/**
+	 * Keeps a link to a peer up, reconnecting after it drops, for as long as the process runs.
+	 * @param address federation address of the peer
+	 */
+	private void connect(InetSocketAddress address) {
+
+		boolean wasLinked = true; // so the first failure is reported
+
+		while(true) {
+			try(SocketChannel channel = SocketChannel.open(address)) {
+				channel.socket().setTcpNoDelay(true); // the writer batches relays itself
+				Link link = new Link(new OutboundQueue(LINK_CAPACITY, OutboundQueue.OverflowPolicy.DISCONNECT, 0, null,
+					() -> close(channel), writeStats));
+				startDaemon(() -> awaitClose(channel, link), "federation-link-reader " + address);
+				open(link);
+				wasLinked = true;
+				server.log.info("Linked to peer at " + address);
+				new SocketWriter(channel, link.queue, config.flushBytes, config.peerFlushDelayMicros, writeStats, server.log).run();
+				links.remove(link);
+				server.log.info("Lost the link to peer at " + address);
+			}
+			catch(IOException e) {
+				if(wasLinked) server.log.info("Cannot reach peer at " + address + ", retrying: " + e.getMessage());
+				wasLinked = false;
+			}
+			try {
+				Thread.sleep(RECONNECT_MILLIS);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+		}
+	} // end of connect() in the class Federation
+
+	/**
+	 * Introduces this node on a new link and tells the peer who is signed in,
+	 * then adds the link to those relays go to, all under the presence lock.
+	 * @param link link just connected
+	 */
+	private void open(Link link) {
+
+		presenceLock.lock();
+		try {
+			send(link, HELLO, config.federationSecret, nodeName);
+			for(String name : sessions.names()) send(link, JOIN, name, "");
+			links.add(link);
+		}
+		finally {
+			presenceLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the peer's answer to a link's {@link Federation#HELLO}, then waits for the peer to close the link,
+	 * which ends the link's writer even when there is nothing to write.
+	 * A peer answering without the secret has the link closed at once.
+	 * @param channel link to the peer
+	 * @param link link whose peer answers
+	 */
+	private void awaitClose(SocketChannel channel, Link link) {
+		try {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			Frame hello = Frame.read(in);
+			if(isTrusted(hello)) {
+				link.node = hello.payload;
+				while(in.read() >= 0); // nothing else is sent this way
+			}
+			else server.log.error("Closed the link to " + channel.getRemoteAddress() + ", it did not answer with a HELLO with the secret");
+		}
+		catch(IOException e) { // closed by the writer
+		}
+		link.queue.abandon();
+		close(channel);
+	}
+
+	/**
+	 * Closes a link from any thread.
+	 * @param channel link to close
+	 */
+	private void close(SocketChannel channel) {
+		try {
+			channel.close();
+		}
+		catch(IOException e) {
+			server.log.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Tells every peer a client has signed in to this node.
+	 * @param name username of the client
+	 */
+	void joined(String name) {
+		announce(JOIN, name);
+	}
+
+	/**
+	 * Tells every peer a client has signed out of this node.
+	 * @param name username of the client
+	 */
+	void left(String name) {
+		announce(LEAVE, name);
+	}
+
+	/**
+	 * Sends a sign in or out to every peer, under the presence lock.
+	 * @param type {@link Federation#JOIN} or {@link Federation#LEAVE}
+	 * @param name username of the client
+	 */
+	private void announce(byte type, String name) {
+
+		presenceLock.lock();
+		try {
+			for(Link link : links) send(link, type, name, "");
+		}
+		finally {
+			presenceLock.unlock();
+		}
+	}
+
+	/**
+	 * Whether a client is signed in to another node.
+	 * @param name username
+	 * @return true if a peer has announced them
+	 */
+	boolean isRemote(String name) {
+		return holder(name) != null;
+	}
+
+	/**
+	 * Finds the peer a client is signed in to.
+	 * @param name username
+	 * @return connection of the peer, null if no peer has announced them
+	 */
+	private Peer holder(String name) {
+		for(Peer peer : peers) {
+			if(peer.users.contains(name)) return peer;
+		}
+		return null;
+	}
+
+	/**
+	 * Usernames of the clients signed in to other nodes.
+	 * @return usernames, order not guaranteed
+	 */
+	List<String> remoteNames() {
+		Set<String> names = new HashSet<String>();
+		for(Peer peer : peers) names.addAll(peer.users);
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * Number of clients signed in to other nodes.
+	 * @return remote clients
+	 */
+	int remoteCount() {
+		return remoteNames().size();
+	}
+
+	/**
+	 * Sends a message broadcast on this node to every peer, for the members of the same room there.
+	 * @param room room the message was broadcast to
+	 * @param sender username of the sender
+	 * @param text message
+	 */
+	void relayBroadcast(String room, String sender, String text) {
+
+		if(links.isEmpty()) return;
+
+		WireMessage relay = relay(BROADCAST, room, sender + "\n" + text);
+		for(Link link : links) link.queue.offer(relay);
+	}
+
+	/**
+	 * Sends a private message to the node the recipient is signed in to.
+	 * @param sender username of the sender
+	 * @param recipient username of the recipient, signed in to another node
+	 * @param text message
+	 * @return false if no link to that node is up
+	 */
+	boolean relayPrivate(String sender, String recipient, String text) {
+
+		Peer peer = holder(recipient);
+
+		if(peer == null) return false;
+		for(Link link : links) {
+			if(link.node.equals(peer.node)) return link.queue.offer(relay(PRIVATE, recipient, sender + "\n" + text));
+		}
+		return false;
+	}
+
+	/**
+	 * Queues one frame on a link.
+	 * @param link link to the peer
+	 * @param type type of the frame
+	 * @param target target of the frame
+	 * @param payload payload of the frame
+	 */
+	private static void send(Link link, byte type, String target, String payload) {
+		link.queue.offer(relay(type, target, payload));
+	}
+
+	/**
+	 * Encodes a frame once, to be queued on any number of links.
+	 * @param type type of the frame
+	 * @param target target of the frame
+	 * @param payload payload of the frame
+	 * @return message holding the frame
+	 */
+	private static WireMessage relay(byte type, String target, String payload) {
+		return new WireMessage(Frame.encode(type, target, payload).asReadOnlyBuffer());
+	}
+} // end of the class Federation
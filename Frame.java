@@ -0,0 +1,215 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary frame of the optional framed protocol, shared by the server and the client.
+ * A client that sees the server offer frames in its welcome line sends {@link Frame#REQUEST} before its username,
+ * and once the username is accepted both sides switch from lines to frames.
+ * <p>
+ * Layout: type (1 byte), flags (1 byte, reserved, 0), target length (1 byte), payload length (4 bytes, big-endian),
+ * target (UTF-8, e.g. the recipient of a private message), payload (UTF-8).
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class Frame {
+
+	/**
+	 * Line a client sends before its username to ask for frames.
+	 */
+	static final String REQUEST = "\\frames";
+
+	/**
+	 * Added to the welcome line by a server that understands frames.
+	 */
+	static final String OFFER = "[frames]";
+
+	/**
+	 * Client to server, payload is a message to broadcast to the room.
+	 */
+	static final byte MESSAGE = 1;
+
+	/**
+	 * Client to server, payload is a private message for the client named by the target.
+	 */
+	static final byte PRIVATE = 2;
+
+	/**
+	 * Client to server, payload is a command such as \help, backslash included.
+	 */
+	static final byte COMMAND = 3;
+
+	/**
+	 * Client to server, signing out.
+	 */
+	static final byte QUIT = 4;
+
+	/**
+	 * Server to client, payload is text to show, one or more whole lines with their line separators.
+	 */
+	static final byte TEXT = 5;
+
+	/**
+	 * Bytes before the target.
+	 */
+	static final int HEADER_LENGTH = 7;
+
+	/**
+	 * Largest payload accepted, anything bigger is treated as a broken stream.
+	 */
+	static final int MAX_PAYLOAD = 1 << 20;
+
+	/**
+	 * Type of the frame.
+	 */
+	final byte type;
+
+	/**
+	 * Target of the frame, empty if it has none.
+	 */
+	final String target;
+
+	/**
+	 * Payload of the frame.
+	 */
+	final String payload;
+
+	/**
+	 * Constructor method for {@link Frame}.
+	 * @param type type of the frame
+	 * @param target target, empty if none
+	 * @param payload payload
+	 */
+	Frame(byte type, String target, String payload) {
+		this.type = type;
+		this.target = target;
+		this.payload = payload;
+	}
+
+	/**
+	 * The line a client not using frames would have typed to send the same thing.
+	 * @return line without its terminator, null for frames clients do not send
+	 */
+	String toLine() {
+		switch(type) {
+			case MESSAGE: case COMMAND: return payload;
+			case PRIVATE: return "@" + target + " " + payload;
+			case QUIT: return "\\quit";
+			default: return null;
+		}
+	}
+
+	/**
+	 * Encodes a frame.
+	 * @param type type of the frame
+	 * @param target target, empty if none, at most 255 bytes once encoded
+	 * @param payload payload
+	 * @return buffer ready to be written
+	 */
+	static ByteBuffer encode(byte type, String target, String payload) {
+
+		byte[] targetBytes = target.getBytes(StandardCharsets.UTF_8);
+		byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + targetBytes.length + payloadBytes.length);
+
+		putHeader(buffer, type, targetBytes.length, payloadBytes.length);
+		buffer.put(targetBytes).put(payloadBytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Writes a frame header.
+	 * @param buffer buffer to write it to
+	 * @param type type of the frame
+	 * @param targetLength length of the encoded target, at most 255
+	 * @param payloadLength length of the encoded payload
+	 */
+	static void putHeader(ByteBuffer buffer, byte type, int targetLength, int payloadLength) {
+
+		if(targetLength > 255) throw new IllegalArgumentException("Frame target too long");
+
+		buffer.put(type).put((byte) 0).put((byte) targetLength).putInt(payloadLength);
+	}
+
+	/**
+	 * Total length of a frame whose header starts at offset.
+	 * @param bytes bytes holding at least the header
+	 * @param offset start of the header
+	 * @return header, target and payload length together
+	 * @throws IOException if the payload is longer than {@link Frame#MAX_PAYLOAD}
+	 */
+	static int length(byte[] bytes, int offset) throws IOException {
+
+		int targetLength = bytes[offset + 2] & 0xFF;
+		int payloadLength = ((bytes[offset + 3] & 0xFF) << 24) | ((bytes[offset + 4] & 0xFF) << 16)
+			| ((bytes[offset + 5] & 0xFF) << 8) | (bytes[offset + 6] & 0xFF);
+
+		if(payloadLength < 0 || payloadLength > MAX_PAYLOAD) throw new IOException("Frame payload too long: " + payloadLength);
+		return HEADER_LENGTH + targetLength + payloadLength;
+	}
+
+	/**
+	 * Decodes a complete frame.
+	 * @param bytes bytes holding the whole frame
+	 * @param offset start of the frame
+	 * @return decoded frame
+	 * @throws IOException if the payload is longer than {@link Frame#MAX_PAYLOAD}
+	 */
+	static Frame decode(byte[] bytes, int offset) throws IOException {
+
+		int targetLength = bytes[offset + 2] & 0xFF;
+		int payloadLength = length(bytes, offset) - HEADER_LENGTH - targetLength;
+		int targetStart = offset + HEADER_LENGTH;
+
+		return new Frame(bytes[offset],
+			new String(bytes, targetStart, targetLength, StandardCharsets.UTF_8),
+			new String(bytes, targetStart + targetLength, payloadLength, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the next frame from a blocking stream.
+	 * @param in stream to read
+	 * @return the frame, or null if the stream ended between frames
+	 * @throws IOException if the stream ended inside a frame or the frame is too long
+	 */
+	static Frame read(DataInputStream in) throws IOException {
+
+		byte[] header = new byte[HEADER_LENGTH];
+
+		int first = in.read();
+		if(first < 0) return null; // end of stream
+		header[0] = (byte) first;
+		in.readFully(header, 1, HEADER_LENGTH - 1);
+
+		byte[] frame = new byte[length(header, 0)];
+		System.arraycopy(header, 0, frame, 0, HEADER_LENGTH);
+		in.readFully(frame, HEADER_LENGTH, frame.length - HEADER_LENGTH);
+		return decode(frame, 0);
+	}
+
+	/**
+	 * Reads a line of the handshake from a stream that frames follow on,
+	 * one byte at a time so nothing after the line is consumed.
+	 * @param in stream to read
+	 * @return line without its terminator, or null at the end of the stream
+	 * @throws IOException if the stream could not be read
+	 */
+	static String readLine(DataInputStream in) throws IOException {
+
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+
+		while((b = in.read()) != '\n') {
+			if(b < 0) {
+				if(line.size() == 0) return null;
+				break;
+			}
+			if(b != '\r') line.write(b);
+		}
+		return new String(line.toByteArray(), StandardCharsets.UTF_8);
+	}
+} // end of the class Frame
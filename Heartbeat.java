@@ -0,0 +1,148 @@
+/**
+ * Watch over one connection for the other end going quiet, kept on a shared {@link TimingWheel},
+ * the same on the server and on the client.
+ * Once nothing has been heard for the idle timeout the other end is pinged, and it answers with a pong,
+ * so if nothing has been heard by the time the read timeout has gone by as well, the connection is taken for dead.
+ * Hearing something only notes the wheel's time, the wheel looks at the connection when a deadline comes round,
+ * so a busy connection costs one timeout per idle period however much it reads.
+ * <p>
+ * A server that pings adds {@link Heartbeat#OFFER} to its welcome line, a client that answers sends {@link Heartbeat#REQUEST}
+ * before its username, and either end may then send {@link Heartbeat#PING} at any time, to which the other replies {@link Heartbeat#PONG},
+ * as lines, or as {@link Frame#COMMAND} frames from a client using frames.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class Heartbeat {
+
+	/**
+	 * Added to the welcome line by a server that pings quiet clients.
+	 */
+	static final String OFFER = "[ping]";
+
+	/**
+	 * Line a client sends before its username to be pinged when it is quiet.
+	 */
+	static final String REQUEST = "\\heartbeat";
+
+	/**
+	 * Line asking the other end for a {@link Heartbeat#PONG}.
+	 */
+	static final String PING = "\\ping";
+
+	/**
+	 * Line answering a {@link Heartbeat#PING}.
+	 */
+	static final String PONG = "\\pong";
+
+	/**
+	 * Wheel the deadlines are kept on.
+	 */
+	private final TimingWheel wheel;
+
+	/**
+	 * Milliseconds of quiet before the other end is pinged.
+	 */
+	private final long idleMillis;
+
+	/**
+	 * Milliseconds after the ping before the connection is taken for dead.
+	 */
+	private final long readMillis;
+
+	/**
+	 * Sends a ping, run on the wheel's thread so it must not block.
+	 */
+	private final Runnable ping;
+
+	/**
+	 * Ends the connection once it is taken for dead, run on the wheel's thread so it must not block.
+	 */
+	private final Runnable onTimeout;
+
+	/**
+	 * Time on the wheel's clock something was last heard from the other end.
+	 */
+	private volatile long lastHeard;
+
+	/**
+	 * Deadline waiting on the wheel, null before the watch starts.
+	 */
+	private volatile TimingWheel.Timeout timeout = null;
+
+	/**
+	 * Set once the watch is over, a deadline scheduled at the same time as it stopped then does nothing.
+	 */
+	private volatile boolean isStopped = false;
+
+	/**
+	 * Constructor method for {@link Heartbeat}.
+	 * @param wheel wheel the deadlines are kept on
+	 * @param idleMillis milliseconds of quiet before the other end is pinged
+	 * @param readMillis milliseconds after the ping before the connection is taken for dead
+	 * @param ping sends a ping, must not block
+	 * @param onTimeout ends the connection, must not block
+	 */
+	Heartbeat(TimingWheel wheel, long idleMillis, long readMillis, Runnable ping, Runnable onTimeout) {
+		this.wheel = wheel;
+		this.idleMillis = idleMillis;
+		this.readMillis = readMillis;
+		this.ping = ping;
+		this.onTimeout = onTimeout;
+	}
+
+	/**
+	 * Whether a line is a ping or a pong, which are answered or ignored rather than handled like other lines.
+	 * @param line line received
+	 * @return true for {@link Heartbeat#PING} and {@link Heartbeat#PONG}
+	 */
+	static boolean isHeartbeat(String line) {
+		return PING.equals(line) || PONG.equals(line);
+	}
+
+	/**
+	 * Starts watching, as if something had just been heard.
+	 */
+	void start() {
+		lastHeard = wheel.now();
+		timeout = wheel.schedule(idleMillis, this::check);
+	}
+
+	/**
+	 * Notes that something has been heard from the other end,
+	 * only writing the time when the wheel has moved on since, so a busy connection mostly just reads it.
+	 */
+	void heard() {
+		long now = wheel.now();
+		if(lastHeard != now) lastHeard = now;
+	}
+
+	/**
+	 * Stops watching, the connection is closing or no longer needs watching.
+	 */
+	void stop() {
+		isStopped = true;
+		TimingWheel.Timeout pending = timeout;
+		if(pending != null) wheel.cancel(pending);
+	}
+
+	/**
+	 * Looks at the connection when a deadline comes, on the wheel's thread:
+	 * quiet for the idle and read timeouts together it is taken for dead, quiet for the idle timeout the other end is pinged,
+	 * and either way the next look is when the next of the two would be reached if nothing more is heard.
+	 */
+	private void check() {
+
+		if(isStopped) return;
+
+		long quiet = wheel.now() - lastHeard;
+
+		if(quiet >= idleMillis + readMillis) {
+			isStopped = true;
+			onTimeout.run();
+			return;
+		}
+		if(quiet >= idleMillis) ping.run(); // only once, the next look is at the read deadline
+		timeout = wheel.schedule((quiet < idleMillis ? idleMillis : idleMillis + readMillis) - quiet, this::check);
+	}
+} // end of the class Heartbeat
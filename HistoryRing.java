@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The last messages sent in one room, oldest overwritten first.
+ * Holds references to the encoded lines, which live in the log's mappings, so a ring costs no copies of them.
+ * Guarded by a lock of its own, so rooms record their messages in parallel.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class HistoryRing {
+
+	/**
+	 * Messages, {@link HistoryRing#next} is where the next one goes.
+	 */
+	private final WireMessage[] messages;
+
+	/**
+	 * Guards the messages, held for as long as it takes to copy a few references.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Index the next message is stored at.
+	 */
+	private int next = 0;
+
+	/**
+	 * Number of messages held, up to the capacity.
+	 */
+	private int size = 0;
+
+	/**
+	 * Constructor method for {@link HistoryRing}.
+	 * @param capacity most messages held
+	 */
+	HistoryRing(int capacity) {
+		messages = new WireMessage[capacity];
+	}
+
+	/**
+	 * Adds a message, overwriting the oldest once full.
+	 * @param message message sent in the room
+	 */
+	void add(WireMessage message) {
+		lock.lock();
+		try {
+			messages[next] = message;
+			next = (next + 1) % messages.length;
+			if(size < messages.length) size++;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The most recent messages.
+	 * @param count most messages wanted
+	 * @return up to count messages, oldest first
+	 */
+	List<WireMessage> recent(int count) {
+
+		lock.lock();
+		try {
+			int n = Math.min(count, size);
+			List<WireMessage> recent = new ArrayList<WireMessage>(n);
+
+			for(int i = n; i > 0; i--) {
+				recent.add(messages[(next - i + messages.length) % messages.length]);
+			}
+			return recent;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+} // end of the class HistoryRing
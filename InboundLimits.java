@@ -0,0 +1,161 @@
+/**
+ * Rate limits on what one client sends, a {@link TokenBucket} for messages and one for bytes
+ * for each kind of traffic, broadcasts, private messages and commands, so a flood of one kind does not use up the others,
+ * and behind them the server-wide buckets every session shares.
+ * Under {@link ServerConfig.LimitPolicy#SHAPE} every message is let through and the session is told how long to stop reading,
+ * so a client pasting a file is slowed to the rate by TCP itself,
+ * under {@link ServerConfig.LimitPolicy#REJECT} messages over the limit are dropped.
+ * A session's buckets are only used by the thread reading for it, so they are never contended,
+ * and each message costs a handful of compare-and-sets and no allocation.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class InboundLimits {
+
+	/**
+	 * Kind of a line broadcast to the room.
+	 */
+	static final int BROADCAST = 0;
+
+	/**
+	 * Kind of a private message.
+	 */
+	static final int PRIVATE = 1;
+
+	/**
+	 * Kind of a command.
+	 */
+	static final int COMMAND = 2;
+
+	/**
+	 * Returned by {@link InboundLimits#take(int, int, long)} for a message that must be dropped.
+	 */
+	static final long REJECTED = -1;
+
+	/**
+	 * Messages bucket of each kind, null for no limit.
+	 */
+	private final TokenBucket[] messages = new TokenBucket[3];
+
+	/**
+	 * Bytes bucket of each kind, null for no limit.
+	 */
+	private final TokenBucket[] bytes = new TokenBucket[3];
+
+	/**
+	 * Messages bucket shared by every session, null for no limit.
+	 */
+	private final TokenBucket globalMessages;
+
+	/**
+	 * Bytes bucket shared by every session, null for no limit.
+	 */
+	private final TokenBucket globalBytes;
+
+	/**
+	 * True to slow the client down, false to drop what is over the limit.
+	 */
+	private final boolean isShaping;
+
+	/**
+	 * Constructor method for {@link InboundLimits}.
+	 * @param config rates, burst and policy
+	 * @param globalMessages messages bucket shared by every session, null for no limit
+	 * @param globalBytes bytes bucket shared by every session, null for no limit
+	 */
+	InboundLimits(ServerConfig config, TokenBucket globalMessages, TokenBucket globalBytes) {
+
+		double[] rates = {config.broadcastRate, config.privateRate, config.commandRate};
+
+		for(int kind = 0; kind < rates.length; kind++) {
+			messages[kind] = bucket(rates[kind], config.limitBurstSeconds);
+			bytes[kind] = bucket(config.clientBytesRate, config.limitBurstSeconds);
+		}
+		this.globalMessages = globalMessages;
+		this.globalBytes = globalBytes;
+		isShaping = config.limitPolicy == ServerConfig.LimitPolicy.SHAPE;
+	}
+
+	/**
+	 * Makes a bucket for a rate.
+	 * @param rate tokens per second, 0 or less for no limit
+	 * @param burstSeconds seconds' worth of tokens the bucket holds
+	 * @return new bucket, null for no limit
+	 */
+	static TokenBucket bucket(double rate, double burstSeconds) {
+		return rate > 0 ? new TokenBucket(rate, burstSeconds) : null;
+	}
+
+	/**
+	 * Works out the kind of a line typed by the client.
+	 * @param line line without its terminator
+	 * @return {@link InboundLimits#BROADCAST}, {@link InboundLimits#PRIVATE} or {@link InboundLimits#COMMAND}
+	 */
+	static int kindOf(String line) {
+		return line.startsWith("\\") ? COMMAND : line.startsWith("@") ? PRIVATE : BROADCAST;
+	}
+
+	/**
+	 * Charges one message to the buckets of its kind and the server-wide buckets.
+	 * @param kind kind of the message
+	 * @param byteCount size of the message
+	 * @param now current time by {@link System#nanoTime()}
+	 * @return nanoseconds the session should stop reading for, 0 for none,
+	 * or {@link InboundLimits#REJECTED} if the message must be dropped
+	 */
+	long take(int kind, int byteCount, long now) {
+
+		if(!isShaping) return tryTake(kind, byteCount, now) ? 0 : REJECTED;
+
+		long pause = 0;
+
+		if(messages[kind] != null) pause = Math.max(pause, messages[kind].take(now, 1));
+		if(bytes[kind] != null) pause = Math.max(pause, bytes[kind].take(now, byteCount));
+		if(globalMessages != null) pause = Math.max(pause, globalMessages.take(now, 1));
+		if(globalBytes != null) pause = Math.max(pause, globalBytes.take(now, byteCount));
+		return pause;
+	}
+
+	/**
+	 * Takes from every bucket only if all of them have enough, putting back what was taken otherwise.
+	 * @param kind kind of the message
+	 * @param byteCount size of the message
+	 * @param now current time by {@link System#nanoTime()}
+	 * @return true if the message is within every limit
+	 */
+	private boolean tryTake(int kind, int byteCount, long now) {
+
+		if(tryTake(messages[kind], now, 1)) {
+			if(tryTake(bytes[kind], now, byteCount)) {
+				if(tryTake(globalMessages, now, 1)) {
+					if(tryTake(globalBytes, now, byteCount)) return true;
+					giveBack(globalMessages, 1);
+				}
+				giveBack(bytes[kind], byteCount);
+			}
+			giveBack(messages[kind], 1);
+		}
+		return false;
+	}
+
+	/**
+	 * Takes from a bucket that may be missing.
+	 * @param bucket bucket, null for no limit
+	 * @param now current time by {@link System#nanoTime()}
+	 * @param tokens tokens to take
+	 * @return true if taken or there is no limit
+	 */
+	private static boolean tryTake(TokenBucket bucket, long now, long tokens) {
+		return bucket == null || bucket.tryTake(now, tokens);
+	}
+
+	/**
+	 * Puts back tokens in a bucket that may be missing.
+	 * @param bucket bucket, null for no limit
+	 * @param tokens tokens to put back
+	 */
+	private static void giveBack(TokenBucket bucket, long tokens) {
+		if(bucket != null) bucket.giveBack(tokens);
+	}
+} // end of the class InboundLimits
@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Histogram of latencies in nanoseconds, laid out like an HDR histogram:
+ * exact below 32, then 16 buckets for every power of two, so any value is within about 6% of its bucket.
+ * Recording is a single increment into one of several stripes chosen by thread, without allocating or locking,
+ * so the threads being measured do not queue up behind each other to be counted.
+ * Stripes are only added up when the histogram is read.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class LatencyHistogram {
+
+	/**
+	 * Bits of a value kept below its highest set bit.
+	 */
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * Values below this each have a bucket of their own.
+	 */
+	private static final int SUB = 1 << SUB_BITS;
+
+	/**
+	 * Buckets for each power of two above {@link LatencyHistogram#SUB}.
+	 */
+	private static final int HALF = SUB / 2;
+
+	/**
+	 * Buckets needed for every positive long.
+	 */
+	private static final int BUCKETS = (64 - SUB_BITS) * HALF + SUB;
+
+	/**
+	 * Number of stripes, a power of two.
+	 */
+	private static final int STRIPES = 8;
+
+	/**
+	 * Counts of every stripe, stripe after stripe.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+
+	/**
+	 * Largest value recorded.
+	 */
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records one latency.
+	 * @param nanos latency in nanoseconds, negative values count as 0
+	 */
+	void record(long nanos) {
+
+		long value = Math.max(0, nanos);
+		int stripe = System.identityHashCode(Thread.currentThread()) & (STRIPES - 1); // threadId() needs Java 21
+
+		counts.getAndIncrement(stripe * BUCKETS + index(value));
+		max.accumulate(value);
+	}
+
+	/**
+	 * Forgets every value recorded, values recorded at the same time may or may not be kept.
+	 */
+	void reset() {
+		for(int i = 0; i < counts.length(); i++) counts.set(i, 0);
+		max.reset();
+	}
+
+	/**
+	 * Takes a copy of the counts, for working out several percentiles that agree with each other.
+	 * @return count of each bucket, all stripes added up
+	 */
+	long[] snapshot() {
+
+		long[] totals = new long[BUCKETS];
+
+		for(int stripe = 0; stripe < STRIPES; stripe++) {
+			for(int i = 0; i < BUCKETS; i++) totals[i] += counts.get(stripe * BUCKETS + i);
+		}
+		return totals;
+	}
+
+	/**
+	 * Number of values in a snapshot.
+	 * @param snapshot counts from {@link LatencyHistogram#snapshot()}
+	 * @return values recorded
+	 */
+	static long count(long[] snapshot) {
+
+		long count = 0;
+
+		for(long c : snapshot) count += c;
+		return count;
+	}
+
+	/**
+	 * Value below which a share of the recorded values fall.
+	 * @param snapshot counts from {@link LatencyHistogram#snapshot()}
+	 * @param percentile share wanted, 0 to 100
+	 * @return highest value of the bucket the percentile falls in, 0 if nothing was recorded
+	 */
+	static long percentile(long[] snapshot, double percentile) {
+
+		long count = count(snapshot);
+		long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+
+		if(count == 0) return 0;
+		for(int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if(seen >= Math.max(1, rank)) return highestValue(i);
+		}
+		return highestValue(snapshot.length - 1);
+	}
+
+	/**
+	 * Largest value recorded.
+	 * @return maximum in nanoseconds
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * Bucket of a value.
+	 * @param value value, not negative
+	 * @return index of its bucket
+	 */
+	private static int index(long value) {
+
+		if(value < SUB) return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1; // keeps value >> shift in [HALF, SUB)
+		return shift * HALF + (int) (value >>> shift);
+	}
+
+	/**
+	 * Highest value that lands in a bucket.
+	 * @param index index of the bucket
+	 * @return largest value of the bucket
+	 */
+	private static long highestValue(int index) {
+
+		if(index < SUB) return index;
+
+		int shift = index / HALF - 1;
+		long lowest = (long) (index - shift * HALF) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+} // end of the class LatencyHistogram
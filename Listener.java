@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepting side of the server, the addresses clients connect to, each with acceptor threads of its own,
+ * which set up every accepted socket and hand it over to be run as a session, so accepting never waits on a session starting.
+ * <p>
+ * Where the platform has SO_REUSEPORT every acceptor of an address binds a socket of its own to it
+ * and the kernel spreads new connections across them, so a burst of clients reconnecting at once
+ * is not funnelled through one accept queue and one thread. Elsewhere the acceptors of an address share its one socket.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class Listener {
+
+	/**
+	 * Takes on a connection once it has been accepted and set up.
+	 */
+	interface Handoff {
+
+		/**
+		 * Starts the session of a connection.
+		 * @param channel connection accepted from a client, still blocking
+		 * @throws IOException if the connection could not be taken on
+		 */
+		void accept(SocketChannel channel) throws IOException;
+	}
+
+	/**
+	 * Thread accepting connections on one listening socket.
+	 */
+	private final class Acceptor implements Runnable {
+
+		/**
+		 * Listening socket, shared with the address's other acceptors unless each has its own.
+		 */
+		private final ServerSocketChannel channel;
+
+		/**
+		 * Address and number of the acceptor, naming its thread.
+		 */
+		private final String name;
+
+		/**
+		 * Connections this acceptor has accepted, only written by its own thread.
+		 */
+		private volatile long accepted = 0;
+
+		/**
+		 * Thread running the acceptor.
+		 */
+		private final Thread thread;
+
+		/**
+		 * Constructor method for {@link Listener.Acceptor}.
+		 * @param channel listening socket
+		 * @param name address and number of the acceptor
+		 */
+		Acceptor(ServerSocketChannel channel, String name) {
+			this.channel = channel;
+			this.name = name;
+			thread = new Thread(this, "acceptor-" + name);
+		}
+
+		/**
+		 * Accepts connections until the listening socket is closed,
+		 * riding out failures such as running out of file descriptors, which pass once other connections close.
+		 */
+		public void run() {
+
+			while(!isClosed) {
+				SocketChannel client;
+
+				try {
+					client = channel.accept();
+				}
+				catch(ClosedChannelException e) { // closed by close()
+					break;
+				}
+				catch(IOException e) {
+					log.error("Exception accepting on " + name + ": " + e);
+					pause();
+					continue;
+				}
+				accepted++;
+				metrics.connectionAccepted();
+				try {
+					configure(client);
+					handoff.accept(client);
+				}
+				catch(IOException e) {
+					log.error("Exception starting a session on " + name + ": " + e);
+					closeQuietly(client);
+				}
+			}
+		} // end of run() in the class Acceptor
+	}
+
+	/**
+	 * How long an acceptor waits after accepting failed, so a lasting failure does not spin.
+	 */
+	private static final long FAILURE_PAUSE_MILLIS = 100;
+
+	/**
+	 * Addresses, backlog, acceptors per address and socket options.
+	 */
+	private final ServerConfig config;
+
+	/**
+	 * Log failures go to.
+	 */
+	private final ServerLog log;
+
+	/**
+	 * Metrics every accepted connection is counted in.
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Takes on every accepted connection.
+	 */
+	private final Handoff handoff;
+
+	/**
+	 * Every listening socket, one per address or one per acceptor.
+	 */
+	private final List<ServerSocketChannel> channels = new ArrayList<ServerSocketChannel>();
+
+	/**
+	 * Every acceptor, of every address.
+	 */
+	private final List<Acceptor> acceptors = new ArrayList<Acceptor>();
+
+	/**
+	 * What is listened on, for the start-up line.
+	 */
+	private final List<String> descriptions = new ArrayList<String>();
+
+	/**
+	 * Set once the listening sockets are closed.
+	 */
+	private volatile boolean isClosed = false;
+
+	/**
+	 * Constructor method for {@link Listener}.
+	 * @param config addresses, backlog, acceptors per address and socket options
+	 * @param log log failures go to
+	 * @param metrics metrics every accepted connection is counted in
+	 * @param handoff takes on every accepted connection
+	 */
+	Listener(ServerConfig config, ServerLog log, ServerMetrics metrics, Handoff handoff) {
+		this.config = config;
+		this.log = log;
+		this.metrics = metrics;
+		this.handoff = handoff;
+	}
+
+	/**
+	 * Binds every address before anything is accepted, so an address that cannot be had stops the server starting.
+	 * @throws IOException if an address could not be bound
+	 */
+	void bind() throws IOException {
+
+		List<String> addresses = config.listenAddresses.isEmpty() ? List.of("*:" + config.portNumber) : config.listenAddresses;
+
+		for(String address : addresses) {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			boolean isSharded = config.acceptors > 1 && channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+			InetSocketAddress local = bind(channel, parse(address), isSharded);
+			String label = (local.getAddress().isAnyLocalAddress() ? "*" : local.getHostString()) + ":" + local.getPort();
+
+			for(int i = 0; i < config.acceptors; i++) {
+				if(isSharded && i > 0) bind(channel = ServerSocketChannel.open(), local, true); // the port the first was given
+				acceptors.add(new Acceptor(channel, label + "-" + i));
+			}
+			descriptions.add(label + (config.acceptors == 1 ? ""
+				: " (" + config.acceptors + " acceptors, " + (isSharded ? "a socket each" : "one socket") + ")"));
+		}
+	}
+
+	/**
+	 * Sets a listening socket up and binds it.
+	 * @param channel unbound listening socket
+	 * @param address address to bind to, port 0 for any
+	 * @param isSharded whether other sockets are to be bound to the same address
+	 * @return address bound to, with the port it was given
+	 * @throws IOException if the address could not be bound
+	 */
+	private InetSocketAddress bind(ServerSocketChannel channel, InetSocketAddress address, boolean isSharded) throws IOException {
+
+		channels.add(channel); // closed with the others even if binding fails
+		if(isSharded) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+		if(config.receiveBufferBytes > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, config.receiveBufferBytes); // inherited
+		channel.bind(address, config.acceptBacklog);
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+
+	/**
+	 * Reads a listen address.
+	 * @param address host:port, host alone for the default port, * or nothing for every local address, IPv6 hosts in brackets
+	 * @return address to bind to
+	 */
+	private InetSocketAddress parse(String address) {
+
+		int colon = address.lastIndexOf(':');
+		boolean hasPort = colon >= 0 && address.indexOf(']', colon) < 0;
+		String host = hasPort ? address.substring(0, colon) : address;
+		int port = hasPort ? Integer.parseInt(address.substring(colon + 1)) : config.portNumber;
+
+		if(host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+		return host.isEmpty() || host.equals("*") ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+	}
+
+	/**
+	 * Starts every acceptor.
+	 */
+	void start() {
+		for(Acceptor acceptor : acceptors) acceptor.thread.start();
+	}
+
+	/**
+	 * Waits until every acceptor has stopped, once the listening sockets are closed.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	void await() throws InterruptedException {
+		for(Acceptor acceptor : acceptors) acceptor.thread.join();
+	}
+
+	/**
+	 * Closes every listening socket, the acceptors stop, connections already accepted carry on.
+	 */
+	void close() {
+		isClosed = true;
+		for(ServerSocketChannel channel : channels) closeQuietly(channel);
+	}
+
+	/**
+	 * Sets up an accepted socket with the configured options,
+	 * its receive buffer already came from the listening socket.
+	 * @param client connection accepted from a client
+	 * @throws IOException if an option could not be set
+	 */
+	private void configure(SocketChannel client) throws IOException {
+		if(config.tcpNoDelay) client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		if(config.sendBufferBytes > 0) client.setOption(StandardSocketOptions.SO_SNDBUF, config.sendBufferBytes);
+	}
+
+	/**
+	 * Waits a little after accepting failed.
+	 */
+	private void pause() {
+		try {
+			TimeUnit.MILLISECONDS.sleep(FAILURE_PAUSE_MILLIS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Closes a socket, ignoring a failure to, there is nothing more to do with it.
+	 * @param channel socket to close
+	 */
+	private static void closeQuietly(Channel channel) {
+		try {
+			channel.close();
+		}
+		catch(IOException e) { // already gone
+		}
+	}
+
+	/**
+	 * What is listened on, for the start-up line.
+	 * @return addresses with their acceptors
+	 */
+	String addresses() {
+		return String.join(", ", descriptions);
+	}
+
+	/**
+	 * Connections each acceptor has accepted, showing how evenly they share the load.
+	 * @return counts by acceptor
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder counts = new StringBuilder();
+
+		for(Acceptor acceptor : acceptors) {
+			if(counts.length() > 0) counts.append(", ");
+			counts.append(acceptor.name).append(' ').append(acceptor.accepted);
+		}
+		return counts.toString();
+	}
+} // end of the class Listener
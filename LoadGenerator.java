@@ -0,0 +1,484 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless mode of the client, started by {@code java Client --load},
+ * which signs in many simulated clients from one JVM, each on a virtual thread of its own (a platform thread before Java 21),
+ * and has them send a mix of broadcasts, private messages and commands at a steady rate
+ * while signing out and back in now and then.
+ * Every message carries the time it was sent, and since all clients share one clock
+ * the delivery latency of every copy received is measured end to end, through the server and back.
+ * Command latency is the time to the reply, matched to the oldest command still waiting.
+ * After the warm-up the counters start again and the run ends with throughput and latency percentiles.
+ * <p>
+ * Usage: java Client --load [--host=localhost] [--port=5555] [--clients=1000] [--rooms=1] [--rate=1] [--size=64]
+ * [--private=0.1] [--command=0.02] [--churn=0] [--ramp=2] [--warmup=5] [--duration=30]
+ * <p>
+ * --rate is messages per second for each client, --size the length of each message in characters,
+ * --private and --command the share of messages that are private messages and commands, the rest being broadcasts,
+ * and --churn the mean number of seconds a client stays signed in, 0 to stay for the whole run.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class LoadGenerator {
+
+	/**
+	 * Marks a message sent by the load generator, followed by the time it was sent.
+	 */
+	private static final String MARKER = "~sent:";
+
+	/**
+	 * Start of the reply to the command the simulated clients send.
+	 */
+	private static final String COMMAND_REPLY = "Number of clients: ";
+
+	/**
+	 * Address of the server.
+	 */
+	private String host = "localhost";
+
+	/**
+	 * Port of the server.
+	 */
+	private int portNumber = 5555;
+
+	/**
+	 * Number of simulated clients.
+	 */
+	private int clientCount = 1000;
+
+	/**
+	 * Number of rooms the clients are spread over, 1 keeps everybody in the lobby.
+	 */
+	private int roomCount = 1;
+
+	/**
+	 * Messages each client sends per second.
+	 */
+	private double rate = 1;
+
+	/**
+	 * Length of every message in characters.
+	 */
+	private int size = 64;
+
+	/**
+	 * Share of messages that are private messages.
+	 */
+	private double privateShare = 0.1;
+
+	/**
+	 * Share of messages that are commands.
+	 */
+	private double commandShare = 0.02;
+
+	/**
+	 * Mean seconds a client stays signed in before signing out and in again, 0 for no churn.
+	 */
+	private double churnSeconds = 0;
+
+	/**
+	 * Seconds over which the clients first connect.
+	 */
+	private double rampSeconds = 2;
+
+	/**
+	 * Seconds of traffic after the ramp which are not measured.
+	 */
+	private double warmupSeconds = 5;
+
+	/**
+	 * Seconds of measured traffic.
+	 */
+	private double durationSeconds = 30;
+
+	/**
+	 * Latency from sending a broadcast to each other member receiving it.
+	 */
+	private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+
+	/**
+	 * Latency from sending a private message to its recipient receiving it.
+	 */
+	private final LatencyHistogram privateLatency = new LatencyHistogram();
+
+	/**
+	 * Latency from sending a command to receiving its reply.
+	 */
+	private final LatencyHistogram commandLatency = new LatencyHistogram();
+
+	/**
+	 * Broadcasts sent.
+	 */
+	private final LongAdder broadcastsSent = new LongAdder();
+
+	/**
+	 * Private messages sent.
+	 */
+	private final LongAdder privatesSent = new LongAdder();
+
+	/**
+	 * Commands sent.
+	 */
+	private final LongAdder commandsSent = new LongAdder();
+
+	/**
+	 * Sign-ins, including those after churn.
+	 */
+	private final LongAdder logins = new LongAdder();
+
+	/**
+	 * Connections that failed or were lost while the run was going.
+	 */
+	private final LongAdder failures = new LongAdder();
+
+	/**
+	 * Every histogram, in the order they are reported.
+	 */
+	private final LatencyHistogram[] histograms = {broadcastLatency, privateLatency, commandLatency};
+
+	/**
+	 * Every counter, in the order they are reported.
+	 */
+	private final LongAdder[] counters = {broadcastsSent, privatesSent, commandsSent, logins, failures};
+
+	/**
+	 * Simulated clients, by number.
+	 */
+	private SimulatedClient[] clients;
+
+	/**
+	 * Padding making every message {@link LoadGenerator#size} characters long.
+	 */
+	private String padding;
+
+	/**
+	 * Cleared to make every client sign out.
+	 */
+	private volatile boolean isRunning = true;
+
+	/**
+	 * Main method, runs the load and prints the report.
+	 * @param args command-line arguments, see the class comment
+	 * @throws Exception simply terminate the load generator when exception is thrown
+	 */
+	public static void main(String[] args) throws Exception {
+
+		LoadGenerator generator = new LoadGenerator();
+
+		for(String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch(option[0]) {
+				case "--load": break; // how Client knew to start us
+				case "--host": generator.host = option[1]; break;
+				case "--port": generator.portNumber = Integer.parseInt(option[1]); break;
+				case "--clients": generator.clientCount = Math.max(2, Integer.parseInt(option[1])); break;
+				case "--rooms": generator.roomCount = Math.max(1, Integer.parseInt(option[1])); break;
+				case "--rate": generator.rate = Double.parseDouble(option[1]); break;
+				case "--size": generator.size = Math.max(0, Integer.parseInt(option[1])); break;
+				case "--private": generator.privateShare = Double.parseDouble(option[1]); break;
+				case "--command": generator.commandShare = Double.parseDouble(option[1]); break;
+				case "--churn": generator.churnSeconds = Double.parseDouble(option[1]); break;
+				case "--ramp": generator.rampSeconds = Double.parseDouble(option[1]); break;
+				case "--warmup": generator.warmupSeconds = Double.parseDouble(option[1]); break;
+				case "--duration": generator.durationSeconds = Double.parseDouble(option[1]); break;
+				default: throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		generator.run();
+	}
+
+	/**
+	 * Starts the clients, resets the counters after the warm-up, lets the measured traffic run,
+	 * then signs everybody out and reports.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void run() throws InterruptedException {
+
+		char[] fill = new char[Math.max(0, size - MARKER.length() - 20)]; // room for the time and a space
+		Arrays.fill(fill, 'x');
+		padding = new String(fill);
+
+		ExecutorService threads = VirtualThreads.newPerTaskExecutorOrCached(); // platform threads before Java 21
+		clients = new SimulatedClient[clientCount];
+		long start = System.nanoTime();
+
+		for(int i = 0; i < clientCount; i++) {
+			clients[i] = new SimulatedClient(i, start + (long) (rampSeconds * 1e9 * i / clientCount));
+			threads.execute(clients[i]);
+		}
+
+		sleep(rampSeconds + warmupSeconds);
+		for(LatencyHistogram latency : histograms) latency.reset();
+		for(LongAdder counter : counters) counter.reset();
+		long measureStart = System.nanoTime();
+
+		sleep(durationSeconds);
+		double seconds = (System.nanoTime() - measureStart) / 1e9;
+		long[][] snapshots = new long[histograms.length][];
+		long[] counts = new long[counters.length];
+		for(int i = 0; i < histograms.length; i++) snapshots[i] = histograms[i].snapshot();
+		for(int i = 0; i < counters.length; i++) counts[i] = counters[i].sum();
+		isRunning = false;
+
+		threads.shutdown();
+		if(!threads.awaitTermination(10, TimeUnit.SECONDS)) threads.shutdownNow();
+		report(seconds, snapshots, counts);
+	} // end of run() in the class LoadGenerator
+
+	/**
+	 * Prints the throughput and latency of the measured part of the run.
+	 * @param seconds length of the measured part
+	 * @param snapshots broadcast, private and command latencies at the end of it
+	 * @param counts broadcasts, private messages and commands sent, sign-ins and failures at the end of it
+	 */
+	private void report(double seconds, long[][] snapshots, long[] counts) {
+
+		long sent = counts[0] + counts[1] + counts[2];
+		long received = LatencyHistogram.count(snapshots[0]) + LatencyHistogram.count(snapshots[1]);
+
+		System.out.printf("Clients: %d in %d room(s), %.1f msg/s each, %d characters, %.0f%% private, %.0f%% commands, churn %s%n",
+			clientCount, roomCount, rate, size, privateShare * 100, commandShare * 100,
+			churnSeconds > 0 ? "every " + churnSeconds + " s" : "none");
+		System.out.printf("Measured %.1f s: sent %d (%.1f/s: %d broadcasts, %d private, %d commands), received %d (%.1f/s)%n",
+			seconds, sent, sent / seconds, counts[0], counts[1], counts[2], received, received / seconds);
+		System.out.println("Sign-ins: " + counts[3] + ", connection failures: " + counts[4]);
+		System.out.printf("%-16s %10s %10s %10s %10s %10s%n", "Latency (us)", "count", "p50", "p99", "p99.9", "max");
+		print("broadcast", snapshots[0]);
+		print("private", snapshots[1]);
+		print("command", snapshots[2]);
+	}
+
+	/**
+	 * Prints one row of latencies, the maximum being the top of the highest bucket used,
+	 * as the histogram's own maximum goes on counting after the snapshot.
+	 * @param name kind of traffic
+	 * @param snapshot counts of its histogram
+	 */
+	private static void print(String name, long[] snapshot) {
+		System.out.printf("%-16s %10d %10.1f %10.1f %10.1f %10.1f%n", name, LatencyHistogram.count(snapshot),
+			LatencyHistogram.percentile(snapshot, 50) / 1e3, LatencyHistogram.percentile(snapshot, 99) / 1e3,
+			LatencyHistogram.percentile(snapshot, 99.9) / 1e3, LatencyHistogram.percentile(snapshot, 100) / 1e3);
+	}
+
+	/**
+	 * Sleeps, giving up quietly if interrupted.
+	 * @param seconds time to sleep
+	 */
+	private static void sleep(double seconds) {
+		try {
+			TimeUnit.NANOSECONDS.sleep((long) (seconds * 1e9));
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * One simulated client, signing in, sending at the configured rate until it churns or the run ends,
+	 * and signing in again under a new name after churning.
+	 */
+	private class SimulatedClient implements Runnable {
+
+		/**
+		 * Number of the client.
+		 */
+		private final int id;
+
+		/**
+		 * Time of the first connection, by {@link System#nanoTime()}, spreading the clients over the ramp.
+		 */
+		private final long startNanos;
+
+		/**
+		 * Send times of the commands still waiting for their replies, oldest first.
+		 */
+		private final Queue<Long> pendingCommands = new ConcurrentLinkedQueue<Long>();
+
+		/**
+		 * Current username, null while signed out.
+		 */
+		volatile String name;
+
+		/**
+		 * Number of times the client has signed in, part of its username so churned clients never clash with their old session.
+		 */
+		private int generation = 0;
+
+		/**
+		 * Constructor method for {@link SimulatedClient}.
+		 * @param id number of the client
+		 * @param startNanos time of the first connection
+		 */
+		SimulatedClient(int id, long startNanos) {
+			this.id = id;
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Signs in and sends until the run ends, reconnecting after churn or a lost connection.
+		 */
+		public void run() {
+
+			sleep((startNanos - System.nanoTime()) / 1e9);
+
+			while(isRunning) {
+				try {
+					session();
+				}
+				catch(IOException e) {
+					name = null;
+					if(isRunning) {
+						failures.increment();
+						sleep(0.1);
+					}
+				}
+			}
+		}
+
+		/**
+		 * One connection, from sign in to sign out.
+		 * @throws IOException if the connection failed or was lost
+		 */
+		private void session() throws IOException {
+
+			Random random = ThreadLocalRandom.current();
+			long interval = (long) (1e9 / rate);
+
+			try(Socket socket = new Socket(host, portNumber)) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+				long since = signIn(in, out, "load" + id + "-" + generation++);
+				VirtualThreads.start(() -> receive(in, since)); // not on the executor, it ends when the socket is closed
+
+				long now = System.nanoTime();
+				long end = churnSeconds > 0 ? now + (long) (-Math.log(1 - random.nextDouble()) * churnSeconds * 1e9) : Long.MAX_VALUE;
+				long next = now + (long) (random.nextDouble() * interval); // spread the clients over the interval
+
+				while(isRunning && next < end) {
+					sleep((next - System.nanoTime()) / 1e9);
+					send(out, random);
+					if(out.checkError()) throw new IOException("Connection lost");
+					next += interval;
+				}
+				name = null;
+				out.println("\\quit");
+			}
+		} // end of session() in the class SimulatedClient
+
+		/**
+		 * Gives the username and waits for it to be accepted, then moves to the client's room.
+		 * @param in lines from the server
+		 * @param out lines to the server
+		 * @param candidate username to sign in with
+		 * @return time the client joined its room, anything sent earlier is history or mail being replayed
+		 * @throws IOException if the server refused or went away
+		 */
+		private long signIn(BufferedReader in, PrintWriter out, String candidate) throws IOException {
+
+			String line;
+
+			while((line = in.readLine()) != null && !line.startsWith("Please type your username."));
+			out.println(candidate);
+			while((line = in.readLine()) != null && !line.startsWith("Your username is accepted.")) {
+				if(line.startsWith("Sorry")) throw new IOException(line);
+			}
+			if(line == null) throw new IOException("Server closed the connection");
+			long joined = System.nanoTime();
+			if(roomCount > 1) out.println("\\join room" + id % roomCount);
+			name = candidate;
+			logins.increment();
+			return joined;
+		}
+
+		/**
+		 * Sends one message, the kind picked at random in the configured mix.
+		 * @param out lines to the server
+		 * @param random source of randomness of this thread
+		 */
+		private void send(PrintWriter out, Random random) {
+
+			double kind = random.nextDouble();
+
+			if(kind < commandShare) {
+				pendingCommands.add(System.nanoTime());
+				out.println("\\numberclients");
+				commandsSent.increment();
+				return;
+			}
+
+			String text = MARKER + System.nanoTime() + " " + padding;
+			String recipient = kind < commandShare + privateShare ? clients[random.nextInt(clientCount)].name : null;
+
+			if(recipient != null && !recipient.equals(name)) {
+				out.println("@" + recipient + " " + text);
+				privatesSent.increment();
+			}
+			else {
+				out.println(text);
+				broadcastsSent.increment();
+			}
+		}
+
+		/**
+		 * Reads lines until the connection closes, recording the latency of every message sent by another client
+		 * and of every command reply, the client's own copies of what it sent are skipped,
+		 * and so are messages sent before the client joined, which only arrive as replayed history or mail.
+		 * @param in lines from the server
+		 * @param since time the client joined its room
+		 */
+		private void receive(BufferedReader in, long since) {
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					long now = System.nanoTime();
+					int at = line.indexOf(MARKER);
+
+					long sentAt = at >= 0 ? parseTime(line, at + MARKER.length()) : 0;
+
+					if(at >= 0 && sentAt - since >= 0 && !line.contains(" You: ")) {
+						LatencyHistogram latency = line.contains(" (private)") ? privateLatency : broadcastLatency;
+						latency.record(now - sentAt);
+					}
+					else if(line.startsWith(COMMAND_REPLY)) {
+						Long commandSentAt = pendingCommands.poll();
+						if(commandSentAt != null) commandLatency.record(now - commandSentAt);
+					}
+				}
+			}
+			catch(IOException e) { // closed by the sender, nothing more to read
+			}
+			pendingCommands.clear(); // replies to these will never come
+		} // end of receive() in the class SimulatedClient
+
+		/**
+		 * Reads the send time following the marker without making a substring.
+		 * @param line line received
+		 * @param from index of the first digit
+		 * @return send time by {@link System#nanoTime()}
+		 */
+		private long parseTime(String line, int from) {
+
+			long time = 0;
+			boolean isNegative = from < line.length() && line.charAt(from) == '-';
+
+			for(int i = isNegative ? from + 1 : from; i < line.length() && Character.isDigit(line.charAt(i)); i++) {
+				time = time * 10 + (line.charAt(i) - '0');
+			}
+			return isNegative ? -time : time;
+		}
+	} // end of the class SimulatedClient
+} // end of the class LoadGenerator
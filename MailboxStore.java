@@ -0,0 +1,507 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Mailboxes holding private messages for clients who are away from keyboard or not signed in,
+ * one file per username in a local directory, so many inactive users cost disk rather than memory.
+ * A mailbox is bounded in bytes, messages older than the expiry are never delivered,
+ * and mailboxes nobody has written to for that long are deleted.
+ * <p>
+ * Only users who have signed in, here or on a peer, within the expiry get a mailbox,
+ * and there are only so many mailboxes, so messages to made-up names cannot fill the disk.
+ * The size of every mailbox is kept in memory, so offering a message never waits for the disk:
+ * the files are written, read and swept by a thread of their own, in the order the work was asked for.
+ * The users seen are kept in a file of their own in the same directory, rewritten at every sweep.
+ * <p>
+ * Record layout: time stored in milliseconds (8 bytes), length (4 bytes), then the line to deliver (UTF-8).
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class MailboxStore {
+
+	/**
+	 * What became of a message offered to {@link MailboxStore#store(String, String, BooleanSupplier)}.
+	 * STORED is in the mailbox, PRESENT means the recipient is here and should be sent it straight away,
+	 * FULL means the mailbox has no room for it or there is no room for another mailbox,
+	 * UNKNOWN means nobody of that name has signed in within the expiry.
+	 */
+	enum Outcome { STORED, PRESENT, FULL, UNKNOWN }
+
+	/**
+	 * Ending of mailbox file names.
+	 */
+	private static final String SUFFIX = ".mbox";
+
+	/**
+	 * Name of the file listing the users seen, with the time each was last seen.
+	 */
+	private static final String USERS = "users";
+
+	/**
+	 * Time between sweeps for expired mailboxes, in milliseconds.
+	 */
+	private static final long SWEEP_INTERVAL = 60_000;
+
+	/**
+	 * Bytes a record takes besides its line.
+	 */
+	private static final int HEADER = 12;
+
+	/**
+	 * Directory holding the mailbox files.
+	 */
+	private final Path directory;
+
+	/**
+	 * Most bytes one mailbox file holds.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * Age after which a message is discarded, in milliseconds.
+	 */
+	private final long expiryMillis;
+
+	/**
+	 * Most mailboxes holding mail at once.
+	 */
+	private final int maxMailboxes;
+
+	/**
+	 * Whether a user is signed in, here or on a peer, so is not forgotten however long ago they signed in.
+	 */
+	private final Predicate<String> isSignedIn;
+
+	/**
+	 * Server log failures are reported to.
+	 */
+	private final ServerLog log;
+
+	/**
+	 * Locks guarding the mailboxes, a username always maps to the same one.
+	 * Striped so the number of locks stays fixed however many users have mail.
+	 */
+	private final ReentrantLock[] locks = new ReentrantLock[32];
+
+	/**
+	 * Mailboxes holding mail by username, changed with the user's lock held.
+	 */
+	private final Map<String, Box> boxes = new ConcurrentHashMap<String, Box>();
+
+	/**
+	 * Time each user was last seen signing in, in milliseconds, by username.
+	 */
+	private final Map<String, Long> seen = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Whether a user has been seen since the users file was last written.
+	 */
+	private volatile boolean isSeenChanged = false;
+
+	/**
+	 * File work waiting for the mailbox thread, done in order.
+	 */
+	private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+
+	/**
+	 * Thread doing the file work and the sweeps.
+	 */
+	private final Thread worker = new Thread(this::run, "mailboxes");
+
+	/**
+	 * Whether the mailbox thread has been asked to stop, only touched by that thread.
+	 */
+	private boolean isClosed = false;
+
+	/**
+	 * Space taken by one mailbox, guarded by its user's lock.
+	 */
+	private static class Box {
+
+		/**
+		 * Bytes in the file, counting the records still queued.
+		 */
+		long bytes;
+
+		/**
+		 * Time of the last record stored, in milliseconds.
+		 */
+		long lastWrite;
+
+		/**
+		 * Constructor method for {@link Box}.
+		 * @param bytes bytes in the file
+		 * @param lastWrite time of the last record stored
+		 */
+		Box(long bytes, long lastWrite) {
+			this.bytes = bytes;
+			this.lastWrite = lastWrite;
+		}
+	}
+
+	/**
+	 * Constructor method for {@link MailboxStore}, loading the mailboxes and users left by the last run.
+	 * @param directory directory holding the mailbox files, created if need be
+	 * @param maxBytes most bytes one mailbox holds
+	 * @param expiryMillis age after which a message is discarded
+	 * @param maxMailboxes most mailboxes holding mail at once
+	 * @param isSignedIn whether a user is signed in, here or on a peer
+	 * @param log server log failures are reported to
+	 * @throws IOException if the directory could not be created or read
+	 */
+	MailboxStore(Path directory, long maxBytes, long expiryMillis, int maxMailboxes,
+			Predicate<String> isSignedIn, ServerLog log) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		this.expiryMillis = expiryMillis;
+		this.maxMailboxes = maxMailboxes;
+		this.isSignedIn = isSignedIn;
+		this.log = log;
+		for(int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+		worker.setDaemon(true); // never keeps the process alive
+		load();
+	}
+
+	/**
+	 * Starts the mailbox thread.
+	 */
+	void start() {
+		worker.start();
+	}
+
+	/**
+	 * Records that a user has signed in, here or on a peer, so their mailbox may take mail from now on.
+	 * @param user username
+	 */
+	void addUser(String user) {
+		if(!Server.isValidUsername(user)) return;
+		seen.put(user, System.currentTimeMillis());
+		isSeenChanged = true;
+	}
+
+	/**
+	 * Puts a message in a user's mailbox if they are still away once their mailbox is locked.
+	 * Taking the mailbox locks it too, so a message is either queued for the mailbox before the user takes their mail
+	 * or finds them back and is sent straight away, it is never left behind.
+	 * Never waits for the disk, the record is written by the mailbox thread.
+	 * @param user username of the recipient
+	 * @param line line to deliver, separator not included
+	 * @param isAway whether the recipient is still away from keyboard or signed out
+	 * @return what became of the message
+	 */
+	Outcome store(String user, String line, BooleanSupplier isAway) {
+
+		ReentrantLock lock = lockFor(user);
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+
+		lock.lock();
+		try {
+			if(!isAway.getAsBoolean()) return Outcome.PRESENT;
+			if(!seen.containsKey(user)) return Outcome.UNKNOWN;
+
+			Box box = boxes.get(user);
+			long size = box == null ? 0 : box.bytes;
+			if(size + HEADER + bytes.length > maxBytes) return Outcome.FULL;
+			if(box == null && boxes.size() >= maxMailboxes) return Outcome.FULL;
+
+			long now = System.currentTimeMillis();
+			if(box == null) boxes.put(user, new Box(HEADER + bytes.length, now));
+			else {
+				box.bytes += HEADER + bytes.length;
+				box.lastWrite = now;
+			}
+			tasks.add(() -> append(user, now, bytes));
+			return Outcome.STORED;
+		}
+		finally {
+			lock.unlock();
+		}
+	} // end of store() in the class MailboxStore
+
+	/**
+	 * Empties a user's mailbox, the file is read on the mailbox thread, after every record queued before,
+	 * and the lines that have not expired, oldest first, are handed over on that thread.
+	 * Nothing is handed over if there is no mail.
+	 * @param user username of the recipient
+	 * @param deliver takes the lines
+	 */
+	void take(String user, Consumer<List<String>> deliver) {
+
+		ReentrantLock lock = lockFor(user);
+
+		lock.lock();
+		try {
+			if(boxes.remove(user) == null) return; // no mail, no need to look
+			tasks.add(() -> {
+				List<String> lines = read(user);
+				if(!lines.isEmpty()) deliver.accept(lines);
+			});
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the mailbox thread once the work queued so far is done, and writes the users file.
+	 * @param timeoutMillis longest time to wait for it
+	 */
+	void close(long timeoutMillis) {
+		tasks.add(() -> isClosed = true);
+		try {
+			worker.join(timeoutMillis);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Does the queued file work in order, sweeping once a minute between tasks.
+	 */
+	private void run() {
+
+		long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+
+		while(!isClosed) {
+			Runnable task;
+			try {
+				task = tasks.poll(Math.max(0, nextSweep - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			catch(InterruptedException e) {
+				break;
+			}
+			try {
+				if(task != null) task.run();
+				if(System.currentTimeMillis() >= nextSweep) {
+					sweep();
+					nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+				}
+			}
+			catch(RuntimeException e) { // a session that has gone away, the rest of the queue still counts
+				log.error("Exception in the mailboxes: " + e);
+			}
+		}
+		saveUsers();
+	} // end of run() in the class MailboxStore
+
+	/**
+	 * Appends a record to a user's mailbox file, on the mailbox thread.
+	 * @param user username of the recipient
+	 * @param time time the message was stored
+	 * @param bytes line to deliver
+	 */
+	private void append(String user, long time, byte[] bytes) {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(fileFor(user), StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+			out.writeLong(time);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		catch(IOException e) {
+			log.error("Exception storing mail for " + user + ": " + e);
+		}
+	}
+
+	/**
+	 * Reads and deletes a user's mailbox file, on the mailbox thread.
+	 * @param user username of the recipient
+	 * @return lines that have not expired, oldest first
+	 */
+	private List<String> read(String user) {
+
+		Path file = fileFor(user);
+		List<String> lines = new ArrayList<String>();
+		long oldest = System.currentTimeMillis() - expiryMillis;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			while(true) {
+				long time;
+				try {
+					time = in.readLong();
+				}
+				catch(EOFException e) {
+					break;
+				}
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				if(time >= oldest) lines.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+		}
+		catch(NoSuchFileException e) { // every record failed to be written
+			return lines;
+		}
+		catch(IOException e) {
+			log.error("Exception reading mail for " + user + ": " + e);
+		}
+		delete(file);
+		return lines;
+	} // end of read() in the class MailboxStore
+
+	/**
+	 * Deletes the mailboxes nobody has written to within the expiry, so users who never come back do not keep their mail forever,
+	 * forgets the users not seen within it who have no mail and are not signed in, then writes the users file.
+	 * On the mailbox thread, which is the only one touching the files, so they are deleted without the locks held.
+	 */
+	private void sweep() {
+
+		long now = System.currentTimeMillis();
+
+		for(String user : boxes.keySet()) {
+			ReentrantLock lock = lockFor(user);
+			boolean isExpired = false;
+			lock.lock();
+			try {
+				Box box = boxes.get(user);
+				if(box != null && now - box.lastWrite > expiryMillis) {
+					boxes.remove(user);
+					isExpired = true;
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+			if(isExpired) delete(fileFor(user)); // any record stored since is queued behind this
+		}
+		for(Map.Entry<String, Long> user : seen.entrySet()) {
+			if(now - user.getValue() > expiryMillis && !boxes.containsKey(user.getKey()) && !isSignedIn.test(user.getKey())) {
+				seen.remove(user.getKey(), user.getValue());
+				isSeenChanged = true;
+			}
+		}
+		saveUsers();
+	} // end of sweep() in the class MailboxStore
+
+	/**
+	 * Loads the mailboxes and users left by the last run, in the constructor.
+	 * @throws IOException if the directory could not be read
+	 */
+	private void load() throws IOException {
+
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for(Path file : files) {
+				String user;
+				try {
+					user = userFor(file);
+				}
+				catch(NumberFormatException e) { // not one of ours
+					continue;
+				}
+				if(Server.isValidUsername(user)) {
+					boxes.put(user, new Box(Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+					seen.putIfAbsent(user, Files.getLastModifiedTime(file).toMillis());
+				}
+			}
+		}
+
+		Path file = directory.resolve(USERS);
+		if(!Files.exists(file)) return;
+		for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			int space = line.indexOf(' ');
+			try {
+				String user = line.substring(space + 1);
+				if(space > 0 && Server.isValidUsername(user)) seen.merge(user, Long.parseLong(line.substring(0, space)), Math::max);
+			}
+			catch(NumberFormatException e) { // a line cut short
+				continue;
+			}
+		}
+	} // end of load() in the class MailboxStore
+
+	/**
+	 * Writes the users file if anyone has been seen or forgotten since it was last written,
+	 * to a file beside it first, so a crash leaves either the old list or the new one.
+	 */
+	private void saveUsers() {
+
+		if(!isSeenChanged) return;
+		isSeenChanged = false;
+
+		List<String> lines = new ArrayList<String>();
+		for(Map.Entry<String, Long> user : seen.entrySet()) lines.add(user.getValue() + " " + user.getKey());
+
+		Path file = directory.resolve(USERS);
+		Path next = directory.resolve(USERS + ".new");
+		try {
+			Files.write(next, lines, StandardCharsets.UTF_8);
+			Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException e) {
+			isSeenChanged = true; // try again at the next sweep
+			log.error("Exception saving the mailbox users: " + e);
+		}
+	}
+
+	/**
+	 * Deletes a mailbox file, on the mailbox thread.
+	 * @param file the file
+	 */
+	private void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		}
+		catch(IOException e) {
+			log.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Lock guarding a user's mailbox.
+	 * @param user username
+	 * @return the lock
+	 */
+	private ReentrantLock lockFor(String user) {
+		return locks[Math.floorMod(user.hashCode(), locks.length)];
+	}
+
+	/**
+	 * File of a user's mailbox, named by the hex of the username so any name is a safe file name,
+	 * a valid username being short enough for the name to fit in any file system.
+	 * @param user username
+	 * @return path of the file
+	 */
+	private Path fileFor(String user) {
+
+		StringBuilder name = new StringBuilder();
+
+		for(byte b : user.getBytes(StandardCharsets.UTF_8)) name.append(String.format("%02x", b));
+		return directory.resolve(name + SUFFIX);
+	}
+
+	/**
+	 * Username a mailbox file belongs to.
+	 * @param file file named by {@link MailboxStore#fileFor(String)}
+	 * @return username
+	 */
+	private static String userFor(Path file) {
+
+		String name = file.getFileName().toString();
+		byte[] bytes = new byte[(name.length() - SUFFIX.length()) / 2];
+
+		for(int i = 0; i < bytes.length; i++) bytes[i] = (byte) Integer.parseInt(name.substring(2 * i, 2 * i + 2), 16);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+} // end of the class MailboxStore
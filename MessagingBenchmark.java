@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-benchmarks of the session code paths every message goes through,
+ * run in process against sessions whose output goes to in-memory sinks rather than sockets:
+ * broadcast fan-out by room size, private message lookup by number of users signed in,
+ * command dispatch, and the formatting of {@link Server.HandleSession#getTime(long, long)}.
+ * Each benchmark runs warm-up iterations then timed iterations, as JMH does,
+ * and reports its throughput beside the bytes allocated per operation and the collections it caused,
+ * the figures JMH's GC profiler gives, so a change that allocates more per message shows up next to its speed.
+ * Allocation is read from the JVM's per-thread counters, summed over every live thread, so parallel fan-out is included
+ * as long as its pool's threads outlive the iterations.
+ * <p>
+ * Usage: java MessagingBenchmark [--benchmarks=broadcast,private,command,time] [--sinks=10,1000,10000]
+ * [--users=10,1000,10000] [--warmups=3] [--iterations=5] [--iteration-millis=1000] [server options]
+ * <p>
+ * Any other option is given to the server, e.g. --history=100 or --parallel-fanout=100000,
+ * history is off unless asked for and then kept in memory only, and mailboxes are off, so nothing is written to disk.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class MessagingBenchmark {
+
+	/**
+	 * Benchmarks to run, any of broadcast, private, command and time.
+	 */
+	private String[] benchmarks = {"broadcast", "private", "command", "time"};
+
+	/**
+	 * Room sizes the broadcast benchmark fans out to.
+	 */
+	private int[] sinks = {10, 1000, 10000};
+
+	/**
+	 * Numbers of users signed in for the private message benchmark.
+	 */
+	private int[] users = {10, 1000, 10000};
+
+	/**
+	 * Untimed iterations run first, so the code is compiled before it is measured.
+	 */
+	private int warmups = 3;
+
+	/**
+	 * Timed iterations, each giving one throughput sample.
+	 */
+	private int iterations = 5;
+
+	/**
+	 * Length of every iteration in milliseconds.
+	 */
+	private long iterationMillis = 1000;
+
+	/**
+	 * Options for the servers under test, the defaults turn off history and mailboxes.
+	 */
+	private List<String> serverOptions = new ArrayList<String>(Arrays.asList("--history=0", "--history-dir=", "--mailbox-dir="));
+
+	/**
+	 * Commands timed by the command benchmark.
+	 */
+	private static final String[] COMMANDS = {"\\help", "\\numberclients", "\\clienttime", "\\rooms", "\\clientnames"};
+
+	/**
+	 * Durations timed by the time benchmark, in milliseconds, one for each format getTime() chooses between.
+	 */
+	private static final long[] DURATIONS = {42_000, TimeUnit.MINUTES.toMillis(42) + 7_000,
+		TimeUnit.HOURS.toMillis(7) + 42_000, TimeUnit.DAYS.toMillis(3) + TimeUnit.HOURS.toMillis(7)};
+
+	/**
+	 * Names of the durations, shown as the parameter of the time benchmark.
+	 */
+	private static final String[] DURATION_NAMES = {"seconds", "minutes", "hours", "days"};
+
+	/**
+	 * Operations run between checks of the clock, so timing adds little to short operations.
+	 */
+	private static final int BATCH = 64;
+
+	/**
+	 * Where results are printed, the server's own console output is thrown away while benchmarks run.
+	 */
+	private final PrintStream results = System.out;
+
+	/**
+	 * Channel all output of the sessions is written to.
+	 */
+	private final Sink sink = new Sink();
+
+	/**
+	 * Scratch array for writing the queues to the sink.
+	 */
+	private final ByteBuffer[] scratch = new ByteBuffer[64];
+
+	/**
+	 * One benchmarked operation.
+	 */
+	private interface Operation {
+
+		/**
+		 * Runs the operation once.
+		 * @param index number of the invocation, for operations that vary their input
+		 * @throws IOException if a session fails
+		 */
+		void run(int index) throws IOException;
+	}
+
+	/**
+	 * Main method, runs the chosen benchmarks and prints one row per benchmark and parameter.
+	 * @param args command-line arguments, see the class comment
+	 * @throws Exception simply terminate the benchmarks when exception is thrown
+	 */
+	public static void main(String[] args) throws Exception {
+
+		MessagingBenchmark benchmark = new MessagingBenchmark();
+
+		for(String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch(option[0]) {
+				case "--benchmarks": benchmark.benchmarks = option[1].split(","); break;
+				case "--sinks": benchmark.sinks = sizes(option[1]); break;
+				case "--users": benchmark.users = sizes(option[1]); break;
+				case "--warmups": benchmark.warmups = Integer.parseInt(option[1]); break;
+				case "--iterations": benchmark.iterations = Math.max(1, Integer.parseInt(option[1])); break;
+				case "--iteration-millis": benchmark.iterationMillis = Long.parseLong(option[1]); break;
+				default: benchmark.serverOptions.add(arg); // checked when the first server is made
+			}
+		}
+
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the server prints every message
+		benchmark.results.printf("%-10s %-14s %4s %14s %12s %6s %10s %9s %7s%n",
+			"Benchmark", "(param)", "Cnt", "Score", "Error", "Units", "B/op", "GC count", "GC ms");
+
+		for(String name : benchmark.benchmarks) {
+			switch(name) {
+				case "broadcast": benchmark.broadcast(); break;
+				case "private": benchmark.privateMessage(); break;
+				case "command": benchmark.command(); break;
+				case "time": benchmark.time(); break;
+				default: throw new IllegalArgumentException("Unknown benchmark: " + name);
+			}
+		}
+	}
+
+	/**
+	 * One client broadcasting to rooms of each size, every member's queue written to the sink after each message.
+	 * @throws IOException if a session fails
+	 */
+	private void broadcast() throws IOException {
+		for(int size : sinks) {
+			Server.HandleSession[] sessions = signIn(size);
+			measure("broadcast", String.valueOf(size), i -> {
+				sessions[0].processClientMessage("Hello everyone, this is a typical chat message");
+				drain(sessions);
+			});
+		}
+	} // end of broadcast() in the class MessagingBenchmark
+
+	/**
+	 * One client sending private messages round the other users, for each number of users signed in.
+	 * The lines are made beforehand, so only the server's work is measured.
+	 * @throws IOException if a session fails
+	 */
+	private void privateMessage() throws IOException {
+		for(int count : users) {
+			Server.HandleSession[] sessions = signIn(count);
+			String[] lines = new String[sessions.length];
+			for(int i = 0; i < sessions.length; i++) lines[i] = "@" + sessions[i].name + " are you coming to the meeting?";
+			measure("private", String.valueOf(count), i -> {
+				int recipient = 1 + i % (sessions.length - 1);
+				sessions[0].processClientMessage(lines[recipient]);
+				sessions[0].outbound.writeTo(sink, scratch);
+				sessions[recipient].outbound.writeTo(sink, scratch);
+			});
+		}
+	}
+
+	/**
+	 * Each command dispatched and answered, with ten users signed in.
+	 * @throws IOException if a session fails
+	 */
+	private void command() throws IOException {
+
+		Server.HandleSession[] sessions = signIn(10);
+
+		for(String command : COMMANDS) {
+			measure("command", command, i -> {
+				sessions[0].processClientRequest(command);
+				sessions[0].outbound.writeTo(sink, scratch);
+			});
+		}
+	}
+
+	/**
+	 * Formatting a duration of each length getTime() has a format for.
+	 * @throws IOException if a session fails
+	 */
+	private void time() throws IOException {
+
+		Server.HandleSession session = signIn(1)[0];
+
+		for(int d = 0; d < DURATIONS.length; d++) {
+			long duration = DURATIONS[d];
+			measure("getTime", DURATION_NAMES[d], i -> sink.bytes += session.getTime(i, i + duration).length()); // kept, so not optimised away
+		}
+	}
+
+	/**
+	 * Runs an operation for the warm-up and timed iterations and prints its row.
+	 * @param benchmark name of the benchmark
+	 * @param param parameter of this run
+	 * @param operation operation to time
+	 * @throws IOException if the operation fails
+	 */
+	private void measure(String benchmark, String param, Operation operation) throws IOException {
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		double[] scores = new double[iterations];
+		long operations = 0;
+		int index = 0;
+
+		for(int i = 0; i < warmups; i++) index = (int) iterate(operation, index)[1];
+
+		long allocatedBefore = allocatedBytes(threads);
+		long[] gcBefore = collections();
+
+		for(int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			long[] iteration = iterate(operation, index);
+			scores[i] = iteration[0] * 1e9 / (System.nanoTime() - start);
+			operations += iteration[0];
+			index = (int) iteration[1];
+		}
+
+		long allocated = allocatedBytes(threads) - allocatedBefore;
+		long[] gc = collections();
+		double mean = Arrays.stream(scores).average().orElse(0);
+		double deviation = Math.sqrt(Arrays.stream(scores).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, iterations - 1));
+
+		results.printf("%-10s %-14s %4d %14.1f %s %10.1f %6s %10.1f %9d %7d%n", benchmark, param, iterations, mean, "+-",
+			deviation, "ops/s", allocatedBefore < 0 ? Double.NaN : allocated / (double) operations,
+			gc[0] - gcBefore[0], gc[1] - gcBefore[1]);
+	} // end of measure() in the class MessagingBenchmark
+
+	/**
+	 * Runs the operation for one iteration, checking the clock after every batch.
+	 * @param operation operation to run
+	 * @param index number of the next invocation
+	 * @return operations run and the number of the next invocation
+	 * @throws IOException if the operation fails
+	 */
+	private long[] iterate(Operation operation, int index) throws IOException {
+
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(iterationMillis);
+		long count = 0;
+
+		do {
+			for(int i = 0; i < BATCH; i++) operation.run(index++ & Integer.MAX_VALUE);
+			count += BATCH;
+		} while(System.nanoTime() < end);
+		return new long[] {count, index};
+	}
+
+	/**
+	 * Bytes allocated so far by every live thread,
+	 * summed here as getTotalThreadAllocatedBytes() is only there from Java 21 and the tree builds with Java 17.
+	 * @param threads the JVM's thread bean
+	 * @return bytes allocated, -1 if the JVM does not count them
+	 */
+	private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+
+		if(!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return -1;
+
+		long total = 0;
+		for(long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) total += Math.max(0, bytes); // -1 once a thread ends
+		return total;
+	}
+
+	/**
+	 * Collections so far over every collector.
+	 * @return number of collections and their total time in milliseconds
+	 */
+	private static long[] collections() {
+
+		long[] total = new long[2];
+
+		for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total[0] += Math.max(0, collector.getCollectionCount());
+			total[1] += Math.max(0, collector.getCollectionTime());
+		}
+		return total;
+	}
+
+	/**
+	 * Signs clients in to a new server, all of them in the lobby,
+	 * each session queueing its output for the benchmark to write to the sink.
+	 * @param count number of clients
+	 * @return signed in sessions, the first is the one the benchmarks act as
+	 * @throws IOException if a session fails
+	 */
+	private Server.HandleSession[] signIn(int count) throws IOException {
+
+		Server server = new Server(ServerConfig.parse(serverOptions.toArray(new String[0])));
+		Server.HandleSession[] sessions = new Server.HandleSession[Math.max(2, count)];
+
+		for(int i = 0; i < sessions.length; i++) {
+			sessions[i] = server.new HandleSession(null, server.newOutboundQueue(null, () -> {}), null);
+			sessions[i].registerConnection();
+			sessions[i].offerUserName("user" + i);
+		}
+		drain(sessions);
+		return sessions;
+	}
+
+	/**
+	 * Writes everything the sessions have queued to the sink.
+	 * @param sessions sessions to drain
+	 * @throws IOException if a queue fails
+	 */
+	private void drain(Server.HandleSession[] sessions) throws IOException {
+		for(Server.HandleSession session : sessions) session.outbound.writeTo(sink, scratch);
+	}
+
+	/**
+	 * Parses a list of sizes.
+	 * @param value comma separated numbers
+	 * @return the numbers
+	 */
+	private static int[] sizes(String value) {
+		return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * Channel taking every byte written to it, in place of a client's socket.
+	 */
+	private static class Sink implements GatheringByteChannel {
+
+		/**
+		 * Total bytes written.
+		 */
+		long bytes = 0;
+
+		public long write(ByteBuffer[] sources, int offset, int length) {
+
+			long count = 0;
+
+			for(int i = offset; i < offset + length; i++) count += write(sources[i]);
+			return count;
+		}
+
+		public long write(ByteBuffer[] sources) {
+			return write(sources, 0, sources.length);
+		}
+
+		public int write(ByteBuffer source) {
+
+			int count = source.remaining();
+
+			source.position(source.limit());
+			bytes += count;
+			return count;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	} // end of the class Sink
+} // end of the class MessagingBenchmark
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client connection owned by an {@link EventLoop},
+ * decodes lines, or frames once the client has switched to them, from the non-blocking channel and feeds them to a {@link Server.HandleSession},
+ * and queues whatever the session prints until the loop can write it.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-16
+ */
+class NioConnection {
+
+	/**
+	 * Character set of the line protocol, the same default the blocking streams use.
+	 */
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	/**
+	 * Event loop owning this connection.
+	 */
+	private final EventLoop loop;
+
+	/**
+	 * Non-blocking channel to the client.
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Registration of the channel with the loop's selector.
+	 */
+	private final SelectionKey key;
+
+	/**
+	 * Session handling the commands and messages of this client.
+	 */
+	private final Server.HandleSession session;
+
+	/**
+	 * Output waiting to be written to the channel, in order.
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Whether this connection is already waiting in the loop's pending writes.
+	 */
+	private final AtomicBoolean isWriteRequested = new AtomicBoolean();
+
+	/**
+	 * Bytes of output after which it is written straight away rather than at the end of the loop's pass.
+	 */
+	private final long flushBytes;
+
+	/**
+	 * Metrics the bytes read are counted in.
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Log the connection's errors go to.
+	 */
+	private final ServerLog log;
+
+	/**
+	 * Pool the bytes kept over the rate limits are held in.
+	 */
+	private final BufferPool buffers;
+
+	/**
+	 * Messages queued on the loop's thread since the last write, only touched by the loop.
+	 */
+	private int deferredMessages = 0;
+
+	/**
+	 * Bytes of the line, or the frame, currently being received.
+	 */
+	private byte[] line = new byte[128];
+
+	/**
+	 * Number of bytes used in {@link NioConnection#line}.
+	 */
+	private int lineLength = 0;
+
+	/**
+	 * True after a '\r', so a following '\n' does not end a second, empty line.
+	 */
+	private boolean skipLineFeed = false;
+
+	/**
+	 * Time reading may start again while the client is over its rate limits, by {@link System#nanoTime()}.
+	 */
+	private long resumeAt;
+
+	/**
+	 * Bytes read but not yet handled because the client went over its rate limits, in a pooled buffer, null if none.
+	 */
+	private ByteBuffer unread;
+
+	/**
+	 * True while reading is paused for the rate limits, only touched by the loop.
+	 */
+	private boolean isReadPaused = false;
+
+	/**
+	 * Set once the connection has been closed.
+	 */
+	private boolean isClosed = false;
+
+	/**
+	 * Constructor method for {@link NioConnection}.
+	 * @param server server the session belongs to
+	 * @param loop event loop owning the channel
+	 * @param channel non-blocking channel to the client
+	 * @param key registration of the channel with the loop's selector
+	 */
+	NioConnection(Server server, EventLoop loop, SocketChannel channel, SelectionKey key) {
+		this.loop = loop;
+		this.channel = channel;
+		this.key = key;
+		outbound = server.newOutboundQueue(this::requestWrite, this::requestClose);
+		session = server.new HandleSession(channel.socket(), outbound, this::write);
+		flushBytes = server.flushBytes();
+		metrics = server.metrics;
+		log = server.log;
+		buffers = server.buffers;
+	}
+
+	/**
+	 * Starts the session, the client is asked for their username.
+	 */
+	void open() {
+		session.registerConnection();
+		session.promptUserName();
+	}
+
+	/**
+	 * Reads what has arrived on the channel and passes every complete line to the session,
+	 * ending the line the same way {@link java.io.BufferedReader#readLine()} does,
+	 * and every complete frame once the session has switched to frames, which can happen part way through the buffer.
+	 * @param buffer scratch buffer of the loop to read into
+	 */
+	void read(ByteBuffer buffer) {
+
+		int count;
+
+		buffer.clear();
+		try {
+			count = channel.read(buffer);
+		}
+		catch(IOException e) {
+			log.info(e.toString());
+			close();
+			return;
+		}
+
+		if(count > 0) {
+			metrics.bytesIn(count);
+			session.heard(); // any bytes will do, a part of a line included
+		}
+		if(count == -1) { // client has gone, an unfinished line still counts, an unfinished frame does not
+			if(lineLength > 0 && !session.isFramed) handleLine(takeLine());
+			close();
+			return;
+		}
+
+		buffer.flip();
+		consume(buffer);
+	} // end of read() in the class NioConnection
+
+	/**
+	 * Handles the lines, or frames, in the bytes read, stopping as soon as the client goes over its rate limits, 
+	 * in which case the rest is kept until reading resumes.
+	 * @param buffer bytes read from the channel
+	 */
+	private void consume(ByteBuffer buffer) {
+
+		while(buffer.hasRemaining() && !isClosed && !session.isOverLimits()) {
+			if(session.isFramed) {
+				readFrames(buffer);
+				continue;
+			}
+			byte b = buffer.get();
+
+			if(b == '\n' && skipLineFeed) {
+				skipLineFeed = false;
+				continue;
+			}
+			skipLineFeed = (b == '\r');
+
+			if(b == '\n' || b == '\r') handleLine(takeLine());
+			else append(b);
+		}
+		if(buffer.hasRemaining() && !isClosed) { // over the limits, the loop's buffer is reused by the next read
+			unread = buffers.acquire(buffer.remaining()).put(buffer).flip();
+		}
+		pauseIfOverLimits();
+	} // end of consume() in the class NioConnection
+
+	/**
+	 * Writes queued output until it has all gone or the socket buffer is full,
+	 * in which case the loop is told to wait until the channel is writable again.
+	 */
+	void write() {
+
+		isWriteRequested.set(false);
+		deferredMessages = 0;
+
+		try {
+			boolean isEmpty = outbound.writeTo(channel, loop.writeScratch());
+			if(key.isValid()) {
+				int read = isReadPaused ? 0 : SelectionKey.OP_READ;
+				key.interestOps(isEmpty ? read : read | SelectionKey.OP_WRITE);
+			}
+		}
+		catch(IOException e) {
+			outbound.abandon();
+		}
+	} // end of write() in the class NioConnection
+
+	/**
+	 * Time reading may start again.
+	 * @return time by {@link System#nanoTime()}
+	 */
+	long resumeAt() {
+		return resumeAt;
+	}
+
+	/**
+	 * Starts reading again once the client is back within its rate limits, 
+	 * after handling what was read but not handled when it went over them, which can pause it again.
+	 */
+	void resumeReads() {
+
+		isReadPaused = false;
+		if(unread != null) {
+			ByteBuffer pending = unread;
+			unread = null;
+			consume(pending); // what is still left is copied to a buffer of its own
+			buffers.release(pending);
+		}
+		if(!isReadPaused && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Stops reading for as long as the messages just handled put the client over its rate limits, 
+	 * what it sends meanwhile waits in the socket, everything already read has been handled.
+	 */
+	private void pauseIfOverLimits() {
+
+		long pause = session.takeInboundPause();
+
+		if(pause > 0 && !isClosed && !isReadPaused && key.isValid()) {
+			isReadPaused = true;
+			resumeAt = System.nanoTime() + pause;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			loop.pauseReads(this);
+		}
+	}
+
+	/**
+	 * Ends the session, which closes the channel, only the first call has any effect.
+	 */
+	void close() {
+
+		if(isClosed) return;
+		isClosed = true;
+		if(unread != null) {
+			buffers.release(unread);
+			unread = null;
+		}
+		session.closeConnection();
+		outbound.endCompression(); // nothing more is written once the channel is closed
+	}
+
+	/**
+	 * Hands a line to the session, the username until one is accepted and then messages.
+	 * @param text line typed by the client
+	 */
+	private void handleLine(String text) {
+		try {
+			if(session.name == null) {
+				session.offerUserName(text);
+			}
+			else if(!session.processClientMessage(text)) {
+				close(); // client logged out
+			}
+		}
+		catch(IOException | RuntimeException e) { // must not take the other connections of the loop down
+			log.info(e.toString());
+			close();
+		}
+	}
+
+	/**
+	 * Collects frames from the buffer, handing each to the session once all of it has arrived.
+	 * @param buffer bytes read from the channel, positioned after any lines already handled
+	 */
+	private void readFrames(ByteBuffer buffer) {
+		try {
+			while(buffer.hasRemaining() && !isClosed && !session.isOverLimits()) {
+				int length = lineLength < Frame.HEADER_LENGTH ? Frame.HEADER_LENGTH : Frame.length(line, 0);
+				if(line.length < length) line = Arrays.copyOf(line, Math.max(length, line.length * 2));
+
+				int count = Math.min(length - lineLength, buffer.remaining());
+				buffer.get(line, lineLength, count);
+				lineLength += count;
+
+				if(lineLength >= Frame.HEADER_LENGTH && lineLength == Frame.length(line, 0)) { // header and body complete
+					Frame frame = Frame.decode(line, 0);
+					lineLength = 0;
+					if(!session.processClientFrame(frame)) close(); // client logged out
+				}
+			}
+		}
+		catch(IOException | RuntimeException e) { // must not take the other connections of the loop down
+			log.info(e.toString());
+			close();
+		}
+	}
+
+	/**
+	 * Adds a byte to the line being received, growing the array when full.
+	 * @param b byte received
+	 */
+	private void append(byte b) {
+		if(lineLength == line.length) line = Arrays.copyOf(line, line.length * 2);
+		line[lineLength++] = b;
+	}
+
+	/**
+	 * Decodes the line received so far and starts a new one.
+	 * @return line without its terminator
+	 */
+	private String takeLine() {
+		String text = new String(line, 0, lineLength, CHARSET);
+		lineLength = 0;
+		return text;
+	}
+
+	/**
+	 * Called once output has been queued, the loop is asked to write it. 
+	 * Output queued on the loop's own thread waits for the end of the loop's pass, 
+	 * so everything a batch of reads produces for the client goes out in one write, 
+	 * unless {@link NioConnection#flushBytes} or as many messages as one write gathers are already waiting, 
+	 * which also keeps a long burst from filling the queue before the pass ends. 
+	 * A closing session writes out what is left itself before the channel is shut.
+	 */
+	private void requestWrite() {
+		if(loop.isLoopThread()) {
+			if(++deferredMessages >= loop.writeScratch().length || outbound.queuedBytes() >= flushBytes) write();
+			else if(isWriteRequested.compareAndSet(false, true)) loop.deferWrite(this);
+		}
+		else if(isWriteRequested.compareAndSet(false, true)) loop.requestWrite(this);
+	}
+
+	/**
+	 * Called when the client cannot keep up with its output, 
+	 * the loop closes the connection once it is done with whatever it is doing now.
+	 */
+	private void requestClose() {
+		loop.requestClose(this);
+	}
+} // end of the class NioConnection
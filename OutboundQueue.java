@@ -0,0 +1,659 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of output waiting to be written to one client,
+ * filled by whichever session sends to the client and drained by the client's own writer,
+ * so a client that reads slowly only ever holds up itself.
+ * What happens when the queue is full is set by its {@link OverflowPolicy}.
+ * Uses a ReentrantLock rather than monitors so blocked virtual threads do not pin their carrier.
+ * Writers drain it in batches, as many queued messages as one gathering write can take,
+ * so a burst of lines costs one system call rather than one each.
+ * The queue of a client that can resume its session also records what it is offered in a {@link ReplayBuffer},
+ * and goes on recording once closed, so whatever the client misses while reconnecting can be sent again.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class OutboundQueue {
+
+	/**
+	 * What to do with a message for a client whose queue is full.
+	 * DROP_OLDEST discards the oldest message not yet being written,
+	 * DISCONNECT closes the client's connection,
+	 * BLOCK makes the sender wait for space up to a timeout, then disconnects.
+	 */
+	enum OverflowPolicy { DROP_OLDEST, DISCONNECT, BLOCK }
+
+	/**
+	 * Messages waiting to be written, oldest first.
+	 */
+	private final ArrayDeque<ByteBuffer> messages = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * Message each entry of {@link OutboundQueue#messages} came from, in step with it,
+	 * {@link WireMessage#UNTRACKED} unless it was offered by {@link OutboundQueue#offerTracked(WireMessage)}.
+	 */
+	private final ArrayDeque<WireMessage> owners = new ArrayDeque<WireMessage>();
+
+	/**
+	 * Guards every field below.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when a message is added or the queue is closed.
+	 */
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * Signalled when a message is removed or the queue is closed.
+	 */
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * Signalled when a closed queue has been emptied by its writer.
+	 */
+	private final Condition drained = lock.newCondition();
+
+	/**
+	 * Most messages the queue holds.
+	 */
+	private final int capacity;
+
+	/**
+	 * What to do when the queue is full.
+	 */
+	private final OverflowPolicy policy;
+
+	/**
+	 * How long {@link OverflowPolicy#BLOCK} waits for space, in milliseconds.
+	 */
+	private final long blockTimeoutMillis;
+
+	/**
+	 * Run after a message is added, for writers that are not waiting in {@link OutboundQueue#take()}, may be null.
+	 */
+	private final Runnable onReady;
+
+	/**
+	 * Run once when the policy decides the client must be disconnected.
+	 */
+	private final Runnable onOverflow;
+
+	/**
+	 * Counters the messages written from this queue are added to.
+	 */
+	private final WriteStats stats;
+
+	/**
+	 * Bytes of the messages waiting, counting a partly written one in full.
+	 */
+	private volatile long queuedBytes = 0;
+
+	/**
+	 * Number of messages discarded because the queue was full.
+	 */
+	private volatile long dropped = 0;
+
+	/**
+	 * Largest number of messages the queue has held.
+	 */
+	private volatile int peakDepth = 0;
+
+	/**
+	 * Set once no more messages are accepted.
+	 */
+	private boolean isClosed = false;
+
+	/**
+	 * Set once the policy has asked for the client to be disconnected.
+	 */
+	private boolean isOverflowed = false;
+
+	/**
+	 * True while the message last returned by {@link OutboundQueue#take()} is being written.
+	 */
+	private boolean isWriting = false;
+
+	/**
+	 * True once the client has switched to frames, every message is then sent as a {@link Frame#TEXT} frame.
+	 */
+	private boolean isFramed = false;
+
+	/**
+	 * Compresses what is written once the first {@link OutboundQueue#uncompressed} messages have gone,
+	 * null for a client that did not ask for compression.
+	 */
+	private BlockCompressor compressor = null;
+
+	/**
+	 * Messages at the head of the queue that were queued before compression was switched on, so go as they are.
+	 */
+	private int uncompressed = 0;
+
+	/**
+	 * Compressor the batch last taken by {@link OutboundQueue#takeBatch} must go through, null if it goes as it is,
+	 * only used by the writer that took it.
+	 */
+	private BlockCompressor batchCompressor = null;
+
+	/**
+	 * Compressed block {@link OutboundQueue#writeTo} could not finish writing, null if none.
+	 */
+	private ByteBuffer pendingBlock = null;
+
+	/**
+	 * Records what the client is sent, for it to resume from, null for a client that cannot resume.
+	 */
+	private ReplayBuffer replay = null;
+
+	/**
+	 * Queue of the connection the client resumed its session on, which everything offered here goes to once set.
+	 */
+	private OutboundQueue successor = null;
+
+	/**
+	 * Constructor method for {@link OutboundQueue}.
+	 * @param capacity most messages the queue holds
+	 * @param policy what to do when the queue is full
+	 * @param blockTimeoutMillis how long {@link OverflowPolicy#BLOCK} waits for space
+	 * @param onReady run after a message is added, may be null
+	 * @param onOverflow run once when the client must be disconnected
+	 * @param stats counters the messages written are added to
+	 */
+	OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis, Runnable onReady, Runnable onOverflow,
+			WriteStats stats) {
+		this.capacity = capacity;
+		this.policy = policy;
+		this.blockTimeoutMillis = blockTimeoutMillis;
+		this.onReady = onReady;
+		this.onOverflow = onOverflow;
+		this.stats = stats;
+	}
+
+	/**
+	 * Adds a message for the client, applying the overflow policy if the queue is full.
+	 * Messages offered after the queue is closed are ignored.
+	 * @param message output to send, may be shared with other queues
+	 * @return false if the message was not queued
+	 */
+	boolean offer(WireMessage message) {
+		return offer(message, false, null, null, false);
+	}
+
+	/**
+	 * Adds a broadcast being tracked by {@link WireMessage#track(LatencyHistogram, long)}, 
+	 * which is told once it has been written to this client or dropped.
+	 * @param message output to send, shared with other queues
+	 * @return false if the message was not queued
+	 */
+	boolean offerTracked(WireMessage message) {
+		return offer(message, false, null, null, true);
+	}
+
+	/**
+	 * Adds a message for the client only if there is room for it now, never waiting or applying the overflow policy,
+	 * for callers that must not block, such as a {@link TimingWheel}'s tasks.
+	 * @param message output to send, may be shared with other queues
+	 * @return false if the message was not queued
+	 */
+	boolean tryOffer(WireMessage message) {
+
+		lock.lock();
+		try {
+			if(isClosed || messages.size() >= capacity) return false;
+			if(replay != null) replay.record(message);
+			enqueue(message, false);
+			notEmpty.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		if(onReady != null) onReady.run();
+		return true;
+	}
+
+	/**
+	 * Adds a message for the client, then sends everything after it as frames if asked to,
+	 * compressed if given a compressor, and records everything after it if given a replay buffer.
+	 * Switching under the same lock as the message is queued means nothing another session sends 
+	 * can get in between the last line and the first frame or block, or the first line numbered.
+	 * @param message output to send, may be shared with other queues
+	 * @param useFramesAfter whether the client is to be sent frames from now on
+	 * @param compressAfter compressor for everything written after the message, null to leave output as it is
+	 * @param retainAfter buffer recording everything offered after the message, null for a client that cannot resume
+	 * @return false if the message was not queued
+	 */
+	boolean offer(WireMessage message, boolean useFramesAfter, BlockCompressor compressAfter, ReplayBuffer retainAfter) {
+		return offer(message, useFramesAfter, compressAfter, retainAfter, false);
+	}
+
+	/**
+	 * Adds a message for the client.
+	 * @param message output to send, may be shared with other queues
+	 * @param useFramesAfter whether the client is to be sent frames from now on
+	 * @param compressAfter compressor for everything written after the message, null to leave output as it is
+	 * @param retainAfter buffer recording everything offered after the message, null to leave recording as it is
+	 * @param isTracked whether the message is to be told once written
+	 * @return false if the message was not queued
+	 */
+	private boolean offer(WireMessage message, boolean useFramesAfter, BlockCompressor compressAfter, ReplayBuffer retainAfter, 
+			boolean isTracked) {
+
+		boolean shouldDisconnect = false;
+		OutboundQueue next = null;
+
+		lock.lock();
+		try {
+			if(policy == OverflowPolicy.BLOCK) {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+				while(messages.size() >= capacity && !isClosed && nanos > 0) {
+					nanos = notFull.awaitNanos(nanos);
+				}
+			}
+			if(isClosed) {
+				next = successor;
+				if(next == null && replay != null) replay.record(message); // kept in case the client resumes
+				if(next == null) return false;
+			}
+			else if(replay != null) replay.record(message); // before any overflow, the client still has to be sent it
+
+			if(next == null && messages.size() >= capacity) {
+				if(policy == OverflowPolicy.DROP_OLDEST) {
+					dropOldest();
+				}
+				else { // DISCONNECT, or BLOCK still full after the timeout
+					dropped++;
+					shouldDisconnect = !isOverflowed;
+					isOverflowed = true;
+					isClosed = true;
+					notEmpty.signalAll();
+					notFull.signalAll();
+				}
+			}
+
+			if(!isClosed) {
+				enqueue(message, isTracked);
+				switchAfter(useFramesAfter, compressAfter);
+				if(retainAfter != null) replay = retainAfter;
+				notEmpty.signal();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		finally {
+			lock.unlock();
+		}
+
+		if(next != null) return next.offer(message, false, null, null, isTracked); // the client has resumed elsewhere
+		if(shouldDisconnect) {
+			onOverflow.run();
+			return false;
+		}
+		if(onReady != null) onReady.run();
+		return true;
+	} // end of offer() in the class OutboundQueue
+
+	/**
+	 * Adds a message to the end of the queue, with the lock held.
+	 * @param message output to send
+	 * @param isTracked whether the message is to be told once written
+	 */
+	private void enqueue(WireMessage message, boolean isTracked) {
+		ByteBuffer buffer = isFramed ? message.framed() : message.text();
+		messages.add(buffer);
+		owners.add(isTracked ? message : WireMessage.UNTRACKED);
+		if(isTracked) message.addRecipient();
+		queuedBytes += buffer.remaining();
+		if(messages.size() > peakDepth) peakDepth = messages.size();
+	}
+
+	/**
+	 * Switches to frames or compression for what is queued from now on, with the lock held.
+	 * @param useFramesAfter whether the client is to be sent frames from now on
+	 * @param compressAfter compressor for everything written after what is queued, null to leave output as it is
+	 */
+	private void switchAfter(boolean useFramesAfter, BlockCompressor compressAfter) {
+		isFramed |= useFramesAfter;
+		if(compressAfter != null) {
+			compressor = compressAfter;
+			uncompressed = messages.size(); // those queued so far are read before the client expects blocks
+		}
+	}
+
+	/**
+	 * Carries on the session of a client that has reconnected, whose previous connection's queue recorded what it was sent.
+	 * Queues the line telling the client where its session carries on, switching to frames or compression after it, 
+	 * then the lines the client missed, and has everything offered to the previous queue from now on come here instead.
+	 * Both queues are locked throughout, the previous one first, so nothing offered meanwhile can get in ahead of what is replayed.
+	 * @param previous queue of the connection that dropped, closed or about to be
+	 * @param linesRead lines the client says it read on the sessions' connections so far
+	 * @param useFramesAfter whether the client is to be sent frames after the first line
+	 * @param compressAfter compressor for everything written after the first line, null to leave output as it is
+	 * @return number of the line the session carries on from
+	 */
+	long resumeFrom(OutboundQueue previous, long linesRead, boolean useFramesAfter, BlockCompressor compressAfter) {
+
+		long line;
+
+		previous.lock.lock();
+		try {
+			lock.lock();
+			try {
+				replay = previous.replay;
+				line = replay.resumeLine(linesRead);
+				byte[] resumed = (ReplayBuffer.RESUMED + line + System.lineSeparator()).getBytes(WireFormat.CHARSET);
+				enqueue(new WireMessage(ByteBuffer.wrap(resumed).asReadOnlyBuffer()), false);
+				switchAfter(useFramesAfter, compressAfter);
+				List<WireMessage> missed = replay.since(line); // already recorded, so not again
+				for(WireMessage message : missed) enqueue(message, false);
+				notEmpty.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+			previous.successor = this;
+			previous.isClosed = true; // the old connection may not have been seen to drop yet
+			previous.notEmpty.signalAll();
+			previous.notFull.signalAll();
+		}
+		finally {
+			previous.lock.unlock();
+		}
+
+		if(onReady != null) onReady.run();
+		return line;
+	} // end of resumeFrom() in the class OutboundQueue
+
+	/**
+	 * Waits for output and takes a batch of it, for writers with a thread of their own.
+	 * Once the first message is in, waits up to the delay for more to join it unless maxBytes are already waiting,
+	 * then takes messages until the batch is full or holds maxBytes, always at least one.
+	 * @param batch array the messages are put in, oldest first
+	 * @param batchOwners array the message each one came from is put in, to be told by {@link OutboundQueue#written(WireMessage[], int)}
+	 * @param maxBytes bytes after which no more messages are taken or waited for
+	 * @param delayNanos longest time to wait for more messages after the first, 0 to take only what is already queued
+	 * @return number of messages taken, 0 once the queue is closed and empty
+	 * @throws InterruptedException if the writer is interrupted while waiting
+	 */
+	int takeBatch(ByteBuffer[] batch, WireMessage[] batchOwners, long maxBytes, long delayNanos) throws InterruptedException {
+
+		lock.lock();
+		try {
+			isWriting = false; // the writer is back for more, so the last batch has gone
+			while(messages.isEmpty()) {
+				if(isClosed) {
+					drained.signalAll();
+					return 0;
+				}
+				notEmpty.await();
+			}
+			long nanos = delayNanos;
+			while(nanos > 0 && queuedBytes < maxBytes && messages.size() < batch.length && !isClosed) {
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+
+			int count = 0;
+			long bytes = 0;
+			boolean isRaw = compressor == null || uncompressed > 0;
+			int most = isRaw && compressor != null ? Math.min(batch.length, uncompressed) : batch.length; // never mix the two
+
+			while(count < most && bytes < maxBytes && !messages.isEmpty()) {
+				ByteBuffer message = messages.poll();
+				bytes += message.remaining();
+				batchOwners[count] = owners.poll();
+				batch[count++] = message;
+			}
+			if(isRaw && compressor != null) uncompressed -= count;
+			batchCompressor = isRaw ? null : compressor;
+			queuedBytes -= bytes;
+			isWriting = true;
+			notFull.signalAll();
+			return count;
+		}
+		finally {
+			lock.unlock();
+		}
+	} // end of takeBatch() in the class OutboundQueue
+
+	/**
+	 * Compressor the batch last taken by {@link OutboundQueue#takeBatch} must go through before it is written.
+	 * @return compressor, null to write the batch as it is
+	 */
+	BlockCompressor batchCompressor() {
+		return batchCompressor;
+	}
+
+	/**
+	 * Frees the compressor's native memory, called by the writer once it has written its last.
+	 */
+	void endCompression() {
+
+		lock.lock();
+		try {
+			if(compressor != null) compressor.end();
+			compressor = null;
+			batchCompressor = null;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Tells the tracked messages of a batch that they have been written, or will never be.
+	 * @param batchOwners messages the batch came from, as filled in by {@link OutboundQueue#takeBatch}
+	 * @param count number of messages in the batch
+	 */
+	static void written(WireMessage[] batchOwners, int count) {
+		for(int i = 0; i < count; i++) {
+			if(batchOwners[i] != null && batchOwners[i] != WireMessage.UNTRACKED) batchOwners[i].recipientDone();
+			batchOwners[i] = null;
+		}
+	}
+
+	/**
+	 * Writes queued messages to a non-blocking channel until they have all gone
+	 * or the channel will take no more, for writers driven by an event loop.
+	 * Each write gathers as many messages as the scratch array holds,
+	 * or once compression is on, writes the block they are compressed into, finishing it on the next call if need be.
+	 * @param channel non-blocking channel to the client
+	 * @param scratch array to gather messages in, only used during the call
+	 * @return true if the queue is now empty
+	 * @throws IOException if the channel could not be written
+	 */
+	boolean writeTo(GatheringByteChannel channel, ByteBuffer[] scratch) throws IOException {
+
+		long writes = 0;
+		long written = 0;
+		long bytes = 0;
+
+		lock.lock();
+		try {
+			while(!messages.isEmpty() || pendingBlock != null) {
+				if(pendingBlock != null) {
+					bytes += channel.write(pendingBlock);
+					writes++;
+					if(pendingBlock.hasRemaining()) return false; // socket buffer full
+					pendingBlock = null;
+					continue;
+				}
+				int count = 0;
+				int most = compressor != null && uncompressed > 0 ? Math.min(scratch.length, uncompressed) : scratch.length;
+				for(ByteBuffer message : messages) {
+					scratch[count++] = message;
+					if(count == most) break;
+				}
+				boolean isFull = false;
+				if(compressor != null && uncompressed == 0) {
+					pendingBlock = compressor.compress(scratch, 0, count); // consumes every message, written next time round
+				}
+				else {
+					bytes += channel.write(scratch, 0, count);
+					writes++;
+					isFull = scratch[count - 1].hasRemaining(); // the channel stopped short of the last one
+				}
+				Arrays.fill(scratch, 0, count, null);
+
+				ByteBuffer message;
+				while((message = messages.peek()) != null && !message.hasRemaining()) {
+					messages.poll();
+					WireMessage owner = owners.poll();
+					if(owner != WireMessage.UNTRACKED) owner.recipientDone();
+					queuedBytes -= message.limit();
+					if(uncompressed > 0) uncompressed--;
+					written++;
+				}
+				if(written > 0) notFull.signalAll();
+				if(isFull) return false; // socket buffer full
+			}
+			if(isClosed) drained.signalAll();
+			return true;
+		}
+		finally {
+			lock.unlock();
+			stats.record(written, writes, bytes);
+		}
+	} // end of writeTo() in the class OutboundQueue
+
+	/**
+	 * Stops accepting messages, those already queued are still written.
+	 */
+	void close() {
+
+		lock.lock();
+		try {
+			isClosed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the queue and discards what is left, for a writer that can no longer reach the client.
+	 */
+	void abandon() {
+
+		lock.lock();
+		try {
+			isClosed = true;
+			isWriting = false;
+			messages.clear();
+			uncompressed = 0;
+			pendingBlock = null;
+			for(WireMessage owner : owners) {
+				if(owner != WireMessage.UNTRACKED) owner.recipientDone();
+			}
+			owners.clear();
+			queuedBytes = 0;
+			notEmpty.signalAll();
+			notFull.signalAll();
+			drained.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for the writer to empty a closed queue, so the last replies reach the client.
+	 * @param timeoutMillis longest time to wait
+	 * @return true if the queue was emptied in time
+	 */
+	boolean awaitDrained(long timeoutMillis) {
+
+		long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		lock.lock();
+		try {
+			while((!messages.isEmpty() || isWriting) && nanos > 0) {
+				nanos = drained.awaitNanos(nanos);
+			}
+			return messages.isEmpty() && !isWriting;
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Number of messages waiting to be written.
+	 * @return queue depth
+	 */
+	int depth() {
+
+		lock.lock();
+		try {
+			return messages.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Bytes waiting to be written, read without taking the lock.
+	 * @return bytes queued
+	 */
+	long queuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Largest number of messages the queue has held.
+	 * @return peak queue depth
+	 */
+	int peakDepth() {
+		return peakDepth;
+	}
+
+	/**
+	 * Number of messages discarded because the queue was full.
+	 * @return messages dropped
+	 */
+	long dropped() {
+		return dropped;
+	}
+
+	/**
+	 * Discards the oldest message that has not started being written,
+	 * a partly written one has to finish or the client would see half a line.
+	 */
+	private void dropOldest() {
+
+		ByteBuffer head = messages.poll();
+		WireMessage headOwner = owners.poll();
+		ByteBuffer victim = head;
+		WireMessage victimOwner = headOwner;
+
+		if(head.position() > 0) { // partly written, drop the next one instead
+			victim = messages.poll();
+			victimOwner = owners.poll();
+			messages.addFirst(head);
+			owners.addFirst(headOwner);
+			if(victim == null) return; // nothing else to drop, the queue goes one over for now
+		}
+		if(victimOwner != WireMessage.UNTRACKED) victimOwner.recipientDone();
+		if(uncompressed > (victim == head ? 0 : 1)) uncompressed--; // one of those to go as it is
+		queuedBytes -= victim.limit();
+		dropped++;
+	}
+} // end of the class OutboundQueue
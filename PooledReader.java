@@ -0,0 +1,193 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads the lines, and then the frames, of a client whose session runs on a thread of its own,
+ * from the blocking channel into a buffer borrowed from the server's {@link BufferPool}.
+ * <p>
+ * The buffer is only held while bytes are in flight. With nothing left over from the last read the reader waits for the next byte
+ * in a buffer of its own just one byte long, borrows a pooled buffer once it comes, reads the rest of the line or frame into it,
+ * and gives it back as soon as everything in it has been handled, so a client that is not sending holds no buffer at all.
+ * That is one more read for the first byte of a burst, in exchange for the kilobytes of buffers
+ * a BufferedReader or a BufferedInputStream would hold for the life of the connection.
+ * <p>
+ * Lines end the same way {@link java.io.BufferedReader#readLine()} ends them, and frames may follow lines in the same read.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class PooledReader {
+
+	/**
+	 * Blocking channel to the client.
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Pool the buffer is borrowed from.
+	 */
+	private final BufferPool pool;
+
+	/**
+	 * Metrics the bytes read are counted in.
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Holds the first byte of a burst, while no buffer is borrowed.
+	 */
+	private final ByteBuffer first = ByteBuffer.allocate(1);
+
+	/**
+	 * Borrowed buffer, ready to be read from, null while nothing is in flight.
+	 */
+	private ByteBuffer buffer = null;
+
+	/**
+	 * True after a '\r', so a following '\n' does not end a second, empty line.
+	 */
+	private boolean skipLineFeed = false;
+
+	/**
+	 * Constructor method for {@link PooledReader}.
+	 * @param channel blocking channel to the client
+	 * @param pool pool the buffer is borrowed from
+	 * @param metrics metrics the bytes read are counted in
+	 */
+	PooledReader(SocketChannel channel, BufferPool pool, ServerMetrics metrics) {
+		this.channel = channel;
+		this.pool = pool;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Reads a line.
+	 * @return line without its terminator, an unfinished line at the end of the stream, or null once the stream has ended
+	 * @throws IOException if the channel could not be read
+	 */
+	String readLine() throws IOException {
+
+		int scanned = 0; // bytes of the line already looked at for a terminator
+
+		while(true) {
+			if(buffer != null) {
+				if(skipLineFeed && buffer.hasRemaining()) {
+					if(buffer.get(buffer.position()) == '\n') buffer.position(buffer.position() + 1);
+					skipLineFeed = false;
+				}
+				for(int i = buffer.position() + scanned; i < buffer.limit(); i++) {
+					byte b = buffer.get(i);
+					if(b == '\n' || b == '\r') {
+						String line = take(i - buffer.position());
+						buffer.position(buffer.position() + 1); // past the terminator
+						skipLineFeed = (b == '\r');
+						releaseIfEmpty();
+						return line;
+					}
+				}
+				scanned = buffer.remaining();
+			}
+			if(!fill()) { // end of stream, an unfinished line still counts
+				String line = buffer == null || !buffer.hasRemaining() ? null : take(buffer.remaining());
+				releaseIfEmpty();
+				return line;
+			}
+		}
+	} // end of readLine() in the class PooledReader
+
+	/**
+	 * Reads a frame.
+	 * @return the frame, or null if the stream ended between frames
+	 * @throws IOException if the stream ended inside a frame, the frame is too long or the channel could not be read
+	 */
+	Frame readFrame() throws IOException {
+
+		skipLineFeed = false; // the line before the frames ended in a line feed if it ended in anything
+
+		if(!await(Frame.HEADER_LENGTH)) return null;
+
+		byte[] header = new byte[Frame.HEADER_LENGTH];
+		buffer.get(buffer.position(), header);
+
+		byte[] frame = new byte[Frame.length(header, 0)];
+		if(!await(frame.length)) throw new EOFException("Stream ended inside a frame");
+		buffer.get(frame);
+		releaseIfEmpty();
+		return Frame.decode(frame, 0);
+	}
+
+	/**
+	 * Reads until the buffer holds a number of bytes.
+	 * @param count bytes wanted
+	 * @return false if the stream ended with nothing in the buffer
+	 * @throws IOException if the stream ended with part of them, or the channel could not be read
+	 */
+	private boolean await(int count) throws IOException {
+		while(buffer == null || buffer.remaining() < count) {
+			if(fill()) continue;
+			if(buffer == null || !buffer.hasRemaining()) return false;
+			throw new EOFException("Stream ended inside a frame");
+		}
+		return true;
+	}
+
+	/**
+	 * Reads more bytes, borrowing the buffer once the first arrives and growing it when a line or frame fills it.
+	 * @return false at the end of the stream
+	 * @throws IOException if the channel could not be read
+	 */
+	private boolean fill() throws IOException {
+
+		int count;
+
+		if(buffer == null) { // nothing in flight, wait without holding a buffer
+			first.clear();
+			count = channel.read(first);
+			if(count < 0) return false;
+			buffer = pool.acquire(BufferPool.SMALLEST).put(first.flip()).flip();
+			metrics.bytesIn(count);
+			return true;
+		}
+
+		buffer.compact();
+		if(!buffer.hasRemaining()) buffer = pool.grow(buffer.flip(), buffer.capacity() * 2);
+		count = channel.read(buffer);
+		buffer.flip();
+		if(count < 0) return false;
+		metrics.bytesIn(count);
+		return true;
+	}
+
+	/**
+	 * Decodes bytes at the front of the buffer, consuming them.
+	 * @param length bytes to decode
+	 * @return text of the bytes
+	 */
+	private String take(int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, WireFormat.CHARSET);
+	}
+
+	/**
+	 * Gives the buffer back once everything in it has been handled.
+	 */
+	private void releaseIfEmpty() {
+		if(buffer != null && !buffer.hasRemaining()) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Gives the buffer back whatever is left in it, the connection is closing.
+	 */
+	void close() {
+		if(buffer != null) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+} // end of the class PooledReader
@@ -0,0 +1,285 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Who is signed in, for \clientnames, and who has just joined, left, gone away or come back, for clients subscribed to presence.
+ * <p>
+ * Every change moves the presence version on. The roster is an immutable {@link Presence.Snapshot} of the usernames at a version,
+ * built only when asked for after something has changed, and encoded once, a page at a time,
+ * so however many clients ask, each is sent a view of the same bytes.
+ * <p>
+ * Subscribers are not sent each change as it happens. The changes of a short window are gathered
+ * and sent as one message, a line each, {@link Presence#PREFIX} with the version, the change and the username:
+ * <pre>
+ * [presence 42] joined alice
+ * [presence 43] away bob
+ * </pre>
+ * A client can take the roster, whose last page gives its version, subscribe, and apply the changes with later versions.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class Presence {
+
+	/**
+	 * Change of a client signing in.
+	 */
+	static final String JOINED = "joined";
+
+	/**
+	 * Change of a client signing out.
+	 */
+	static final String LEFT = "left";
+
+	/**
+	 * Change of a client going away from keyboard.
+	 */
+	static final String AWAY = "away";
+
+	/**
+	 * Change of a client coming back.
+	 */
+	static final String BACK = "back";
+
+	/**
+	 * Start of every change line, followed by the version, a closing bracket, the change and the username.
+	 */
+	static final String PREFIX = "[presence ";
+
+	/**
+	 * Usernames of a moment, sorted, encoded as a line each, whole and in pages.
+	 */
+	static final class Snapshot {
+
+		/**
+		 * Presence version the snapshot was taken at.
+		 */
+		final long version;
+
+		/**
+		 * Number of usernames.
+		 */
+		final int size;
+
+		/**
+		 * Every line, the whole roster as one message, empty if nobody is signed in.
+		 */
+		final WireMessage all;
+
+		/**
+		 * Each page of lines, views of the same bytes as {@link Presence.Snapshot#all}.
+		 */
+		private final WireMessage[] pages;
+
+		/**
+		 * Constructor method for {@link Presence.Snapshot}, encoding the usernames.
+		 * @param version presence version the names were taken at
+		 * @param names usernames, sorted
+		 * @param pageSize usernames a page
+		 */
+		Snapshot(long version, Collection<String> names, int pageSize) {
+
+			this.version = version;
+			size = names.size();
+			pages = new WireMessage[Math.max(1, (size + pageSize - 1) / pageSize)];
+
+			List<byte[]> lines = new ArrayList<byte[]>(size);
+			int length = 0;
+			for(String name : names) {
+				byte[] line = (name + System.lineSeparator()).getBytes(WireFormat.CHARSET);
+				lines.add(line);
+				length += line.length;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			int[] pageStarts = new int[pages.length + 1]; // byte offset of the first line of each page, and the end
+			for(int line = 0; line < size; line++) {
+				if(line % pageSize == 0) pageStarts[line / pageSize] = buffer.position();
+				buffer.put(lines.get(line));
+			}
+			pageStarts[pages.length] = length;
+			buffer = buffer.flip().asReadOnlyBuffer();
+			all = new WireMessage(buffer);
+			for(int page = 0; page < pages.length; page++) {
+				pages[page] = new WireMessage(buffer.duplicate().position(pageStarts[page]).limit(pageStarts[page + 1]).slice());
+			}
+		}
+
+		/**
+		 * Number of pages, at least one.
+		 * @return page count
+		 */
+		int pages() {
+			return pages.length;
+		}
+
+		/**
+		 * Lines of one page.
+		 * @param page page number, from 1
+		 * @return message holding the page, empty for a page past the end
+		 */
+		WireMessage page(int page) {
+			return page >= 1 && page <= pages.length ? pages[page - 1] : EMPTY;
+		}
+	} // end of the class Snapshot
+
+	/**
+	 * Message with nothing in it, for pages past the end.
+	 */
+	private static final WireMessage EMPTY = new WireMessage(ByteBuffer.allocate(0).asReadOnlyBuffer());
+
+	/**
+	 * Usernames signed in, on this node and its peers.
+	 */
+	private final Supplier<Collection<String>> names;
+
+	/**
+	 * Wheel the end of each window is kept on.
+	 */
+	private final TimingWheel timers;
+
+	/**
+	 * Runs each flush off the wheel's thread.
+	 */
+	private final Executor flusher;
+
+	/**
+	 * Milliseconds changes are gathered for before subscribers are sent them.
+	 */
+	private final long windowMillis;
+
+	/**
+	 * Usernames on a page of the roster.
+	 */
+	private final int pageSize;
+
+	/**
+	 * Number of the latest change.
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Roster last built, null before the first.
+	 */
+	private volatile Snapshot snapshot = null;
+
+	/**
+	 * Queues of the clients subscribed to changes.
+	 */
+	private final Set<OutboundQueue> subscribers = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Guards {@link Presence#pending} and {@link Presence#isFlushScheduled}, and numbers changes in the order they are gathered.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Lines of the changes of the current window.
+	 */
+	private StringBuilder pending = new StringBuilder();
+
+	/**
+	 * Set while the end of the current window is waiting on the wheel.
+	 */
+	private boolean isFlushScheduled = false;
+
+	/**
+	 * Constructor method for {@link Presence}.
+	 * @param names usernames signed in, on this node and its peers, read when the roster is rebuilt
+	 * @param timers wheel the end of each window is kept on
+	 * @param flusher runs each flush off the wheel's thread, as offering may block
+	 * @param windowMillis milliseconds changes are gathered for
+	 * @param pageSize usernames on a page of the roster
+	 */
+	Presence(Supplier<Collection<String>> names, TimingWheel timers, Executor flusher, long windowMillis, int pageSize) {
+		this.names = names;
+		this.timers = timers;
+		this.flusher = flusher;
+		this.windowMillis = windowMillis;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Records a change, for the roster to be rebuilt and the subscribers to be sent at the end of the window.
+	 * @param change {@link Presence#JOINED}, {@link Presence#LEFT}, {@link Presence#AWAY} or {@link Presence#BACK}
+	 * @param name username
+	 */
+	void changed(String change, String name) {
+
+		lock.lock();
+		try {
+			long number = version.incrementAndGet();
+			if(subscribers.isEmpty()) return; // nobody to tell, only the roster needs to know
+			pending.append(PREFIX).append(number).append("] ").append(change).append(' ').append(name).append(System.lineSeparator());
+			if(!isFlushScheduled) {
+				isFlushScheduled = true;
+				timers.schedule(windowMillis, () -> flusher.execute(this::flush)); // offering may block, the wheel must not
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the changes of the window that has just ended to every subscriber, as one message.
+	 */
+	private void flush() {
+
+		String lines;
+
+		lock.lock();
+		try {
+			lines = pending.toString();
+			pending = new StringBuilder();
+			isFlushScheduled = false;
+		} finally {
+			lock.unlock();
+		}
+
+		if(lines.isEmpty()) return;
+		WireMessage message = new WireMessage(ByteBuffer.wrap(lines.getBytes(WireFormat.CHARSET)).asReadOnlyBuffer());
+		for(OutboundQueue subscriber : subscribers) subscriber.offer(message);
+	}
+
+	/**
+	 * The roster as of now, rebuilt if anything has changed since it was last built.
+	 * Two clients asking at once may both rebuild it, either copy will do.
+	 * @return immutable snapshot
+	 */
+	Snapshot snapshot() {
+
+		Snapshot current = snapshot;
+		long latest = version.get(); // read first, the names are then at least as new
+
+		if(current == null || current.version != latest) {
+			current = new Snapshot(latest, new TreeSet<String>(names.get()), pageSize);
+			snapshot = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Sends a client the changes from the end of the current window on.
+	 * @param queue queue of the client
+	 */
+	void subscribe(OutboundQueue queue) {
+		subscribers.add(queue);
+	}
+
+	/**
+	 * Stops sending a client the changes.
+	 * @param queue queue of the client
+	 */
+	void unsubscribe(OutboundQueue queue) {
+		subscribers.remove(queue);
+	}
+} // end of the class Presence
@@ -0,0 +1,114 @@
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Writer under a session's PrintWriter,
+ * encodes what is printed straight into a heap buffer of its own
+ * and offers it to the client's {@link OutboundQueue} as one message on every flush,
+ * so printing never waits on the client's socket.
+ * The buffer is a few hundred bytes kept from one flush to the next, one grown for a long message is dropped on its flush,
+ * where an OutputStreamWriter would keep kilobytes of encoder buffers for the life of the connection.
+ * Output is written to the socket from heap arrays in any case, so the pooled direct buffers are left to reading.
+ * The PrintWriter calls it with its lock held, this writer itself.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class QueueWriter extends Writer {
+
+	/**
+	 * Size of the buffer kept between flushes, enough for most lines.
+	 */
+	private static final int KEPT = 256;
+
+	/**
+	 * Queue of the client the output is for.
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Encoder into the wire charset, replacing what it cannot encode as String.getBytes() does.
+	 */
+	private final CharsetEncoder encoder = WireFormat.CHARSET.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+	/**
+	 * Bytes printed since the last flush, from the start of the buffer to its position.
+	 */
+	private ByteBuffer pending = ByteBuffer.allocate(KEPT);
+
+	/**
+	 * First half of a surrogate pair printed on its own, held until the second half comes, 0 if none.
+	 */
+	private char highSurrogate = 0;
+
+	/**
+	 * Constructor method for {@link QueueWriter}.
+	 * @param outbound queue of the client the output is for
+	 */
+	QueueWriter(OutboundQueue outbound) {
+		this.outbound = outbound;
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int length) {
+		write(new String(chars, offset, length));
+	}
+
+	@Override
+	public void write(String text, int offset, int length) {
+		write(text.substring(offset, offset + length));
+	}
+
+	@Override
+	public void write(String text) {
+
+		if(text.isEmpty()) return;
+		if(highSurrogate != 0) {
+			text = highSurrogate + text;
+			highSurrogate = 0;
+		}
+		if(Character.isHighSurrogate(text.charAt(text.length() - 1))) { // its other half is yet to come
+			highSurrogate = text.charAt(text.length() - 1);
+			text = text.substring(0, text.length() - 1);
+		}
+
+		CharBuffer chars = CharBuffer.wrap(text);
+
+		encoder.reset();
+		while(encoder.encode(chars, pending, true).isOverflow()) grow();
+		while(encoder.flush(pending).isOverflow()) grow();
+	}
+
+	/**
+	 * Doubles the buffer, keeping what has been printed.
+	 */
+	private void grow() {
+		pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+	}
+
+	/**
+	 * Offers what has been printed since the last flush as one message, copied out of the buffer into an array of its own.
+	 * The message keeps its own copy because it may be held after it is written, to be replayed to a client that resumes.
+	 */
+	@Override
+	public void flush() {
+
+		if(pending.position() == 0) return;
+
+		byte[] bytes = Arrays.copyOf(pending.array(), pending.position());
+
+		if(pending.capacity() > KEPT) pending = ByteBuffer.allocate(KEPT); // grown for a long message
+		else pending.clear();
+		outbound.offer(new WireMessage(ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+} // end of the class QueueWriter
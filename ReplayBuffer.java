@@ -0,0 +1,128 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last messages sent to a client that can resume its session, numbered by line,
+ * so a client whose connection drops can come back on a new one and be sent only the lines it missed.
+ * A client that sees the server offer resuming in its welcome line sends {@link ReplayBuffer#REQUEST} before its username,
+ * and the first line after the accepted line gives it its token.
+ * Reconnecting, it sends {@link ReplayBuffer#RESUME} with the token and the number of lines it has read since,
+ * and the server answers with {@link ReplayBuffer#RESUMED} and the line it carries on from, then the lines after it.
+ * <p>
+ * Lines, not messages, are numbered because they are what a client can count whatever way the output reaches it,
+ * as lines, in frames or through compression, and a message can hold several.
+ * A message is numbered as it is queued, so one dropped from a full queue still counts,
+ * and the server gives the line it carries on from so the client's count is put right.
+ * Holds references to the shared messages, so keeping them costs no copies.
+ * Not thread-safe, guarded by the lock of the {@link OutboundQueue} recording into it.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class ReplayBuffer {
+
+	/**
+	 * Added to the welcome line by a server that lets clients resume their sessions.
+	 */
+	static final String OFFER = "[resume]";
+
+	/**
+	 * Line a client sends before its username to be given a token.
+	 */
+	static final String REQUEST = "\\resumable";
+
+	/**
+	 * Start of the line a reconnecting client sends instead of its username, followed by its token and the lines it has read.
+	 */
+	static final String RESUME = "\\resume ";
+
+	/**
+	 * Start of the line giving the client its token.
+	 */
+	static final String TOKEN = "Resume token: ";
+
+	/**
+	 * Start of the line telling a reconnected client its session carries on, followed by the number of the next line.
+	 */
+	static final String RESUMED = "Your session is resumed at line ";
+
+	/**
+	 * Line telling a reconnecting client its session has gone, it is then asked for a username.
+	 */
+	static final String EXPIRED = "Sorry, that session can no longer be resumed";
+
+	/**
+	 * Messages, {@link ReplayBuffer#next} is where the next one goes.
+	 */
+	private final WireMessage[] messages;
+
+	/**
+	 * Number of the first line of each message, in step with {@link ReplayBuffer#messages}.
+	 */
+	private final long[] firstLines;
+
+	/**
+	 * Index the next message is stored at.
+	 */
+	private int next = 0;
+
+	/**
+	 * Number of messages held, up to the capacity.
+	 */
+	private int size = 0;
+
+	/**
+	 * Number the next line recorded gets, the lines recorded so far.
+	 */
+	private long nextLine = 0;
+
+	/**
+	 * Constructor method for {@link ReplayBuffer}.
+	 * @param capacity most messages held
+	 */
+	ReplayBuffer(int capacity) {
+		messages = new WireMessage[capacity];
+		firstLines = new long[capacity];
+	}
+
+	/**
+	 * Adds a message sent to the client, overwriting the oldest once full.
+	 * @param message message queued for the client
+	 */
+	void record(WireMessage message) {
+		messages[next] = message;
+		firstLines[next] = nextLine;
+		next = (next + 1) % messages.length;
+		if(size < messages.length) size++;
+		nextLine += message.lineCount();
+	}
+
+	/**
+	 * Line a resumed session carries on from, the one after the last the client read
+	 * unless that has been overwritten, or is past the last one recorded.
+	 * @param linesRead lines the client says it has read
+	 * @return number of the first line to replay
+	 */
+	long resumeLine(long linesRead) {
+		long oldest = size == 0 ? nextLine : firstLines[(next - size + messages.length) % messages.length];
+		return Math.max(oldest, Math.min(linesRead, nextLine));
+	}
+
+	/**
+	 * The messages from a line on, the first cut to start at that line if it is partway through.
+	 * @param line number of the first line wanted, from {@link ReplayBuffer#resumeLine(long)}
+	 * @return messages, oldest first
+	 */
+	List<WireMessage> since(long line) {
+
+		List<WireMessage> since = new ArrayList<WireMessage>();
+
+		for(int i = size; i > 0; i--) {
+			int index = (next - i + messages.length) % messages.length;
+			long first = firstLines[index];
+			if(first >= line) since.add(messages[index]);
+			else if(first + messages[index].lineCount() > line) since.add(messages[index].skipLines((int) (line - first)));
+		}
+		return since;
+	}
+} // end of the class ReplayBuffer
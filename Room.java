@@ -0,0 +1,78 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Named chat room, the index of which sessions a message sent in the room goes to,
+ * so a broadcast only touches the room's own members.
+ * Membership only changes through {@link RoomDirectory}, which creates and removes rooms.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class Room {
+
+	/**
+	 * Name of the room, as typed after \join.
+	 */
+	private final String name;
+
+	/**
+	 * Sessions in the room, the values are unused.
+	 * A concurrent map rather than a set for its bulk operations, which fan out in parallel when the room is large.
+	 */
+	private final ConcurrentHashMap<Server.HandleSession, Boolean> members = new ConcurrentHashMap<Server.HandleSession, Boolean>();
+
+	/**
+	 * Constructor method for {@link Room}.
+	 * @param name name of the room
+	 */
+	Room(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Name of the room.
+	 * @return name as typed after \join
+	 */
+	String name() {
+		return name;
+	}
+
+	/**
+	 * Number of sessions in the room.
+	 * @return members
+	 */
+	int size() {
+		return members.size();
+	}
+
+	/**
+	 * Runs an action for every member, on the calling thread for small rooms
+	 * and split across the common fork/join pool once the room has parallelThreshold members,
+	 * either way returning only when every member has been visited,
+	 * so two messages from the same sender still reach each member in order.
+	 * @param parallelThreshold members needed before the fan-out goes parallel
+	 * @param action action for each member, called from several threads at once in a large room
+	 */
+	void forEachMember(long parallelThreshold, Consumer<Server.HandleSession> action) {
+		members.forEachKey(parallelThreshold, action);
+	}
+
+	/**
+	 * Adds a session, only called by {@link RoomDirectory}.
+	 * @param session session joining
+	 */
+	void add(Server.HandleSession session) {
+		members.put(session, Boolean.TRUE);
+	}
+
+	/**
+	 * Removes a session, only called by {@link RoomDirectory}.
+	 * @param session session leaving
+	 * @return true if nobody is left in the room
+	 */
+	boolean remove(Server.HandleSession session) {
+		members.remove(session);
+		return members.isEmpty();
+	}
+} // end of the class Room
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every room on the server by name.
+ * Rooms are created by the first session to join them and removed when the last one leaves,
+ * except the lobby, which every client starts in and which always exists.
+ * Joining and leaving update the room inside the map's atomic compute,
+ * so a room can never be removed while someone is joining it.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class RoomDirectory {
+
+	/**
+	 * Name of the room every client starts in.
+	 */
+	static final String LOBBY = "lobby";
+
+	/**
+	 * Rooms by name.
+	 */
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+
+	/**
+	 * The room every client starts in.
+	 */
+	private final Room lobby = new Room(LOBBY);
+
+	/**
+	 * Constructor method for {@link RoomDirectory}.
+	 */
+	RoomDirectory() {
+		rooms.put(LOBBY, lobby);
+	}
+
+	/**
+	 * The room every client starts in.
+	 * @return lobby
+	 */
+	Room lobby() {
+		return lobby;
+	}
+
+	/**
+	 * Looks up a room by name.
+	 * @param name name of the room
+	 * @return the room, or null if nobody is in it
+	 */
+	Room get(String name) {
+		return rooms.get(name);
+	}
+
+	/**
+	 * Adds a session to a room, creating the room if it does not exist.
+	 * @param name name of the room
+	 * @param session session joining
+	 * @return room joined
+	 */
+	Room join(String name, Server.HandleSession session) {
+		return rooms.compute(name, (key, room) -> {
+			if(room == null) room = new Room(key);
+			room.add(session);
+			return room;
+		});
+	}
+
+	/**
+	 * Removes a session from a room, removing the room too if it is now empty and not the lobby.
+	 * @param room room to leave
+	 * @param session session leaving
+	 */
+	void leave(Room room, Server.HandleSession session) {
+		rooms.computeIfPresent(room.name(), (key, current) -> {
+			boolean isEmpty = current.remove(session);
+			return (isEmpty && current != lobby) ? null : current;
+		});
+	}
+
+	/**
+	 * Copy of the rooms that exist right now.
+	 * @return rooms, order not guaranteed
+	 */
+	List<Room> rooms() {
+		return new ArrayList<Room>(rooms.values());
+	}
+} // end of the class RoomDirectory
@@ -0,0 +1,431 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index of the messages that have gone through the server, for the \search command.
+ * <p>
+ * Sessions only put a message in a bounded queue, a thread of its own tokenises and indexes it,
+ * so sending never waits on the index, and when the queue is full the message is left out and counted.
+ * <p>
+ * Messages go in segments, each the messages of a stretch of time. Within a segment every message has a number,
+ * one more than the last, and every word a posting list, a growing array of the numbers of the messages holding it,
+ * in order since messages are only ever added at the end. A search intersects the lists of its words
+ * from the newest message backwards, newest segment first, and stops once it has the results wanted,
+ * so however many messages are indexed it looks at little more than the ones it returns.
+ * Once a segment is older than the time kept it is dropped whole, which is all eviction costs.
+ * <p>
+ * A private message is only found by its sender and its recipient.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class SearchIndex {
+
+	/**
+	 * Message waiting to be indexed.
+	 */
+	private static final class Entry {
+
+		/**
+		 * Time the message was sent, in milliseconds.
+		 */
+		final long time;
+
+		/**
+		 * Username of the sender, for private messages.
+		 */
+		final String sender;
+
+		/**
+		 * Username of the recipient of a private message, null for a message broadcast to a room.
+		 */
+		final String recipient;
+
+		/**
+		 * Text searched.
+		 */
+		final String text;
+
+		/**
+		 * Line a search shows.
+		 */
+		final String line;
+
+		/**
+		 * Constructor method for {@link SearchIndex.Entry}.
+		 * @param time time the message was sent
+		 * @param sender username of the sender
+		 * @param recipient username of the recipient, null for a broadcast
+		 * @param text text searched
+		 * @param line line a search shows
+		 */
+		Entry(long time, String sender, String recipient, String text, String line) {
+			this.time = time;
+			this.sender = sender;
+			this.recipient = recipient;
+			this.text = text;
+			this.line = line;
+		}
+	}
+
+	/**
+	 * Numbers of the messages holding one word, ascending, in an int array grown by half as it fills.
+	 */
+	private static final class Postings {
+
+		/**
+		 * Message numbers, only the first {@link SearchIndex.Postings#size} in use.
+		 */
+		int[] numbers = new int[4];
+
+		/**
+		 * Message numbers in the list.
+		 */
+		int size = 0;
+
+		/**
+		 * Adds a message at the end, once however many times the word comes up in it.
+		 * @param number message number, not less than the last added
+		 */
+		void add(int number) {
+			if(size > 0 && numbers[size - 1] == number) return;
+			if(size == numbers.length) numbers = Arrays.copyOf(numbers, size + (size >> 1));
+			numbers[size++] = number;
+		}
+
+		/**
+		 * Position of the last message numbered at most a number, by binary search.
+		 * @param number message number
+		 * @param end position to search below
+		 * @return position, -1 if every message before end is numbered higher
+		 */
+		int floor(int number, int end) {
+			int low = 0;
+			int high = end - 1;
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				if(numbers[middle] <= number) low = middle + 1;
+				else high = middle - 1;
+			}
+			return high;
+		}
+	}
+
+	/**
+	 * Messages of one stretch of time and their posting lists.
+	 */
+	private static final class Segment {
+
+		/**
+		 * Time the segment's stretch started, in milliseconds.
+		 */
+		final long start;
+
+		/**
+		 * Line of each message by number.
+		 */
+		final List<String> lines = new ArrayList<String>();
+
+		/**
+		 * Sender of each private message by number, null for broadcasts.
+		 */
+		final List<String> senders = new ArrayList<String>();
+
+		/**
+		 * Recipient of each private message by number, null for broadcasts.
+		 */
+		final List<String> recipients = new ArrayList<String>();
+
+		/**
+		 * Posting list of each word.
+		 */
+		final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+		/**
+		 * Constructor method for {@link SearchIndex.Segment}.
+		 * @param start time the stretch starts
+		 */
+		Segment(long start) {
+			this.start = start;
+		}
+
+		/**
+		 * Whether a client may see a message.
+		 * @param number message number
+		 * @param user username of the client searching
+		 * @return true for a broadcast, or a private message the client sent or received
+		 */
+		boolean isVisible(int number, String user) {
+			String recipient = recipients.get(number);
+			return recipient == null || recipient.equals(user) || senders.get(number).equals(user);
+		}
+	}
+
+	/**
+	 * Messages indexed in a batch at most, the write lock is released between batches so searches are not held up.
+	 */
+	private static final int BATCH = 256;
+
+	/**
+	 * Messages waiting to be indexed.
+	 */
+	private final BlockingQueue<Entry> queue;
+
+	/**
+	 * Segments, oldest first.
+	 */
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+
+	/**
+	 * Milliseconds of messages in a segment.
+	 */
+	private final long segmentMillis;
+
+	/**
+	 * Milliseconds of messages kept, a whole number of segments.
+	 */
+	private final long retentionMillis;
+
+	/**
+	 * Lets searches run together, indexing a batch takes it alone.
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Messages left out because the queue was full.
+	 */
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Messages in the segments kept, only written by the indexing thread.
+	 */
+	private volatile long indexed = 0;
+
+	/**
+	 * Thread indexing the queued messages.
+	 */
+	private final Thread indexer = new Thread(this::run, "search-index");
+
+	/**
+	 * Constructor method for {@link SearchIndex}.
+	 * @param queueCapacity messages waiting to be indexed at most
+	 * @param segmentMillis milliseconds of messages in a segment
+	 * @param segmentCount segments kept, the latest one included
+	 */
+	SearchIndex(int queueCapacity, long segmentMillis, int segmentCount) {
+		queue = new ArrayBlockingQueue<Entry>(queueCapacity);
+		this.segmentMillis = segmentMillis;
+		retentionMillis = segmentMillis * segmentCount;
+		indexer.setDaemon(true); // never keeps the process alive
+	}
+
+	/**
+	 * Starts indexing.
+	 */
+	void start() {
+		indexer.start();
+	}
+
+	/**
+	 * Queues a message broadcast to a room for indexing, never waiting.
+	 * @param sender username of the sender
+	 * @param text message as typed
+	 * @param line line a search shows
+	 */
+	void addBroadcast(String sender, String text, String line) {
+		add(new Entry(System.currentTimeMillis(), sender, null, text, line));
+	}
+
+	/**
+	 * Queues a private message for indexing, never waiting, it is only found by its sender and recipient.
+	 * @param sender username of the sender
+	 * @param recipient username of the recipient
+	 * @param text message as typed
+	 * @param line line a search shows
+	 */
+	void addPrivate(String sender, String recipient, String text, String line) {
+		add(new Entry(System.currentTimeMillis(), sender, recipient, text, line));
+	}
+
+	/**
+	 * Queues a message, counting it as dropped if the queue is full.
+	 * @param entry message to index
+	 */
+	private void add(Entry entry) {
+		if(!queue.offer(entry)) dropped.increment();
+	}
+
+	/**
+	 * Takes the queued messages in batches and indexes each batch with the write lock held.
+	 */
+	private void run() {
+
+		List<Entry> batch = new ArrayList<Entry>(BATCH);
+
+		while(true) {
+			try {
+				batch.add(queue.take());
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, BATCH - 1);
+
+			lock.writeLock().lock();
+			try {
+				for(Entry entry : batch) index(entry);
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Adds a message to the segment of its time, starting a segment as time moves on
+	 * and dropping the segments that have then fallen out of the time kept, with the write lock held.
+	 * @param entry message to index
+	 */
+	private void index(Entry entry) {
+
+		Segment segment = segments.peekLast();
+
+		if(segment == null || entry.time - segment.start >= segmentMillis) {
+			segment = new Segment(entry.time - entry.time % segmentMillis);
+			while(!segments.isEmpty() && segments.peekFirst().start + retentionMillis <= segment.start) {
+				indexed -= segments.removeFirst().lines.size();
+			}
+			segments.addLast(segment);
+		}
+
+		int number = segment.lines.size();
+		segment.lines.add(entry.line);
+		segment.senders.add(entry.recipient == null ? null : entry.sender); // only private messages need them
+		segment.recipients.add(entry.recipient);
+		for(String term : terms(entry.text)) segment.postings.computeIfAbsent(term, t -> new Postings()).add(number);
+		indexed++;
+	}
+
+	/**
+	 * Finds the latest messages holding every word of a query that a client may see.
+	 * @param query words to find, in any order, case ignored
+	 * @param user username of the client searching
+	 * @param limit most messages wanted
+	 * @return lines of the messages found, oldest first, empty if none or the query has no words
+	 */
+	List<String> search(String query, String user, int limit) {
+
+		Set<String> terms = terms(query);
+		List<String> found = new ArrayList<String>();
+
+		if(terms.isEmpty()) return found;
+
+		lock.readLock().lock();
+		try {
+			Iterator<Segment> newestFirst = segments.descendingIterator();
+			while(newestFirst.hasNext() && found.size() < limit) {
+				search(newestFirst.next(), terms, user, limit, found);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		Collections.reverse(found);
+		return found;
+	}
+
+	/**
+	 * Intersects the posting lists of the words in one segment, from its newest message backwards,
+	 * jumping each list to the candidate by binary search, with the read lock held.
+	 * @param segment segment to search
+	 * @param terms words to find
+	 * @param user username of the client searching
+	 * @param limit most messages wanted in all
+	 * @param found lines found so far, newest first, added to
+	 */
+	private void search(Segment segment, Set<String> terms, String user, int limit, List<String> found) {
+
+		Postings[] lists = new Postings[terms.size()];
+		int[] ends = new int[lists.length]; // positions below which each list is still to be searched
+		int i = 0;
+
+		for(String term : terms) {
+			Postings postings = segment.postings.get(term);
+			if(postings == null) return; // a word no message of the segment holds
+			lists[i++] = postings;
+		}
+		Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size)); // the rarest word leads
+		for(i = 0; i < lists.length; i++) ends[i] = lists[i].size;
+
+		int candidate = Integer.MAX_VALUE;
+		while(found.size() < limit) {
+			boolean isMatch = true;
+			for(i = 0; i < lists.length; i++) {
+				int position = lists[i].floor(candidate, ends[i]);
+				if(position < 0) return; // a word with no earlier message
+				ends[i] = position + 1;
+				int number = lists[i].numbers[position];
+				if(number < candidate) { // this word is not in the candidate, the next candidate is its latest message before
+					candidate = number;
+					isMatch = i == 0;
+					if(i > 0) break;
+				}
+			}
+			if(!isMatch) continue;
+			if(segment.isVisible(candidate, user)) found.add(segment.lines.get(candidate));
+			candidate--;
+		}
+	} // end of search() in the class SearchIndex
+
+	/**
+	 * Words of a text, lower case, split at anything that is not a letter or a digit.
+	 * @param text message or query
+	 * @return distinct words
+	 */
+	static Set<String> terms(String text) {
+
+		Set<String> terms = new LinkedHashSet<String>();
+
+		for(String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+			if(!word.isEmpty()) terms.add(word);
+		}
+		return terms;
+	}
+
+	/**
+	 * Messages in the segments kept.
+	 * @return messages indexed
+	 */
+	long indexed() {
+		return indexed;
+	}
+
+	/**
+	 * Messages left out of the index because it could not keep up.
+	 * @return messages dropped
+	 */
+	long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stops indexing, what is still queued is left out.
+	 */
+	void close() {
+		indexer.interrupt();
+	}
+} // end of the class SearchIndex
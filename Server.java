@@ -1,8 +1,19 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.*;
-import java.text.SimpleDateFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.net.ExtendedSocketOptions;
 
 /**
  * Server program for the chat room, 
@@ -20,12 +31,17 @@ public class Server {
 	/**
 	 * Integer number to represent port number. 
 	 */
-	private int portNumber = 5555;
+	private int portNumber;
 	
 	/**
-	 * The number of clients, initialised. 
+	 * Start-up options, including which session mode to run. 
 	 */
-	private int numClients = 0;
+	private ServerConfig config;
+	
+	/**
+	 * The number of clients, initialised, atomic as sessions on many threads connect and disconnect at once. 
+	 */
+	private AtomicInteger numClients = new AtomicInteger();
 	
 	/**
 	 * String to prompt user. 
@@ -38,59 +54,278 @@ public class Server {
 	private  String accepted = "Your username is accepted.";
 	
 	/**
-	 * ServerSocket for the method {@link Server#shutDown()}
-	 * bound to port number to connect client and server. 
+	 * Addresses clients connect to and the acceptor threads taking their connections, closed by {@link Server#shutDown()}. 
 	 */
-	private ServerSocket ss;
+	private Listener listener;
 	
 	/**
-	 * Hash set to store client names, collection of unique elements order not guaranteed.
+	 * Event loops sharing the connections when running in {@link ServerConfig.SessionMode#NIO}. 
 	 */
-	private HashSet<String> clientNames = new HashSet<String>();
+	private EventLoop[] eventLoops;
 	
 	/**
-	 * Hash set to store printWriters, , collection of unique elements order not guaranteed.
+	 * Index of the event loop given the next accepted connection, round robin, atomic as several acceptors hand connections over at once. 
 	 */
-	private HashSet<PrintWriter> clientWriters = new HashSet<PrintWriter>();
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
 	
 	/**
-	 * Array of helpful commands for user to use, including to get a list of commands, log off and see how many clients are in the chat room. 
+	 * Executor starting a virtual thread for each session in {@link ServerConfig.SessionMode#VIRTUAL}. 
+	 * Whatever sessions wait for, across the server, is guarded by a ReentrantLock rather than a monitor, 
+	 * so a virtual thread waiting for it does not pin its carrier. 
 	 */
-	private String[] commands = {"\\help - list of commands","\\quit - sign out","\\numberclients - how many clients in chat room",
-			"\\servertime - how long has server been running","\\clienttime - how long have you been logged in", "\\ipaddress - ip address of server", 
-			"\\clientnames - list of client names signed in", "\\afk - notify clients you are away from keyboard", "\\back - notify clients you are back after being afk", 
-			"@'username' - for the 'username' of the person you wish to private message followed by message"};
+	private ExecutorService sessionExecutor;
 	
 	/**
-	 * Long integer to store time server started. 
+	 * Longest time a closing session waits for its last output to be written, in milliseconds. 
 	 */
-	private long serverStartTime;
+	private long closeLingerMillis = 1000;
 	
 	/**
-	 * HashMap to assign client names to their outputStreams, allowing for private messaging.
+	 * Signed in sessions by username, each holding its client's writer, login time and away status. 
 	 */
-	private HashMap<String, PrintWriter> clientWriterMap = new HashMap<String, PrintWriter>();
+	private final SessionRegistry sessions = new SessionRegistry();
 	
 	/**
-	 * HashMap to assign client names to their start time, for getting the clienttime.
+	 * Chat rooms, each indexing the sessions its messages go to. 
 	 */
-	private HashMap<String, Long> clientTimeMap = new HashMap<String, Long>();
-
+	private final RoomDirectory rooms = new RoomDirectory();
+	
+	/**
+	 * Clock stamping every message, shared by all sessions. 
+	 */
+	private final CachedClock clock = new CachedClock(WireFormat.CHARSET);
+	
+	/**
+	 * Deadlines of every connection's heartbeat and every held session, all kept by one thread, 
+	 * ticking every tenth of a second, a turn of the wheel taking about 51 seconds. 
+	 */
+	private final TimingWheel timers = new TimingWheel("server-timers", 100, 512);
+	
+	/**
+	 * Counters of the writes to every client, showing what coalescing saves. 
+	 */
+	final WriteStats writeStats = new WriteStats();
+	
+	/**
+	 * Counters of the output compressed for clients that asked for compression. 
+	 */
+	final CompressionStats compressionStats = new CompressionStats();
+	
+	/**
+	 * Console output and the audit trail of every message, written on a thread of its own. 
+	 */
+	final ServerLog log;
+	
+	/**
+	 * Direct buffers connections borrow while reading and compressing, 
+	 * each size class keeping up to {@link Server#POOL_IDLE_BYTES} of them idle. 
+	 */
+	final BufferPool buffers = new BufferPool(POOL_IDLE_BYTES);
+	
+	/**
+	 * Live measurements of the server, for JMX and the \\stats command. 
+	 */
+	final ServerMetrics metrics = new ServerMetrics(sessions, numClients::get, writeStats, compressionStats, buffers);
+	
+	/**
+	 * Roster of every client signed in here and on peers, and the changes sent to clients subscribed to presence. 
+	 */
+	final Presence presence;
+	
+	/**
+	 * Recent messages of every room, replayed to late joiners, null when history is turned off. 
+	 */
+	private ChatHistory history;
+	
+	/**
+	 * Index of the messages sent, for the \\search command, null when searching is turned off. 
+	 */
+	private SearchIndex search;
+	
+	/**
+	 * Mailboxes holding private messages for away or signed out clients, null when turned off. 
+	 */
+	private MailboxStore mailboxes;
+	
+	/**
+	 * Trace of every sign in, line and sign out, null unless asked for. 
+	 */
+	private TrafficRecorder recorder;
+	
+	/**
+	 * Links to the other nodes of the chat, null for a server on its own. 
+	 */
+	private Federation federation;
+	
+	/**
+	 * Messages all clients together may send, null for no limit. 
+	 */
+	private final TokenBucket globalMessages;
+	
+	/**
+	 * Bytes all clients together may send, null for no limit. 
+	 */
+	private final TokenBucket globalBytes;
+	
+	/**
+	 * Sessions clients can resume, keyed by resume token, signed in or held after their connection dropped. 
+	 */
+	private final ConcurrentHashMap<String, HandleSession> resumable = new ConcurrentHashMap<String, HandleSession>();
+	
+	/**
+	 * Orders a session being held as its connection closes against a new connection taking it over, 
+	 * so each session is either signed out or carried on, never both. 
+	 */
+	private final ReentrantLock resumeLock = new ReentrantLock();
+	
+	/**
+	 * Source of resume tokens, which are all a client needs to take over a session. 
+	 */
+	private final SecureRandom tokenSource = new SecureRandom();
+	
+	/**
+	 * Encoded text the sender's own copy of a broadcast has in place of their name. 
+	 */
+	private static final byte[] YOU = " You: ".getBytes(WireFormat.CHARSET);
+	
 	/**
-	 * HashMap to assign client names to their away status, for the afk and back commands.
+	 * Ping sent to quiet clients, one message shared by all of them. 
 	 */
-	private HashMap<String, Boolean> clientAFKMap = new HashMap<String, Boolean>();
+	private static final WireMessage PING = WireFormat.line(false, Heartbeat.PING.getBytes(WireFormat.CHARSET), new byte[0], new byte[0]);
+	
+	/**
+	 * Keepalive probes TCP sends a quiet client too old to answer pings before giving up on it, spread over the read timeout. 
+	 */
+	private static final int KEEPALIVE_PROBES = 3;
+	
+	/**
+	 * Bytes of idle buffers each size class of the buffer pool keeps, 4 MiB. 
+	 */
+	private static final long POOL_IDLE_BYTES = 4L << 20;
+	
+	/**
+	 * Every command clients can type, by name, with what \help says about it. 
+	 */
+	final CommandRegistry commands;
+	
+	/**
+	 * Long integer to store time server started. 
+	 */
+	private long serverStartTime;
 	
 	/** 
 	 * Main method calls {@link Server#start()}. 
-	 * @param args command-line arguments
+	 * @param args command-line arguments, see {@link ServerConfig#parse(String[])}
 	 * @throws IOException simply terminate running server if input or output exception occured
 	 */
 	public static void main(String[] args) throws IOException {	
-		Server server = new Server(); 
+		Server server = new Server(ServerConfig.parse(args)); 
 		server.start();
 	}
 	
+	/**
+	 * Constructor method for {@link Server}. 
+	 * @param config start-up options
+	 */
+	Server(ServerConfig config) {
+		this.config = config;
+		portNumber = config.portNumber;
+		log = new ServerLog(config);
+		presence = new Presence(this::rosterNames, timers, this::startThread, config.presenceWindowMillis, config.rosterPageSize);
+		commands = new CommandRegistry(name -> config.admins.contains(name));
+		registerCommands();
+		globalMessages = InboundLimits.bucket(config.globalMessageRate, config.limitBurstSeconds);
+		globalBytes = InboundLimits.bucket(config.globalBytesRate, config.limitBurstSeconds);
+		if(config.historySize > 0) {
+			ChatLog chatLog = config.historyDirectory.isEmpty() ? null 
+				: new ChatLog(Paths.get(config.historyDirectory), config.historySegmentBytes, config.historySegments);
+			history = new ChatHistory(config.historySize, chatLog, log);
+		}
+	}
+	
+	/**
+	 * A command of the server's own, handed the whole session rather than the {@link CommandSession} a plugin's command sees. 
+	 */
+	@FunctionalInterface
+	private interface SessionCommand {
+		
+		/**
+		 * Handles one use of the command. 
+		 * @param session session of the client that typed it
+		 * @param argument what followed the name and a space, trimmed, empty if nothing did
+		 * @throws IOException if the command could not be carried out, which ends the session
+		 */
+		void run(HandleSession session, String argument) throws IOException;
+	}
+	
+	/**
+	 * Adapts a command of the server's own to {@link Command}, every session dispatched being a {@link HandleSession}. 
+	 * @param command the server's command
+	 * @return the command to register
+	 */
+	private static Command own(SessionCommand command) {
+		return (session, argument) -> command.run((HandleSession) session, argument);
+	}
+	
+	/**
+	 * Registers the server's own commands, in the order \help lists them. 
+	 */
+	private void registerCommands() {
+		
+		commands.register("\\help", "list of commands", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.send(commands.help(session))));
+		commands.register("\\quit", "sign out", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.hasQuit = true));
+		commands.register("\\numberclients", "how many clients in chat room", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.reply("Number of clients: " + (numClients.get() + (federation != null ? federation.remoteCount() : 0)))));
+		commands.register("\\servertime", "how long has server been running", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.reply("Server has been running for: " + session.getTime(serverStartTime, System.currentTimeMillis()))));
+		commands.register("\\clienttime", "how long have you been logged in", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.reply("You have been logged in for: " + session.getTime(session.loginTime, System.currentTimeMillis()))));
+		commands.register("\\ipaddress", "ip address of server", CommandRegistry.Permission.EVERYONE, 
+			CommandRegistry.constant(() -> "IP address of server: " + InetAddress.getLocalHost())); // looked up once, not on every use
+		commands.register("\\clientnames ['page']", "list of client names signed in, or one page of it with how many pages there are", 
+			CommandRegistry.Permission.EVERYONE, own((session, argument) -> {
+				if(argument.isEmpty()) session.send(presence.snapshot().all); // here and on other nodes
+				else session.sendRosterPage(argument);
+			}));
+		commands.register("\\presence on|off", "be sent who joins, leaves, goes away and comes back, every moment's changes together", 
+			CommandRegistry.Permission.EVERYONE, own((session, argument) -> {
+				if(argument.equals("on") || argument.equals("off")) session.subscribePresence(argument.equals("on"));
+				else session.reply("Type \\presence on or \\presence off");
+			}));
+		commands.register("\\afk", "notify clients you are away from keyboard", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.away()));
+		commands.register("\\back", "notify clients you are back after being afk", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> session.back()));
+		commands.register("\\join 'room'", "move to the chat room 'room', which is created if it does not exist", 
+			CommandRegistry.Permission.EVERYONE, own((session, argument) -> {
+				if(argument.isEmpty()) session.reply("Type \\join followed by the name of the room");
+				else session.joinRoom(argument);
+			}));
+		commands.register("\\leave", "go back to the lobby", CommandRegistry.Permission.EVERYONE, own((session, argument) -> {
+			if(session.room == rooms.lobby()) session.reply("You are already in the lobby");
+			else session.joinRoom(RoomDirectory.LOBBY);
+		}));
+		commands.register("\\rooms", "list of chat rooms and how many clients are in each", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> {
+				for(Room r : rooms.rooms()) {
+					session.out.println(r.name() + " (" + r.size() + ")" + (r == session.room ? " - you are here" : ""));
+				}
+				session.out.flush();
+			}));
+		commands.register("\\search 'words'", "the latest messages you could see holding all the words", CommandRegistry.Permission.EVERYONE, 
+			own((session, argument) -> {
+				if(argument.isEmpty()) session.reply("Type \\search followed by the words to find");
+				else session.search(argument);
+			}));
+		commands.register("\\stats", "server metrics", CommandRegistry.Permission.ADMIN, own((session, argument) -> {
+			for(String line : metrics.report()) session.out.println(line);
+			session.out.flush();
+		}));
+		commands.describe("@'username'", "for the 'username' of the person you wish to private message followed by message");
+	} // end of registerCommands() in the class Server
+	
 	/**
 	 * Initiates the server, 
 	 * when this is run, server is ready for connections. 
@@ -101,42 +336,288 @@ public class Server {
 		// As soon as server starts, current time is captured for servertime command
 		serverStartTime = System.currentTimeMillis();
 		
-		ss = new ServerSocket(portNumber);
+		log.start();
+		// the server is usually stopped by a signal, which skips shutDown(), 
+		// so one hook closes the trace and logs the counters, in that order, before the log is drained
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if(recorder != null) recorder.close(); // the trace is buffered
+			if(mailboxes != null) mailboxes.close(closeLingerMillis); // mail still queued for the disk
+			reportCounters();
+			log.close(closeLingerMillis); // what is still in the ring
+		}));
+		for(CommandPlugin plugin : ServiceLoader.load(CommandPlugin.class)) { // an operator's commands, from the class path
+			plugin.register(commands);
+			log.info("Commands added by " + plugin.getClass().getName());
+		}
+		timers.start();
+		if(history != null) history.recover(); // rooms' history from the log of the last run
+		if(!config.mailboxDirectory.isEmpty()) {
+			mailboxes = new MailboxStore(Paths.get(config.mailboxDirectory), config.mailboxBytes, 
+				TimeUnit.HOURS.toMillis(config.mailboxExpiryHours), config.mailboxCount, 
+				name -> sessions.get(name) != null || (federation != null && federation.isRemote(name)), log);
+			mailboxes.start();
+		}
+		if(config.searchSegments > 0) {
+			search = new SearchIndex(config.searchQueueCapacity, TimeUnit.MINUTES.toMillis(config.searchSegmentMinutes), config.searchSegments);
+			search.start();
+		}
+		if(!config.tracePath.isEmpty()) {
+			recorder = new TrafficRecorder(Paths.get(config.tracePath), log);
+		}
+		if(config.federationPort > 0 || !config.peers.isEmpty()) {
+			federation = new Federation(this, sessions, config);
+			federation.start();
+		}
 		
-		System.out.println("Echo server at "
-			+ InetAddress.getLocalHost()+ " is waiting for connections ..." );
+		listener = new Listener(config, log, metrics, this::dispatch);
+		listener.bind();
 		
-		Socket socket;
-		Thread thread;
+		if(config.mode == ServerConfig.SessionMode.NIO) {
+			eventLoops = new EventLoop[config.eventLoops];
+			for(int i = 0; i < eventLoops.length; i++) {
+				eventLoops[i] = new EventLoop(this, i);
+				eventLoops[i].start();
+			}
+		}
+		else if(config.mode == ServerConfig.SessionMode.VIRTUAL) {
+			sessionExecutor = VirtualThreads.newPerTaskExecutor(); // checked by ServerConfig.parse()
+		}
 		
 		try {
-			while(true) {
-				socket = ss.accept(); // listen and accept connection from client
-				thread = new Thread(new HandleSession(socket));
-				thread.start();
-			}
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("chat:type=Server,port=" + portNumber));
+		}
+		catch (JMException e) { // carry on without JMX
+			log.error("Exception registering metrics MBean: " + e);
+		}
+		
+		log.info("Echo server at "
+			+ InetAddress.getLocalHost()+ " is waiting for connections (" + config.mode + " mode) ..." );
+		log.info("Listening on " + listener.addresses());
+		sampleAccepts();
+		
+		try {
+			listener.start(); // listen and accept connections from clients
+			listener.await();
 		} 
 		catch (Exception e)  {
-			System.out.println(e.getMessage());
+			log.info(e.getMessage());
 		}
 		finally {
 			shutDown(); 
 		}
 	}
 	
+	/**
+	 * Logs the counters kept while the server ran, on the way out. 
+	 */
+	private void reportCounters() {
+		
+		if(listener != null) {
+			log.info("Accepted: " + metrics.getConnectionsAccepted() + " connections, peak " 
+				+ Math.round(metrics.getPeakAcceptsPerSecond()) + "/s, by acceptor " + listener);
+		}
+		log.info("Writes to clients: " + writeStats);
+		if(compressionStats.bytesIn() > 0) log.info("Compression: " + compressionStats);
+		if(federation != null) log.info("Writes to peers: " + federation.writeStats);
+		if(search != null) log.info("Search index: " + search.indexed() + " messages, " + search.dropped() + " left out");
+	}
+	
+	/**
+	 * Works out the accept rate once a second on the timing wheel, so a burst of connections shows in its peak. 
+	 */
+	private void sampleAccepts() {
+		metrics.sampleAccepts();
+		timers.schedule(TimeUnit.SECONDS.toMillis(1), this::sampleAccepts);
+	}
+	
+	/**
+	 * Hands an accepted connection to its session, 
+	 * a new thread running {@link HandleSession}, a virtual thread doing the same, 
+	 * or the next event loop in turn, called by every acceptor of the {@link Listener}. 
+	 * @param channel connection accepted from a client
+	 * @throws IOException if the event loop could not take the connection
+	 */
+	private void dispatch(SocketChannel channel) throws IOException {
+		
+		keepAlive(channel);
+		if(eventLoops != null) {
+			eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)].register(channel);
+		}
+		else {
+			startThread(new HandleSession(channel.socket()));
+		}
+	}
+	
+	/**
+	 * Has TCP probe a connection once it has been quiet for the idle timeout, 
+	 * which is all that watches clients too old to answer pings once they have signed in, 
+	 * the probes spread over the read timeout so a dead client is found about as soon as one that answers pings. 
+	 * Where the timings cannot be set the system's keepalive, or none, is left. 
+	 * @param channel connection accepted from a client
+	 */
+	private void keepAlive(SocketChannel channel) {
+		
+		if(config.idleTimeoutSeconds == 0) return;
+		
+		try {
+			channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			channel.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, config.idleTimeoutSeconds);
+			channel.setOption(ExtendedSocketOptions.TCP_KEEPINTERVAL, Math.max(1, config.readTimeoutSeconds / KEEPALIVE_PROBES));
+			channel.setOption(ExtendedSocketOptions.TCP_KEEPCOUNT, KEEPALIVE_PROBES);
+		}
+		catch (IOException | UnsupportedOperationException e) { // not on this platform
+		}
+	}
+	
+	/**
+	 * Runs a task on a thread of its own, 
+	 * a virtual thread in {@link ServerConfig.SessionMode#VIRTUAL} and a platform thread otherwise. 
+	 * @param task session or writer to run
+	 */
+	void startThread(Runnable task) {
+		
+		if(sessionExecutor != null) {
+			sessionExecutor.execute(task);
+		} else {
+			Thread thread = new Thread(task);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Creates the bounded queue for one client's output, with the configured overflow policy. 
+	 * @param onReady run after output is queued, may be null
+	 * @param onOverflow run when the client must be disconnected
+	 * @return new queue
+	 */
+	OutboundQueue newOutboundQueue(Runnable onReady, Runnable onOverflow) {
+		return new OutboundQueue(config.queueCapacity, config.overflowPolicy, config.blockTimeoutMillis, onReady, onOverflow, 
+			writeStats);
+	}
+	
+	/**
+	 * Bytes of output after which an event loop writes it at once rather than at the end of its pass. 
+	 * @return flush threshold in bytes
+	 */
+	long flushBytes() {
+		return config.flushBytes;
+	}
+	
 	/**
 	 * Closes socket and shuts down server. 
 	 */
 	public void shutDown() {
 		
 		try { 
-			ss.close(); 
-			System.out.println("The server is shut down.");	
+			if(eventLoops != null) {
+				for(EventLoop loop : eventLoops) loop.shutDown();
+			}
+			if(sessionExecutor != null) sessionExecutor.shutdown();
+			if(federation != null) federation.shutDown();
+			timers.stop();
+			listener.close(); 
+			log.info("The server is shut down.");	
 		} 
 		catch (Exception e) {
-			System.err.println("Problem shutting down the server.");
-			System.err.println(e.getMessage());
+			log.error("Problem shutting down the server.");
+			log.error(e.getMessage());
+		}
+	}
+
+	/**
+	 * Whether a name could be a username, 1-19 characters. 
+	 * @param name name to check, may be null
+	 * @return true if a client could sign in with it
+	 */
+	static boolean isValidUsername(String name) {
+		return name != null && !name.isEmpty() && name.length() < 20;
+	}
+	
+	/**
+	 * Records that a client has signed in, here or on a peer, so their mailbox takes mail from now on. 
+	 * @param name username of the client
+	 */
+	void userSeen(String name) {
+		if(mailboxes != null) mailboxes.addUser(name);
+	}
+	
+	/**
+	 * Usernames of every client signed in, here and on other nodes, for the roster. 
+	 * @return usernames, unsorted
+	 */
+	private Collection<String> rosterNames() {
+		
+		List<String> names = new ArrayList<String>(sessions.names());
+		
+		if(federation != null) names.addAll(federation.remoteNames()); // signed in to other nodes
+		return names;
+	}
+	
+	/**
+	 * Fans out a message a peer relayed to the members of the same room here, 
+	 * recording it in the room's history like a message broadcast on this node. 
+	 * @param roomName room the message was broadcast to
+	 * @param sender username of the sender, signed in to the peer
+	 * @param message message broadcast
+	 */
+	void deliverRelayedBroadcast(String roomName, String sender, String message) {
+		
+		byte[] time = clock.timeBytes();
+		byte[] prefix = (" " + sender + ": ").getBytes(WireFormat.CHARSET);
+		byte[] text = message.getBytes(WireFormat.CHARSET);
+		Room room = rooms.get(roomName);
+		boolean isDirect = room != null && room.size() >= WireFormat.DIRECT_FANOUT;
+		WireMessage line = history != null ? history.record(roomName, sender, isDirect, time, prefix, text) 
+			: WireFormat.line(isDirect, time, prefix, text);
+		
+		if(room != null) room.forEachMember(config.parallelFanout, session -> session.outbound.offer(line));
+		if(search != null) search.addBroadcast(sender, message, clock.time() + " [" + roomName + "] " + sender + ": " + message);
+		log.broadcast(roomName, sender, message); //server's screen
+	}
+	
+	/**
+	 * Hands a private message a peer relayed to its recipient here, 
+	 * or to their mailbox if they are away from keyboard, have a held session or have signed out since. 
+	 * @param sender username of the sender, signed in to the peer
+	 * @param recipient username of the recipient
+	 * @param message private message
+	 */
+	void deliverRelayedPrivate(String sender, String recipient, String message) {
+		
+		String line = clock.time() + " " + "(private)" + sender + ": " + message;
+		MailboxStore.Outcome outcome = mailboxes == null ? MailboxStore.Outcome.PRESENT 
+			: mailboxes.store(recipient, line, () -> isAway(recipient));
+		HandleSession recipientSession = sessions.get(recipient);
+		
+		if(search != null && (outcome == MailboxStore.Outcome.STORED || outcome == MailboxStore.Outcome.PRESENT)) {
+			search.addPrivate(sender, recipient, message, line);
 		}
+		if (outcome == MailboxStore.Outcome.PRESENT && recipientSession != null) {
+			log.privateMessage(sender, recipient, message); // as for a private message sent on this node
+			recipientSession.out.println(line);
+			recipientSession.out.flush();
+		}
+	}
+	
+	/**
+	 * Whether a client would miss a private message sent now, from this node or relayed from a peer. 
+	 * @param user username of the client
+	 * @return true if they are not signed in here, are away from keyboard or have a held session
+	 */
+	private boolean isAway(String user) {
+		HandleSession session = sessions.get(user); // looked up once, it may sign out meanwhile
+		return session == null || session.isAFK || session.isHeld;
+	}
+	
+	/**
+	 * Signs a client out of this node, telling them why, 
+	 * when a peer has given the same username to a client of its own. 
+	 * @param name username of the client
+	 * @param notice line sent to the client before it is signed out
+	 */
+	void evict(String name, String notice) {
+		HandleSession session = sessions.get(name);
+		if (session != null) session.evict(notice);
 	}
 
 	/**
@@ -145,7 +626,7 @@ public class Server {
 	 * @version 1.0
 	 * @since 2017-12-09
 	 */
-	class HandleSession implements Runnable {
+	class HandleSession implements Runnable, CommandSession {
 		
 		/**
 		 * Endpoint of the server for the two-way communication link with the client. 
@@ -158,9 +639,9 @@ public class Server {
 		String name;
 		
 		/**
-		 * Read text from character-input stream from client. 
+		 * Reads lines and frames from the client, borrowing a buffer only while they are in flight. 
 		 */
-		BufferedReader in = null;
+		PooledReader in = null;
 		
 		/**
 		 * Prints to client text output stream. 
@@ -168,311 +649,1056 @@ public class Server {
 		PrintWriter out = null;
 		
 		/**
-		 * To display time for each message. 
+		 * Output waiting to be written to the client, everything printed to out ends up here. 
 		 */
-		private SimpleDateFormat sdf;
+		OutboundQueue outbound = null;
 		
 		/**
-		 * Constructor method for {@link Server.HandleSession}. 
-		 * @param socket client end-point of communication
+		 * Writer draining the queue on a thread of its own, null when an event loop drains it. 
 		 */
-		HandleSession(Socket socket) {
-			this.socket = socket;
-			sdf = new SimpleDateFormat("HH:mm:ss"); // format to display time
-		}
-
+		private SocketWriter writer = null;
+		
 		/**
-		 * Runs all the methods for each client session, 
-		 * creates the stream between server and client, 
-		 * gets client's username,
-		 * listens for messages from the client, 
-		 * closes that client's connection if there is an error or 
-		 * client logs out. 
+		 * Writes out what is queued before the socket is closed, when an event loop drains the queue. 
 		 */
-		public void run() {
-			try {
-				createStreams();
-				getClientUserName();
-				listenForClientMessages();
-			} 
-			catch (IOException e) {
-				System.out.println(e);
-			}
-			finally { // executes when try block exits, even for exceptions
-				closeConnection();
-			}
-		} // end of run() in the class HandleSession
-	
+		private Runnable flushOnClose = null;
+		
 		/**
-		 * Method to establish connections to clients 
-		 * instance in of BufferedReader to be used for receiving messages from clients 
-		 * and out instance of PrintWriter to send messages to clients. 
+		 * Encoded " name: " put between the time and the text of this client's broadcasts, set at sign in. 
 		 */
-		private void createStreams() {
-			
-			try {
-				in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()));
-				// have this in a for loop for all clientWriters
-				clientWriters.add(out); // add to a HashSet
-				System.out.println("Connection has been established");
-				numClients++; // Increment number of clients to display on command
-			} 
-			catch (IOException e) {
-				System.err.println("Exception in createStreams(): " + e);
-			}		
-		} // end of createStreams() in the class HandleSession
-
+		private byte[] namePrefix;
+		
 		/**
-		 * Infinite loop to add Clients to hash set, 
-		 * when username entered which is valid and does not already exist 
-		 * will break out of loop, synchronised to protect against more than one user 
-		 * choosing the same username at the same time.  
+		 * Time the client signed in, for getting the clienttime. 
 		 */
-		private synchronized void getClientUserName() {
-			
-			while(true) {
-				out.println(welcome); 
-				out.flush(); // from server
-				
-				try { 
-					name = in.readLine(); 
-				} catch (IOException e) { // first input
-					System.err.println("Exception in getClientUserName: " + e);
-				}			
-				
-				if (name == null) return; // no response
-				
-				// Better idea would be to import string utils package from apache commons to 
-				// check for all-whitespace usernames but we are only allowed to use the java packages for this assignment
-				synchronized(clientNames) {
-					if (!clientNames.contains(name)) { // makes sure name is not already taken
-						// makes sure name is not an empty string or null and between 1-19 characters
-						if(name != null && !name.isEmpty() && name.length() < 20) { 
-							clientNames.add(name); // new username
-							clientWriterMap.put(name, out); // assign name key to printwriter for that client
-							break; // from the while loop reading lines
-						}
-					}
-				}
-				out.println("Sorry, this username is unavailable"); 
-				out.flush();
-				// continue the loop
-			}
-			out.println(accepted + "Please type messages."); 
-			out.flush(); // otherwise the client may not see the message
-			System.out.println(name + " has entered the chat.");
-			clientTimeMap.put(name, System.currentTimeMillis());
-		}	// end of getClientUserName() in the class HandleSession
+		private long loginTime;
 		
 		/**
-		 * Method to handle messages from client, 
-		 * if client types '\quit' will log out, 
-		 * if client types anything else starting with '\',
-		 * will see array of commands,  
-		 * else it will broadcast message. 
-		 * @throws IOException simply terminate running server if input or output exception occured
+		 * Away status of the client, for the afk and back commands and private messages. 
 		 */
-		private void listenForClientMessages() throws IOException {
-			
-			String line; // input from a remote client
-			
-			while(in != null) {
-				
-				line = in.readLine(); // from the client
-				
-				if((line == null) || (line.equals("\\quit"))) break; // no response
-				
-				if(line.startsWith("\\")) { //a command returns false only if client quits
-					if (!processClientRequest(line)) return;
-				}
-				
-				// Private messaging
-				if(line.startsWith("@")) {
-					try {
-						String[] lineArray = line.split(" ", 2); // split line in two at the first space
-						String recipient = lineArray[0].substring(1); // recipient name is the first part of the line minus the @ symbol
-						String message = lineArray[1]; // message is the rest of the line
-				    	privateMessage(message, recipient);
-					} catch (ArrayIndexOutOfBoundsException e) {
-						System.err.println("Invalid private messaging request");
-						System.err.println(e.getMessage());
-					}
-				}
+		volatile boolean isAFK = false;
+		
+		/**
+		 * Whether the client asked to be sent presence changes, in batches, rather than a line for each away and back. 
+		 */
+		volatile boolean isPresenceSubscribed = false;
+		
+		/**
+		 * Room the client's messages are broadcast to, the lobby once signed in. 
+		 */
+		private volatile Room room;
+		
+		/**
+		 * Rate limits on what the client sends. 
+		 */
+		private final InboundLimits limits = new InboundLimits(config, globalMessages, globalBytes);
+		
+		/**
+		 * Nanoseconds the session should stop reading for to bring the client back within its limits. 
+		 */
+		private long inboundPause = 0;
+		
+		/**
+		 * Time the client was last told a message was dropped for going over its limits, by {@link System#nanoTime()}. 
+		 */
+		private long lastLimitNotice;
+		
+		/**
+		 * Set when a peer took the client's username, so their sign out is not broadcast. 
+		 */
+		private volatile boolean isEvicted = false;
+		
+		/**
+		 * Number of the session in the traffic trace, given at sign in. 
+		 */
+		private int traceSession;
+		
+		/**
+		 * Set when the client asks for frames before giving its username. 
+		 */
+		private boolean isFramesRequested = false;
+		
+		/**
+		 * Set when the client asks for compression before giving its username. 
+		 */
+		private boolean isCompressionRequested = false;
+		
+		/**
+		 * True once the client has switched from lines to {@link Frame frames}, in both directions. 
+		 */
+		boolean isFramed = false;
+		
+		/**
+		 * Set when the client asks to be able to resume its session before giving its username. 
+		 */
+		private boolean isResumeRequested = false;
+		
+		/**
+		 * Token the client resumes the session with, null for a client that cannot. 
+		 */
+		private String resumeToken = null;
+		
+		/**
+		 * Set when the client signs out itself, so the session is not held for it. 
+		 */
+		private volatile boolean hasQuit = false;
+		
+		/**
+		 * Set while the connection has gone and the session waits for the client to resume it, guarded by resumeLock. 
+		 */
+		private volatile boolean isHeld = false;
+		
+		/**
+		 * Set once a new connection has carried on the session, guarded by resumeLock. 
+		 */
+		private boolean isTakenOver = false;
+		
+		/**
+		 * Set when the client asks to be pinged before giving its username. 
+		 */
+		private boolean isHeartbeatRequested = false;
+		
+		/**
+		 * Watches for the client going quiet, against the login timeout until it signs in and the heartbeat timeouts after, 
+		 * null when neither applies. 
+		 */
+		private volatile Heartbeat heartbeat = null;
+		
+		/**
+		 * Constructor method for {@link Server.HandleSession}. 
+		 * @param socket client end-point of communication
+		 */
+		HandleSession(Socket socket) {
+			this.socket = socket;
+		}
+		
+		/**
+		 * Constructor method for a session driven by an {@link EventLoop}, 
+		 * which feeds it lines instead of the session reading them itself 
+		 * and writes out whatever the session queues. 
+		 * @param socket client end-point of communication
+		 * @param outbound queue the event loop drains
+		 * @param flushOnClose writes out what is queued, run before the socket is closed
+		 */
+		HandleSession(Socket socket, OutboundQueue outbound, Runnable flushOnClose) {
+			this(socket);
+			this.outbound = outbound;
+			this.flushOnClose = flushOnClose;
+			out = new PrintWriter(new QueueWriter(outbound));
+		}
+
+		/**
+		 * Runs all the methods for each client session, 
+		 * creates the stream between server and client, 
+		 * gets client's username,
+		 * listens for messages from the client, 
+		 * closes that client's connection if there is an error or 
+		 * client logs out. 
+		 */
+		public void run() {
+			try {
+				createStreams();
+				getClientUserName();
+				listenForClientMessages();
+			} 
+			catch (IOException e) {
+				log.info(e.toString());
+			}
+			finally { // executes when try block exits, even for exceptions
+				closeConnection();
+			}
+		} // end of run() in the class HandleSession
+	
+		/**
+		 * Method to establish connections to clients 
+		 * instance in of PooledReader to be used for receiving messages from clients 
+		 * and out instance of PrintWriter to send messages to clients, 
+		 * which queues them for a writer thread so a slow client never holds up whoever is sending to it. 
+		 */
+		private void createStreams() {
+			in = new PooledReader(socket.getChannel(), buffers, metrics);
+			outbound = newOutboundQueue(null, this::disconnect);
+			out = new PrintWriter(new QueueWriter(outbound));
+			writer = new SocketWriter(socket.getChannel(), outbound, config.flushBytes, config.flushDelayMicros, writeStats, log);
+			startThread(writer);
+			registerConnection();
+		} // end of createStreams() in the class HandleSession
+		
+		/**
+		 * Counts the new client, 
+		 * who receives broadcasts once signed in by {@link HandleSession#offerUserName(String)}. 
+		 */
+		void registerConnection() {
+			log.info("Connection has been established");
+			numClients.incrementAndGet(); // Increment number of clients to display on command
+			if(config.loginTimeoutSeconds > 0) { // until signed in every client has to be heard from, nobody is pinged yet
+				heartbeat = new Heartbeat(timers, TimeUnit.SECONDS.toMillis(config.loginTimeoutSeconds), 0, this::ping, this::reap);
+				heartbeat.start();
+			}
+		}
+		
+		/**
+		 * Notes that something has been read from the client, for its heartbeat. 
+		 */
+		void heard() {
+			if(heartbeat != null) heartbeat.heard();
+		}
+		
+		/**
+		 * Pings a quiet client that asked for it, once signed in, on the timing wheel's thread. 
+		 * A client whose queue is full is not sent one, it has more than enough to read already, 
+		 * and is closed like any other if it still sends nothing. 
+		 */
+		private void ping() {
+			if(name != null && isHeartbeatRequested) outbound.tryOffer(PING);
+		}
+		
+		/**
+		 * Closes the connection of a client that has not been heard from for the idle and read timeouts, 
+		 * or the login timeout before signing in, on the timing wheel's thread, 
+		 * the session ends through {@link HandleSession#closeConnection()} as if the client had gone, so one that can resume is held. 
+		 */
+		private void reap() {
+			metrics.connectionReaped();
+			log.info((name != null ? name : "A client signing in") + " has not been heard from for " 
+				+ (name != null ? config.idleTimeoutSeconds + config.readTimeoutSeconds : config.loginTimeoutSeconds) 
+				+ " seconds, closing the connection");
+			shut();
+		}
+		
+		/**
+		 * Answers a ping from the client, a pong needs no answer. 
+		 * @param line {@link Heartbeat#PING} or {@link Heartbeat#PONG}
+		 */
+		private void answerHeartbeat(String line) {
+			if(Heartbeat.PING.equals(line)) {
+				out.println(Heartbeat.PONG);
+				out.flush();
+			}
+		}
+		
+		/**
+		 * Swaps the login watch for a heartbeat once the client has signed in, if it asked to be pinged, 
+		 * a client that cannot be pinged is left to TCP keepalive, a quiet client is only a quiet user. 
+		 */
+		private void watchSignedIn() {
+			
+			Heartbeat login = heartbeat;
+			
+			if(login != null) login.stop();
+			heartbeat = null;
+			if(config.idleTimeoutSeconds > 0 && isHeartbeatRequested) {
+				Heartbeat signedIn = new Heartbeat(timers, TimeUnit.SECONDS.toMillis(config.idleTimeoutSeconds), 
+					TimeUnit.SECONDS.toMillis(config.readTimeoutSeconds), this::ping, this::reap);
+				heartbeat = signedIn;
+				signedIn.start();
+			}
+		}
+
+		/**
+		 * Infinite loop to add Clients to hash set, 
+		 * when username entered which is valid and does not already exist 
+		 * will break out of loop. 
+		 * Not synchronised, holding a monitor while blocked in readLine() would pin a virtual thread 
+		 * to its carrier, {@link HandleSession#offerUserName(String)} claims the name atomically instead.  
+		 */
+		private void getClientUserName() {
+			
+			promptUserName();
+			
+			while(true) {
+				String candidate = null;
+				
+				try { 
+					candidate = in.readLine(); 
+				} catch (IOException e) { // first input
+					log.error("Exception in getClientUserName: " + e);
+				}			
+				
+				if (candidate == null) return; // no response
+				heard();
 				
-				else if (!line.startsWith("\\") && !line.isEmpty()){ // Don't broadcast when a user types a command or when they don't input any text
-					broadcast(line);
+				if (offerUserName(candidate)) break; // from the while loop reading lines
+			}
+		}	// end of getClientUserName() in the class HandleSession
+		
+		/**
+		 * Asks the client to type their username, 
+		 * offering frames, compression and resuming to clients that understand them, older clients only look at the start of the line. 
+		 */
+		void promptUserName() {
+			out.println(welcome + " " + Frame.OFFER + (config.compression ? " " + BlockCompressor.OFFER : "") 
+				+ (config.resumeGraceSeconds > 0 ? " " + ReplayBuffer.OFFER : "") 
+				+ (config.idleTimeoutSeconds > 0 ? " " + Heartbeat.OFFER : "")); 
+			out.flush(); // from server
+		}
+		
+		/**
+		 * Takes the username typed by the client if it is valid and not already taken, 
+		 * otherwise apologises and prompts for another. 
+		 * A client asking for frames sends {@link Frame#REQUEST} first, one asking for compression {@link BlockCompressor#REQUEST}, 
+		 * one asking to be able to resume {@link ReplayBuffer#REQUEST}, and one asking to be pinged {@link Heartbeat#REQUEST}, 
+		 * which are remembered without a reply. 
+		 * A reconnecting client sends {@link ReplayBuffer#RESUME} instead of its username, see {@link HandleSession#resumeSession(String)}. 
+		 * @param candidate username typed by the client
+		 * @return true if the client is now signed in under that name
+		 */
+		boolean offerUserName(String candidate) {
+			
+			boolean isAccepted = false;
+			
+			if(Frame.REQUEST.equals(candidate)) {
+				isFramesRequested = true;
+				return false; // the username comes next
+			}
+			if(config.compression && BlockCompressor.REQUEST.equals(candidate)) {
+				isCompressionRequested = true;
+				return false; // the username comes next
+			}
+			if(config.resumeGraceSeconds > 0 && ReplayBuffer.REQUEST.equals(candidate)) {
+				isResumeRequested = true;
+				return false; // the username comes next
+			}
+			if(config.idleTimeoutSeconds > 0 && Heartbeat.REQUEST.equals(candidate)) {
+				isHeartbeatRequested = true;
+				return false; // the username comes next
+			}
+			if(Heartbeat.isHeartbeat(candidate)) { // never a username
+				answerHeartbeat(candidate);
+				return false;
+			}
+			if(config.resumeGraceSeconds > 0 && candidate != null && candidate.startsWith(ReplayBuffer.RESUME)) {
+				return resumeSession(candidate);
+			}
+			
+			// Better idea would be to import string utils package from apache commons to 
+			// check for all-whitespace usernames but we are only allowed to use the java packages for this assignment
+			// makes sure name is not an empty string or null and between 1-19 characters
+			if(isValidUsername(candidate)) { 
+				namePrefix = (" " + candidate + ": ").getBytes(WireFormat.CHARSET);
+				loginTime = System.currentTimeMillis();
+				// registering is atomic, so only one of two users 
+				// choosing the same username at the same time gets it, without taking a lock
+				if ((federation == null || !federation.isRemote(candidate)) // nor taken on another node
+						&& sessions.register(candidate, this)) { // makes sure name is not already taken
+					name = candidate;
+					isAccepted = true;
+					if(recorder != null) traceSession = recorder.login(name);
+					if(federation != null) federation.joined(name);
+					presence.changed(Presence.JOINED, name);
 				}
 			}
+			
+			if (!isAccepted) {
+				out.println("Sorry, this username is unavailable"); 
+				out.flush();
+				promptUserName(); // continue the loop
+				return false;
+			}
+			room = rooms.join(RoomDirectory.LOBBY, this);
+			// the last line before frames or blocks, queued and switched together so no broadcast slips in between
+			byte[] line = (accepted + "Please type messages." + System.lineSeparator()).getBytes(WireFormat.CHARSET);
+			BlockCompressor compressor = isCompressionRequested 
+				? new BlockCompressor(config.compressionLevel, config.compressionThreshold, compressionStats, buffers) : null;
+			ReplayBuffer replay = isResumeRequested ? new ReplayBuffer(config.resumeBufferMessages) : null;
+			outbound.offer(new WireMessage(ByteBuffer.wrap(line).asReadOnlyBuffer()), isFramesRequested, compressor, replay);
+			isFramed = isFramesRequested;
+			if(replay != null) { // numbered like any other line, the client counts it too
+				resumeToken = HexFormat.of().formatHex(newToken());
+				resumable.put(resumeToken, this);
+				out.println(ReplayBuffer.TOKEN + resumeToken);
+				out.flush();
+			}
+			watchSignedIn();
+			replayHistory();
+			userSeen(name);
+			deliverMail(); // private messages sent while signed out
+			log.info(name + " has entered the chat.");
+			return true;
+		} // end of offerUserName() in the class HandleSession
+		
+		/**
+		 * Carries on a session on this connection, for a client that reconnected with its token and the number of lines it has read. 
+		 * The session may be held since its connection dropped, or its connection may not have been seen to drop yet, 
+		 * in which case it is shut so only this one carries on. 
+		 * This session takes over the username, room and status, and the old queue's record of what was sent, 
+		 * so the client is sent only the lines it missed, and anything still offered to the old session comes here. 
+		 * A client whose session has expired, or was never known, is told so and asked for a username. 
+		 * @param request line sent by the client, {@link ReplayBuffer#RESUME} followed by the token and the lines read
+		 * @return true if the session now carries on here
+		 */
+		private boolean resumeSession(String request) {
+			
+			String[] parts = request.split(" ");
+			HandleSession previous = parts.length == 3 ? resumable.get(parts[1]) : null;
+			long linesRead = -1;
+			boolean wasHeld = false;
+			
+			try {
+				if(previous != null) linesRead = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				previous = null;
+			}
+			
+			resumeLock.lock();
+			try {
+				if(previous != null && !previous.isTakenOver && linesRead >= 0) {
+					previous.isTakenOver = true;
+					wasHeld = previous.isHeld;
+					previous.isHeld = false;
+				}
+				else previous = null;
+			} finally {
+				resumeLock.unlock();
+			}
+			
+			if(previous == null) {
+				out.println(ReplayBuffer.EXPIRED);
+				out.flush();
+				promptUserName(); // continue the loop
+				return false;
+			}
+			
+			name = previous.name;
+			namePrefix = previous.namePrefix;
+			loginTime = previous.loginTime;
+			isAFK = previous.isAFK;
+			isPresenceSubscribed = previous.isPresenceSubscribed;
+			traceSession = previous.traceSession;
+			resumeToken = previous.resumeToken;
+			BlockCompressor compressor = isCompressionRequested 
+				? new BlockCompressor(config.compressionLevel, config.compressionThreshold, compressionStats, buffers) : null;
+			long line = outbound.resumeFrom(previous.outbound, linesRead, isFramesRequested, compressor);
+			isFramed = isFramesRequested;
+			sessions.replace(name, previous, this);
+			room = rooms.join(previous.room.name(), this); // joined before the old session leaves, so the room is never empty
+			rooms.leave(previous.room, previous);
+			resumable.put(resumeToken, this);
+			if(isPresenceSubscribed) { // the old queue records what it is sent, this one is now sent it
+				presence.unsubscribe(previous.outbound);
+				presence.subscribe(outbound);
+			}
+			if(!wasHeld) previous.shut();
+			watchSignedIn();
+			deliverMail(); // private messages sent while held
+			log.info(name + " has resumed their session" 
+				+ (line > linesRead ? ", " + (line - linesRead) + " lines were no longer held" : ""));
+			return true;
+		} // end of resumeSession() in the class HandleSession
+		
+		/**
+		 * New resume token, random enough that nobody can guess another client's. 
+		 * @return 16 random bytes
+		 */
+		private byte[] newToken() {
+			byte[] token = new byte[16];
+			tokenSource.nextBytes(token);
+			return token;
+		}
+		
+		/**
+		 * Method to read messages from client until they log out, 
+		 * each line is handled by {@link HandleSession#processClientMessage(String)}, 
+		 * or each frame by {@link HandleSession#processClientFrame(Frame)} once the client has switched to frames. 
+		 * @throws IOException simply terminate running server if input or output exception occured
+		 */
+		private void listenForClientMessages() throws IOException {
+			
+			String line; // input from a remote client
+			
+			if(isFramed) { // anything read ahead of the accepted line is still in the reader's buffer
+				Frame frame;
+				while((frame = in.readFrame()) != null && processClientFrame(frame)) {
+					heard();
+					pauseReading();
+				}
+				return;
+			}
+			
+			while(in != null) {
+				
+				line = in.readLine(); // from the client
+				
+				if (!processClientMessage(line)) break;
+				heard();
+				pauseReading();
+			}
 		} // end of listenForClientMessages() in the class HandleSession
 		
 		/**
-		 * Removes connections with clients.
+		 * Method to handle a message from client, 
+		 * a ping from the client is answered, 
+		 * if client types anything starting with '\', '\quit' among them, 
+		 * the command is run from {@link Server#commands}, 
+		 * else it will broadcast message. 
+		 * @param line message typed by the client, null if they disconnected
+		 * @return false once the client has logged out
+		 * @throws IOException simply terminate running server if input or output exception occured
+		 */
+		boolean processClientMessage(String line) throws IOException {
+			
+			if(Heartbeat.isHeartbeat(line)) { // kept out of the trace, the limits and the metrics
+				answerHeartbeat(line);
+				return true;
+			}
+			if(recorder != null && line != null) recorder.line(traceSession, line); // as typed, before anything acts on it
+			
+			if(line == null) return false; // no response
+			
+			long receivedNanos = System.nanoTime(); // fan-out latency counts from here
+			metrics.messageIn();
+			boolean isQuit = line.equals("\\quit"); // signing out is never held back, as for a QUIT frame
+			if(!isQuit && !admit(InboundLimits.kindOf(line), line.length() + 1, receivedNanos)) return true; // dropped, over the limits
+			
+			if(line.startsWith("\\")) { //a command returns false only if client quits
+				if (!processClientRequest(line)) return false;
+			}
+			
+			// Private messaging
+			if(line.startsWith("@")) {
+				try {
+					String[] lineArray = line.split(" ", 2); // split line in two at the first space
+					String recipient = lineArray[0].substring(1); // recipient name is the first part of the line minus the @ symbol
+					String message = lineArray[1]; // message is the rest of the line
+			    	privateMessage(message, recipient);
+				} catch (ArrayIndexOutOfBoundsException e) {
+					log.error("Invalid private messaging request");
+					log.error(e.getMessage());
+				}
+			}
+			
+			else if (!line.startsWith("\\") && !line.isEmpty()){ // Don't broadcast when a user types a command or when they don't input any text
+				broadcast(line, receivedNanos);
+			}
+			return true;
+		} // end of processClientMessage() in the class HandleSession
+		
+		/**
+		 * Method to handle a frame from client, 
+		 * the type byte says what it is so there is no text to look through. 
+		 * @param frame frame sent by the client, null if they disconnected
+		 * @return false once the client has logged out
+		 * @throws IOException simply terminate running server if input or output exception occured
+		 */
+		boolean processClientFrame(Frame frame) throws IOException {
+			
+			if(frame == null) return false; // no response
+			if(frame.type == Frame.COMMAND && Heartbeat.isHeartbeat(frame.payload)) {
+				answerHeartbeat(frame.payload);
+				return true;
+			}
+			
+			if(recorder != null && frame.toLine() != null) recorder.line(traceSession, frame.toLine());
+			long receivedNanos = System.nanoTime(); // fan-out latency counts from here
+			metrics.messageIn();
+			int kind = frame.type == Frame.COMMAND ? InboundLimits.COMMAND 
+				: frame.type == Frame.PRIVATE ? InboundLimits.PRIVATE : InboundLimits.BROADCAST;
+			int size = Frame.HEADER_LENGTH + frame.target.length() + frame.payload.length();
+			if(frame.type != Frame.QUIT && !admit(kind, size, receivedNanos)) return true; // dropped, over the limits
+			
+			switch(frame.type) {
+				case Frame.MESSAGE:
+					if(!frame.payload.isEmpty()) broadcast(frame.payload, receivedNanos);
+					return true;
+				case Frame.PRIVATE:
+					privateMessage(frame.payload, frame.target);
+					return true;
+				case Frame.COMMAND:
+					return processClientRequest(frame.payload);
+				case Frame.QUIT:
+					return processClientRequest(frame.toLine()); // the registered \quit
+				default:
+					log.error("Unknown frame type " + frame.type + " from " + name);
+					return true;
+			}
+		} // end of processClientFrame() in the class HandleSession
+		
+		/**
+		 * Charges a message to the client's limits, 
+		 * remembering how long to stop reading when shaping, or telling the client, at most once a second, when its message is dropped. 
+		 * @param kind kind of message, one of the {@link InboundLimits} kinds
+		 * @param size size of the message in bytes
+		 * @param now time the message was read, by {@link System#nanoTime()}
+		 * @return false if the message must be dropped
+		 */
+		private boolean admit(int kind, int size, long now) {
+			
+			long pause = limits.take(kind, size, now);
+			
+			if(pause == InboundLimits.REJECTED) {
+				if(now - lastLimitNotice > TimeUnit.SECONDS.toNanos(1) || lastLimitNotice == 0) {
+					lastLimitNotice = now;
+					out.println("You are sending too fast, messages are being dropped");
+					out.flush();
+				}
+				return false;
+			}
+			inboundPause = Math.max(inboundPause, pause);
+			return true;
+		}
+		
+		/**
+		 * Whether the messages since the last {@link HandleSession#takeInboundPause()} have put the client over its limits. 
+		 * @return true if the session should stop reading
+		 */
+		boolean isOverLimits() {
+			return inboundPause > 0;
+		}
+		
+		/**
+		 * Takes the time the session should stop reading for, as worked out by the messages since the last call. 
+		 * @return pause in nanoseconds, 0 for none
+		 */
+		long takeInboundPause() {
+			long pause = inboundPause;
+			inboundPause = 0;
+			return pause;
+		}
+		
+		/**
+		 * Stops reading from the client until it is back within its limits, 
+		 * the unread data backs up in the socket until TCP stops the client sending. 
+		 */
+		private void pauseReading() {
+			
+			long pause = takeInboundPause();
+			
+			if(pause > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(pause);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		/**
+		 * Removes connections with clients, 
+		 * signing the client out unless its session is held for it to resume or has been taken over by a new connection. 
 		 */
 		void closeConnection() {
 			
-			if(name != null) {
-				broadcast(name + " has left the chat.");
-				clientNames.remove(name);
+			if(heartbeat != null) heartbeat.stop();
+			if(in != null) in.close(); // its buffer goes back to the pool
+			if(name != null && !hold()) signOut();
+			if (outbound != null) {
+				outbound.close(); // anything still queued, like the replies to the last commands, is written first
+				if (writer != null) outbound.awaitDrained(closeLingerMillis);
+				else if (flushOnClose != null) flushOnClose.run();
+				if (outbound.dropped() > 0) {
+					log.info(name + " missed " + outbound.dropped() + " messages, outbound queue peaked at " + outbound.peakDepth());
 				}
-				if (out != null) {
-				clientWriters.remove(out);
 			}
 			try { 
 				socket.close(); 
-				System.out.println("Connection has been closed.");
-				numClients--; // decrement number of clients to display on command
+				log.info("Connection has been closed.");
+				numClients.decrementAndGet(); // decrement number of clients to display on command
 			} 
 			catch (IOException e) {
-				System.err.println("Exception when closing the socket");						
-				System.err.println(e.getMessage());
+				log.error("Exception when closing the socket");						
+				log.error(e.getMessage());
 			}
 		} // end of closeConnection() in the class HandleSession
 		
 		/**
-		 * Send the message out to all the clients in the chat room and print to server console, 
-		 * synchronised to protect from interference from messages broadcasted at same time. 
+		 * Signs the client out, freeing its username and telling the room. 
+		 */
+		private void signOut() {
+			if(recorder != null) recorder.logout(traceSession);
+			if(!isEvicted) broadcast(name + " has left the chat."); // an evicted name is still in the chat elsewhere
+			rooms.leave(room, this);
+			sessions.unregister(name, this);
+			if(federation != null) federation.left(name);
+			presence.unsubscribe(outbound);
+			if(!isEvicted) presence.changed(Presence.LEFT, name); // the name stays in the roster
+			if(resumeToken != null) resumable.remove(resumeToken, this);
+		}
+		
+		/**
+		 * Decides, as the connection closes, whether the session outlives it. 
+		 * A client that can resume and did not sign out itself keeps its username, room and status for the grace period, 
+		 * everything sent to it meanwhile is recorded by its closed queue, 
+		 * and it is signed out once the period is over unless a new connection has taken the session over. 
+		 * @return true if the client is not to be signed out now
+		 */
+		private boolean hold() {
+			
+			resumeLock.lock();
+			try {
+				if(isTakenOver) return true; // carried on by a new connection
+				if(resumeToken == null || hasQuit || isEvicted) return false;
+				isHeld = true;
+			} finally {
+				resumeLock.unlock();
+			}
+			
+			timers.schedule(TimeUnit.SECONDS.toMillis(config.resumeGraceSeconds), () -> {
+				if(release()) startThread(this::signOut); // broadcasting may block, the wheel must not
+			});
+			log.info(name + " lost connection, the session is held for " + config.resumeGraceSeconds + " seconds");
+			return true;
+		}
+		
+		/**
+		 * Stops holding the session, when the grace period is over or its username is taken elsewhere. 
+		 * @return true if the session was held, and now has to be signed out
+		 */
+		private boolean release() {
+			
+			resumeLock.lock();
+			try {
+				if(!isHeld) return false; // taken over, or already released
+				isHeld = false;
+				resumable.remove(resumeToken, this); // no longer resumable
+				return true;
+			} finally {
+				resumeLock.unlock();
+			}
+		}
+		
+		/**
+		 * Closes the socket from another thread when the client cannot keep up with its output, 
+		 * the blocked read fails and the session ends through {@link HandleSession#closeConnection()}. 
+		 */
+		private void disconnect() {
+			try {
+				socket.close();
+			} 
+			catch (IOException e) {
+				log.error(e.getMessage());
+			}
+		}
+		
+		/**
+		 * Ends the session from another thread, after sending the client a last line, 
+		 * by shutting down the socket's input so the session's next read sees the client gone 
+		 * and signs it out as usual, or signing it out at once if it is held without a connection. 
+		 * @param notice line telling the client why
+		 */
+		void evict(String notice) {
+			isEvicted = true;
+			out.println(notice);
+			out.flush();
+			if(release()) signOut(); // held, there is no connection left to end
+			else shut();
+		}
+		
+		/**
+		 * Ends the connection from another thread by shutting down the socket's input, 
+		 * so the session's next read sees the client gone, whether a thread or an event loop reads it. 
+		 */
+		private void shut() {
+			try {
+				socket.shutdownInput();
+			} 
+			catch (IOException e) {
+				disconnect();
+			}
+		}
+		
+		/**
+		 * Send the message out to all the clients in the sender's room and print to server console. 
+		 * The line everybody else gets is recorded in the room's history first, which logs it and hands back the logged bytes to send. 
+		 * Only the room's members are visited, in parallel once the room is large enough. 
+		 * The line is encoded once for the sender and once for everybody else, 
+		 * each client's queue gets a duplicate of the shared buffer, a view with its own position, so nothing is copied per client, 
+		 * and clients using frames share one framed copy the same way. 
+		 * Each queued line is a whole message, so messages broadcast at the same time do not interleave, 
+		 * the method is not synchronised as blocking on a socket write inside a monitor pins a virtual thread. 
 		 * @param message message to be broadcast to all clients
 		 */
-		private synchronized void broadcast(String message) {
+		private void broadcast(String message) {
+			broadcast(message, 0);
+		}
+		
+		/**
+		 * Broadcasts a message read from the client, recording the time until the last member of the room has been written to. 
+		 * @param message message to be broadcast to all clients
+		 * @param receivedNanos time the message was read, by {@link System#nanoTime()}, 0 for messages the server makes up
+		 */
+		private void broadcast(String message, long receivedNanos) {
 			
-			for(PrintWriter writer : clientWriters) {
-				
-				if(writer != null) {
-
-					// Prints "You said to the console of the user who sent the message"
-					// And the user's name + "said:" to everybody else
-					if(writer == clientWriterMap.get(name)) {
-						String time = sdf.format(new Date());
-						writer = clientWriterMap.get(name);
-						writer.println(time + " You: " + message);
-					} else {
-						String time = sdf.format(new Date());
-						writer.println(time + " " + name + ": " + message);
-					}
-					
-					writer.flush();
-				}
+			byte[] time = clock.timeBytes();
+			byte[] text = message.getBytes(WireFormat.CHARSET);
+			
+			// "You:" to the console of the user who sent the message
+			// And the user's name + ":" to everybody else
+			WireMessage toSender = WireFormat.line(false, time, YOU, text);
+			Room current = room;
+			boolean isDirect = current.size() >= WireFormat.DIRECT_FANOUT;
+			WireMessage toOthers = history != null ? history.record(current.name(), name, isDirect, time, namePrefix, text) 
+				: WireFormat.line(isDirect, time, namePrefix, text); // logged lines are already direct, being mapped
+			
+			if(receivedNanos != 0) toOthers.track(metrics.fanoutLatency(), receivedNanos);
+			current.forEachMember(config.parallelFanout, session -> {
+				if(session == this) session.outbound.offer(toSender);
+				else if(receivedNanos != 0) session.outbound.offerTracked(toOthers);
+				else session.outbound.offer(toOthers);
+			});
+			if(receivedNanos != 0) toOthers.recipientDone(); // fan-out over, the last write now records the latency
+			if(federation != null) federation.relayBroadcast(current.name(), name, message); // the same room on the other nodes
+			if(search != null && receivedNanos != 0) { // typed by the client, not made up by the server
+				search.addBroadcast(name, message, clock.time() + " [" + current.name() + "] " + name + ": " + message);
 			}
-			String time = sdf.format(new Date());
-			System.out.println(time + " " + name + ": " + message); //server's screen
+			log.broadcast(current.name(), name, message); //server's screen
 		}
 		
 		/**
-		 * Method to send private messages between clients 
-		 * will notify if recipient is currently AFK. 
+		 * Method to send private messages between clients, 
+		 * a recipient who is away from keyboard or not signed in gets it in their mailbox when they return, 
+		 * and the sender is told so, one signed in to another node gets it relayed to that node. 
+		 * Not synchronised for the same reason as {@link HandleSession#broadcast(String)}. 
 		 * @param message private message to be sent
 		 * @param recipient client who receives private message
 		 */
-		private synchronized void privateMessage(String message, String recipient) {
+		private void privateMessage(String message, String recipient) {
 
-			if(clientAFKMap.get(recipient) != null && clientAFKMap.get(recipient) == true) { // notify sender if recipient is afk
-				out.println("Recipient is currently away from keyboard, they will see the message when they return");
+			String time = clock.time(); // set the time
+			
+			if(federation != null && sessions.get(recipient) == null && federation.isRemote(recipient)) { // signed in to another node
+				if(federation.relayPrivate(name, recipient, message)) {
+					out.println(time + " (PM >> " + recipient + ") You: " + message);
+					if(search != null) search.addPrivate(name, recipient, message, time + " (PM >> " + recipient + ") " + name + ": " + message);
+				}
+				else out.println("Sorry, the server " + recipient + " is signed in to cannot be reached, try again later");
 				out.flush();
+				return;
+			}
+			String line = time + " " + "(private)" + name + ": " + message;
+			MailboxStore.Outcome outcome = mailboxes == null ? MailboxStore.Outcome.PRESENT 
+				: mailboxes.store(recipient, line, () -> isAway(recipient));
+			HandleSession recipientSession = sessions.get(recipient); // direct lookup by name
+			
+			if(outcome == MailboxStore.Outcome.FULL) {
+				out.println("Sorry, the mailbox of " + recipient + " is full, try again later");
+				out.flush();
+				return;
+			}
+			else if(outcome == MailboxStore.Outcome.UNKNOWN) {
+				out.println("Sorry, nobody called " + recipient + " has signed in lately, the message was not sent");
+				out.flush();
+				return;
+			}
+			else if(outcome == MailboxStore.Outcome.STORED && recipientSession != null) { // notify sender if recipient is afk
+				out.println("Recipient is currently away from keyboard, they will see the message when they return");
+			}
+			else if(outcome == MailboxStore.Outcome.STORED) {
+				out.println(recipient + " is not signed in, they will see the message when they next sign in");
+			}
+			else if(recipientSession != null && recipientSession.isAFK) { // no mailboxes, all that can be done is warn
+				out.println("Recipient is currently away from keyboard, they will see the message when they return");
 			}
-
-			String time = sdf.format(new Date()); // set the time
 			out.println(time + " (PM >> " + recipient + ") You: " + message);
 			out.flush();
+			if(search != null) search.addPrivate(name, recipient, message, line);
 			
-			for(String client : clientNames) {
-				
-				if (client.equals(recipient)) {
+			if (outcome == MailboxStore.Outcome.PRESENT && recipientSession != null) {
 
-					// Print message to this client
-					System.out.println(time + "Private message sent from " + name + " to " + recipient + ": " + message); // notify server of private message (can comment out/remove)
-					
-					PrintWriter privateOut = clientWriterMap.get(recipient); // set the printwriter to the one associated with the recipient's name
-					privateOut.println(time + " " + "(private)" + name + ": " + message); // print message to one client
-					privateOut.flush();
-				}
+				// Print message to this client
+				log.privateMessage(name, recipient, message); // notify server of private message (can comment out/remove)
+				
+				PrintWriter privateOut = recipientSession.out; // the printwriter associated with the recipient's name
+				privateOut.println(line); // print message to one client
+				privateOut.flush();
 			}
 		}
 		
 		/**
-		 * Method to answer client queries:  
-		 * log client out, print list of commands, how many clients in the chat, how long the server/client has been runnning, ip address of server, afk and back. 
-		 * @param command command typed by client beginning in "\"
-		 * @return true once command client has requested has been processed
-		 * @throws UnknownHostException thrown if IP address of server could not be determined
+		 * Sends the client the private messages waiting in their mailbox, 
+		 * all of them as one message so they go out in a single write, 
+		 * once the mailbox thread has read them. 
 		 */
-		boolean processClientRequest(String command) throws UnknownHostException { // to get InetAddress.getLocalHost()
+		private void deliverMail() {
+			if(mailboxes != null) mailboxes.take(name, this::sendMail);
+		}
+		
+		/**
+		 * Sends the client the private messages read from their mailbox, as one message. 
+		 * @param mail lines, oldest first
+		 */
+		private void sendMail(List<String> mail) {
 			
-			long endTime; // Long integer to represent the current time
+			StringBuilder text = new StringBuilder();
+			text.append("You have ").append(mail.size()).append(mail.size() == 1 ? " private message" : " private messages")
+				.append(" from while you were away:").append(System.lineSeparator());
+			for(String line : mail) text.append(line).append(System.lineSeparator());
 			
-			if(command.equals("\\quit")) return false; // Client logs out
+			outbound.offer(new WireMessage(ByteBuffer.wrap(text.toString().getBytes(WireFormat.CHARSET)).asReadOnlyBuffer()));
+		}
+		
+		/**
+		 * Method to answer client queries, 
+		 * the command named by the first word is looked up in {@link Server#commands} and run, 
+		 * nothing happens for a word that names no command. 
+		 * @param command command typed by client beginning in "\"
+		 * @return false once the client has typed \quit
+		 * @throws IOException if the command could not be carried out
+		 */
+		boolean processClientRequest(String command) throws IOException {
+			commands.dispatch(this, command);
+			return !hasQuit;
+		}
+		
+		/**
+		 * Username of the client, for {@link CommandSession}. 
+		 * @return the username
+		 */
+		public String name() {
+			return name;
+		}
+		
+		/**
+		 * Answers the client with a line of its own, as one message. 
+		 * @param line line without its terminator
+		 */
+		public void reply(String line) {
+			out.println(line);
+			out.flush();
+		}
+		
+		/**
+		 * Sends the client a message already encoded, after anything printed before it, 
+		 * so output that does not change is encoded once for every client. 
+		 * @param message lines, each with its terminator
+		 */
+		void send(WireMessage message) {
+			out.flush(); // anything printed before goes first
+			outbound.offer(message);
+		}
+		
+		/**
+		 * Subscribes the client to presence changes, or unsubscribes it. 
+		 * @param on true to subscribe
+		 */
+		private void subscribePresence(boolean on) {
+			isPresenceSubscribed = on;
+			if(on) presence.subscribe(outbound);
+			else presence.unsubscribe(outbound);
+			reply(on ? "Presence changes on, roster version " + presence.snapshot().version : "Presence changes off");
+		}
+		
+		/**
+		 * Tells everyone the client is away from keyboard, only once while away. 
+		 */
+		private void away() {
+			if(!isAFK) {
+				isAFK = true;
+				notifyPresence(Presence.AWAY, name + " is away from keyboard");
+				log.info(name + " is away from keyboard");
+			}
+		}
+		
+		/**
+		 * Tells everyone the client is back, if they were away, and delivers the private messages sent meanwhile. 
+		 */
+		private void back() {
+			if(isAFK) {
+				isAFK = false;
+				notifyPresence(Presence.BACK, name + " is back");
+				log.info(name + " is back");
+				deliverMail(); // private messages sent while away
+			}
+		}
+		
+		/**
+		 * Sends the client one page of the roster, the last line telling how many pages there are and the version of the roster, 
+		 * so a client subscribed to presence knows which changes it already holds. 
+		 * @param page page number typed by the client, from 1
+		 */
+		private void sendRosterPage(String page) {
 			
-			if(command.equals("\\help")) {
-				for(String c : commands) {
-					out.println("Command " + c); 
-					out.flush();
-				}
-			} // Prints list of commands
+			Presence.Snapshot roster = presence.snapshot();
+			int number;
 			
-			if(command.equals("\\numberclients")) {
-				out.println("Number of clients: " + numClients); 
+			try {
+				number = Integer.parseInt(page);
+			} catch (NumberFormatException e) {
+				number = 0;
+			}
+			if(number < 1 || number > roster.pages()) {
+				out.println("Type \\clientnames followed by a page from 1 to " + roster.pages());
 				out.flush();
-				}//how many clients currently online
+				return;
+			}
+			out.flush(); // anything printed before goes first
+			outbound.offer(roster.page(number));
+			out.println("Page " + number + " of " + roster.pages() + ", " + roster.size + " clients, roster version " + roster.version);
+			out.flush();
+		}
+		
+		/**
+		 * Sends the client the latest messages holding every word of a query, of those it could have seen, 
+		 * broadcasts to any room and its own private messages, all of them as one message. 
+		 * @param query words to find
+		 */
+		private void search(String query) {
 			
-			if(command.equals("\\servertime")) { 
-				endTime = System.currentTimeMillis(); // set the end time when command called
-				out.println("Server has been running for: " + getTime(serverStartTime, endTime));
+			if(search == null) {
+				out.println("Sorry, searching is turned off on this server");
 				out.flush();
-			} // how long has the server been running for, current time - start time
+				return;
+			}
+			List<String> found = search.search(query, name, config.searchResults);
+			for(String line : found) out.println(line);
+			out.println(found.isEmpty() ? "No messages found" 
+				: found.size() == config.searchResults ? "The latest " + found.size() + " messages found" 
+				: found.size() + (found.size() == 1 ? " message found" : " messages found"));
+			out.flush();
+		}
+		
+		/**
+		 * Tells everyone else the client has gone away or come back, 
+		 * subscribers to presence in the next batch of changes, the others at once, 
+		 * all of them sent the one line, encoded once. 
+		 * @param change {@link Presence#AWAY} or {@link Presence#BACK}
+		 * @param text line for clients not subscribed to presence
+		 */
+		private void notifyPresence(String change, String text) {
 			
-			if(command.equals("\\clienttime")) {
-				endTime = System.currentTimeMillis(); // set the end time when command called
-				out.println("You have been logged in for: " + getTime(clientTimeMap.get(name), endTime));
-				out.flush();
-			} // how long the client has been in the chat room for, current time - start time
+			WireMessage line = WireFormat.line(false, text.getBytes(WireFormat.CHARSET), new byte[0], new byte[0]);
+			
+			presence.changed(change, name);
+			for(HandleSession session : sessions.sessions()) {
+				if(session != this && !session.isPresenceSubscribed) session.outbound.offer(line);
+			}
+		}
+		
+		/**
+		 * Moves the client to another room, 
+		 * telling the room they leave and the room they join. 
+		 * @param roomName name of the room to join, 1-19 characters without spaces
+		 */
+		private void joinRoom(String roomName) {
 			
-			if(command.equals("\\ipaddress")) {
-				out.println("IP address of server: " + InetAddress.getLocalHost()); 
+			if(roomName.isEmpty() || roomName.length() >= 20 || roomName.contains(" ")) {
+				out.println("Sorry, room names are 1-19 characters without spaces");
+				out.flush();
+				return;
+			}
+			if(roomName.equals(room.name())) {
+				out.println("You are already in " + roomName);
 				out.flush();
-			}// the IP address of the server
+				return;
+			}
+			broadcast(name + " has left the room.");
+			rooms.leave(room, this);
+			room = rooms.join(roomName, this);
+			replayHistory();
+			broadcast(name + " has joined " + roomName + ".");
+		}
+		
+		/**
+		 * Sends the client the last messages of the room they are now in, 
+		 * the same buffers the history holds, so replaying to many clients at once copies nothing. 
+		 */
+		private void replayHistory() {
 			
-			if(command.equals("\\clientnames")) { // print usernames of all clients
-				for(String client : clientNames) {
-					out.println(client);
-					out.flush();
-				}
+			if(history == null) return;
+			
+			for(WireMessage message : history.recent(room.name(), config.replaySize)) {
+				outbound.offer(message);
 			}
-
-			if(command.equals("\\afk")) {
-
-				if(clientAFKMap.get(name) == null || !clientAFKMap.get(name)) { //only notify once while away
-
-					for(PrintWriter writer : clientWriters) {
-
-						if(writer != clientWriterMap.get(name)) { 
-
-							clientAFKMap.put(name, true);
-							writer.println(name + " is away from keyboard");
-							writer.flush();
-						}	
-					}
-					System.out.println(name + " is away from keyboard");
-				}
-			} // notify everyone that you are away from keyboard
-
-			if(command.equals("\\back")) {
-
-				if(clientAFKMap.get(name)) { // only notify that they are back if they are afk
-
-					for(PrintWriter writer : clientWriters) {
-
-						if(writer != clientWriterMap.get(name)) {
-
-							clientAFKMap.put(name, false);
-							writer.println(name + " is back");
-							writer.flush();
-						}	
-					}
-					System.out.println(name + " is back");
-				} 
-			} // notify everyone that you are back
-
-			return true;
 		}
 		
 		/**
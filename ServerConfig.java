@@ -0,0 +1,428 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Start-up options for the {@link Server},
+ * read from command-line arguments of the form --name=value,
+ * anything not given keeps the default below.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-16
+ */
+class ServerConfig {
+
+	/**
+	 * How each client session is run.
+	 * THREAD starts a platform thread per connection,
+	 * VIRTUAL runs the same blocking session on a virtual thread (Java 21 or later),
+	 * NIO multiplexes many connections over a small number of event loop threads.
+	 */
+	enum SessionMode { THREAD, VIRTUAL, NIO }
+
+	/**
+	 * What happens to a client sending faster than its limits.
+	 * SHAPE stops reading from the client until it is back within them, so it is slowed down and nothing is lost,
+	 * REJECT drops what is over the limit and tells the client.
+	 */
+	enum LimitPolicy { SHAPE, REJECT }
+
+	/**
+	 * Integer number to represent port number, should be the same in the client program.
+	 */
+	int portNumber = 5555;
+
+	/**
+	 * Session mode used by {@link Server#start()}.
+	 */
+	SessionMode mode = SessionMode.THREAD;
+
+	/**
+	 * Number of event loop threads for {@link SessionMode#NIO}, one per core by default.
+	 */
+	int eventLoops = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Most messages waiting to be written to one client.
+	 */
+	int queueCapacity = 1024;
+
+	/**
+	 * What to do with a message for a client whose queue is full.
+	 */
+	OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+
+	/**
+	 * How long a sender waits for space under {@link OutboundQueue.OverflowPolicy#BLOCK}, in milliseconds.
+	 * In NIO mode the sender is an event loop, which stops serving its other clients while it waits.
+	 */
+	long blockTimeoutMillis = 1000;
+
+	/**
+	 * Members a room needs before its broadcasts fan out in parallel rather than on the sender's thread.
+	 */
+	long parallelFanout = 1024;
+
+	/**
+	 * Longest time a writer thread lets output wait for more to join it in one write, in microseconds.
+	 * 0 writes as soon as there is output, larger values trade latency for fewer system calls.
+	 * Event loops always write at the end of the pass that produced the output, so do not wait.
+	 */
+	long flushDelayMicros = 0;
+
+	/**
+	 * Bytes of output after which it is written without waiting any longer,
+	 * also the most one write gathers. 1 writes every message on its own, for the lowest latency.
+	 */
+	long flushBytes = 65536;
+
+	/**
+	 * Messages each room keeps for late joiners, 0 for no history at all.
+	 */
+	int historySize = 100;
+
+	/**
+	 * Messages of a room's history replayed to a client who signs in or joins the room.
+	 */
+	int replaySize = 20;
+
+	/**
+	 * Directory of the memory-mapped history log, empty to keep the history in memory only.
+	 */
+	String historyDirectory = "history";
+
+	/**
+	 * Size of each history log segment file in bytes.
+	 */
+	int historySegmentBytes = 8 << 20;
+
+	/**
+	 * Most history log segment files kept on disk, the oldest are deleted beyond this.
+	 */
+	int historySegments = 8;
+
+	/**
+	 * Directory of the mailboxes holding private messages for away or signed out clients, empty for no mailboxes.
+	 */
+	String mailboxDirectory = "mailboxes";
+
+	/**
+	 * Most bytes one client's mailbox holds.
+	 */
+	long mailboxBytes = 64 << 10;
+
+	/**
+	 * Hours a private message waits in a mailbox before it is discarded.
+	 */
+	long mailboxExpiryHours = 7 * 24;
+
+	/**
+	 * Most mailboxes holding mail at once, a message to a user without one is refused beyond this.
+	 */
+	int mailboxCount = 10_000;
+
+	/**
+	 * Usernames allowed to use admin commands such as \stats, none by default.
+	 */
+	Set<String> admins = new HashSet<String>();
+
+	/**
+	 * File to record a trace of the clients' traffic in, for {@link TrafficReplay}, empty for no trace.
+	 */
+	String tracePath = "";
+
+	/**
+	 * Lines per second each client may broadcast, 0 for no limit.
+	 */
+	double broadcastRate = 20;
+
+	/**
+	 * Private messages per second each client may send, 0 for no limit.
+	 */
+	double privateRate = 20;
+
+	/**
+	 * Commands per second each client may send, 0 for no limit.
+	 */
+	double commandRate = 10;
+
+	/**
+	 * Bytes per second each client may send of each of broadcasts, private messages and commands, 0 for no limit.
+	 */
+	double clientBytesRate = 64 << 10;
+
+	/**
+	 * Messages per second all clients together may send, 0 for no limit.
+	 */
+	double globalMessageRate = 0;
+
+	/**
+	 * Bytes per second all clients together may send, 0 for no limit.
+	 */
+	double globalBytesRate = 0;
+
+	/**
+	 * Seconds' worth of any rate a client may send in one burst.
+	 */
+	double limitBurstSeconds = 2;
+
+	/**
+	 * What happens to a client over its limits.
+	 */
+	LimitPolicy limitPolicy = LimitPolicy.SHAPE;
+
+	/**
+	 * Name of this node among its {@link Federation} peers, the host name and port by default.
+	 */
+	String nodeName = "";
+
+	/**
+	 * Port peers connect to, 0 for none.
+	 */
+	int federationPort = 0;
+
+	/**
+	 * Local address the federation port is bound to, empty or * for every local address.
+	 */
+	String federationBindAddress = "";
+
+	/**
+	 * Secret every peer must give in its HELLO, at most 255 bytes, empty for none, in which case peers are only told apart by their addresses.
+	 */
+	String federationSecret = "";
+
+	/**
+	 * Federation addresses, host:port, of the peers to relay to, none for a server on its own.
+	 * Only these hosts may connect to the federation port.
+	 */
+	List<String> peers = new ArrayList<String>();
+
+	/**
+	 * Longest time relays to a peer wait for more to join them in one write, in microseconds.
+	 */
+	long peerFlushDelayMicros = 1000;
+
+	/**
+	 * Whether clients are offered compression of what the server sends them.
+	 */
+	boolean compression = true;
+
+	/**
+	 * Deflate level of compressed output, 1 fastest to 9 smallest.
+	 */
+	int compressionLevel = 6;
+
+	/**
+	 * Bytes of output written together before they are compressed, smaller writes go out as they are.
+	 */
+	int compressionThreshold = 64;
+
+	/**
+	 * Seconds a session is held after its connection drops, for the client to resume it, 0 to not offer resuming.
+	 */
+	long resumeGraceSeconds = 30;
+
+	/**
+	 * Most messages kept for each client that can resume, to replay what it missed.
+	 */
+	int resumeBufferMessages = 256;
+
+	/**
+	 * What a session does when the server log's ring is full.
+	 * DROP loses the entry, counting it, BLOCK waits for the log's writer to make room.
+	 */
+	enum LogPolicy { DROP, BLOCK }
+
+	/**
+	 * Directory the server log is written to as rotated JSON-lines files, empty for the console.
+	 */
+	String logDirectory = "";
+
+	/**
+	 * Size after which the log file is rolled over, in bytes.
+	 */
+	long logFileBytes = 16 * 1024 * 1024;
+
+	/**
+	 * Most log files kept, counting the one being written.
+	 */
+	int logFiles = 8;
+
+	/**
+	 * Entries the server log's ring holds, rounded up to a power of two.
+	 */
+	int logBufferEntries = 8192;
+
+	/**
+	 * What to do when the server log's ring is full.
+	 */
+	LogPolicy logPolicy = LogPolicy.DROP;
+
+	/**
+	 * Seconds a connection may be quiet before the client is pinged, 0 to turn heartbeats off.
+	 * Clients too old to answer pings are left to TCP keepalive once signed in, probing after the same time.
+	 */
+	int idleTimeoutSeconds = 30;
+
+	/**
+	 * Seconds a pinged client has to send anything before its connection is taken for dead and closed.
+	 */
+	int readTimeoutSeconds = 15;
+
+	/**
+	 * Seconds a client that has not signed in may send nothing before its connection is closed, 0 for no limit,
+	 * longer than the idle timeout as a person may be typing a username, and nobody is pinged before signing in.
+	 */
+	int loginTimeoutSeconds = 300;
+
+	/**
+	 * Addresses the server listens on for clients, each host:port, with * or nothing for every local address,
+	 * empty to listen on every local address at {@link ServerConfig#portNumber}.
+	 */
+	List<String> listenAddresses = new ArrayList<String>();
+
+	/**
+	 * Acceptor threads for each listen address.
+	 */
+	int acceptors = 1;
+
+	/**
+	 * Connections the kernel queues on each listening socket before they are accepted, capped by the system's own limit.
+	 */
+	int acceptBacklog = 1024;
+
+	/**
+	 * Whether clients' sockets send small writes at once rather than waiting to fill a packet,
+	 * the outbound queues already gather what is ready into one write.
+	 */
+	boolean tcpNoDelay = false;
+
+	/**
+	 * Size of each client socket's send buffer in bytes, 0 for the system's default.
+	 */
+	int sendBufferBytes = 0;
+
+	/**
+	 * Size of each client socket's receive buffer in bytes, 0 for the system's default,
+	 * set on the listening socket so it is in place before the connection's window is agreed.
+	 */
+	int receiveBufferBytes = 0;
+
+	/**
+	 * Milliseconds presence changes are gathered for before subscribed clients are sent them, as one message.
+	 */
+	int presenceWindowMillis = 250;
+
+	/**
+	 * Usernames on a page of \\clientnames when a page is asked for.
+	 */
+	int rosterPageSize = 100;
+
+	/**
+	 * Minutes of messages in each segment of the search index.
+	 */
+	int searchSegmentMinutes = 10;
+
+	/**
+	 * Segments of the search index kept, so how far back \\search goes, 0 to turn searching off.
+	 */
+	int searchSegments = 144;
+
+	/**
+	 * Messages waiting to be indexed at most, more are left out of the index.
+	 */
+	int searchQueueCapacity = 65536;
+
+	/**
+	 * Messages a search shows at most, the latest found.
+	 */
+	int searchResults = 20;
+
+	/**
+	 * Builds the configuration from the command-line arguments.
+	 * @param args command-line arguments, e.g. --mode=nio --loops=4
+	 * @return configuration with the defaults overridden by args
+	 * @throws IllegalArgumentException if an option is unknown or has a bad value
+	 */
+	static ServerConfig parse(String[] args) {
+
+		ServerConfig config = new ServerConfig();
+
+		for(String arg : args) {
+			String[] option = arg.split("=", 2); // split option in two at the first '='
+			String value = option.length > 1 ? option[1] : "";
+
+			switch(option[0]) {
+				case "--port": config.portNumber = Integer.parseInt(value); break;
+				case "--mode": config.mode = SessionMode.valueOf(value.toUpperCase()); break;
+				case "--loops": config.eventLoops = Math.max(1, Integer.parseInt(value)); break;
+				case "--queue": config.queueCapacity = Math.max(1, Integer.parseInt(value)); break;
+				case "--overflow": config.overflowPolicy = OutboundQueue.OverflowPolicy.valueOf(value.toUpperCase()); break;
+				case "--block-timeout": config.blockTimeoutMillis = Long.parseLong(value); break;
+				case "--parallel-fanout": config.parallelFanout = Long.parseLong(value); break;
+				case "--flush-delay": config.flushDelayMicros = Math.max(0, Long.parseLong(value)); break;
+				case "--flush-bytes": config.flushBytes = Math.max(1, Long.parseLong(value)); break;
+				case "--history": config.historySize = Math.max(0, Integer.parseInt(value)); break;
+				case "--replay": config.replaySize = Math.max(0, Integer.parseInt(value)); break;
+				case "--history-dir": config.historyDirectory = value; break;
+				case "--history-segment": config.historySegmentBytes = Math.max(4096, Integer.parseInt(value)); break;
+				case "--history-segments": config.historySegments = Math.max(1, Integer.parseInt(value)); break;
+				case "--mailbox-dir": config.mailboxDirectory = value; break;
+				case "--mailbox-bytes": config.mailboxBytes = Math.max(1, Long.parseLong(value)); break;
+				case "--mailbox-expiry": config.mailboxExpiryHours = Math.max(0, Long.parseLong(value)); break;
+				case "--mailboxes": config.mailboxCount = Math.max(1, Integer.parseInt(value)); break;
+				case "--admins": config.admins = new HashSet<String>(Arrays.asList(value.split(","))); break;
+				case "--trace": config.tracePath = value; break;
+				case "--limit-broadcast": config.broadcastRate = Double.parseDouble(value); break;
+				case "--limit-private": config.privateRate = Double.parseDouble(value); break;
+				case "--limit-command": config.commandRate = Double.parseDouble(value); break;
+				case "--limit-bytes": config.clientBytesRate = Double.parseDouble(value); break;
+				case "--limit-global": config.globalMessageRate = Double.parseDouble(value); break;
+				case "--limit-global-bytes": config.globalBytesRate = Double.parseDouble(value); break;
+				case "--limit-burst": config.limitBurstSeconds = Math.max(0, Double.parseDouble(value)); break;
+				case "--limit-policy": config.limitPolicy = LimitPolicy.valueOf(value.toUpperCase()); break;
+				case "--node": config.nodeName = value; break;
+				case "--federation-port": config.federationPort = Integer.parseInt(value); break;
+				case "--federation-bind": config.federationBindAddress = value; break;
+				case "--federation-secret": 
+					if(value.getBytes(WireFormat.CHARSET).length > 255) throw new IllegalArgumentException("--federation-secret is over 255 bytes");
+					config.federationSecret = value; 
+					break;
+				case "--peers": config.peers = value.isEmpty() ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(value.split(","))); break;
+				case "--peer-flush-delay": config.peerFlushDelayMicros = Math.max(0, Long.parseLong(value)); break;
+				case "--compression": config.compression = value.equals("on"); break;
+				case "--compress-level": config.compressionLevel = Math.max(1, Math.min(9, Integer.parseInt(value))); break;
+				case "--compress-threshold": config.compressionThreshold = Math.max(0, Integer.parseInt(value)); break;
+				case "--resume-grace": config.resumeGraceSeconds = Math.max(0, Long.parseLong(value)); break;
+				case "--resume-buffer": config.resumeBufferMessages = Math.max(1, Integer.parseInt(value)); break;
+				case "--log-dir": config.logDirectory = value; break;
+				case "--log-file-bytes": config.logFileBytes = Math.max(1024, Long.parseLong(value)); break;
+				case "--log-files": config.logFiles = Math.max(1, Integer.parseInt(value)); break;
+				case "--log-buffer": config.logBufferEntries = Math.max(2, Integer.parseInt(value)); break;
+				case "--log-overflow": config.logPolicy = LogPolicy.valueOf(value.toUpperCase()); break;
+				case "--idle-timeout": config.idleTimeoutSeconds = Math.max(0, Integer.parseInt(value)); break;
+				case "--read-timeout": config.readTimeoutSeconds = Math.max(1, Integer.parseInt(value)); break;
+				case "--login-timeout": config.loginTimeoutSeconds = Math.max(0, Integer.parseInt(value)); break;
+				case "--listen": config.listenAddresses = value.isEmpty() ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(value.split(","))); break;
+				case "--acceptors": config.acceptors = Math.max(1, Integer.parseInt(value)); break;
+				case "--backlog": config.acceptBacklog = Math.max(1, Integer.parseInt(value)); break;
+				case "--tcp-nodelay": config.tcpNoDelay = value.equals("on"); break;
+				case "--send-buffer": config.sendBufferBytes = Math.max(0, Integer.parseInt(value)); break;
+				case "--receive-buffer": config.receiveBufferBytes = Math.max(0, Integer.parseInt(value)); break;
+				case "--presence-window": config.presenceWindowMillis = Math.max(1, Integer.parseInt(value)); break;
+				case "--roster-page": config.rosterPageSize = Math.max(1, Integer.parseInt(value)); break;
+				case "--search-segment": config.searchSegmentMinutes = Math.max(1, Integer.parseInt(value)); break;
+				case "--search-segments": config.searchSegments = Math.max(0, Integer.parseInt(value)); break;
+				case "--search-queue": config.searchQueueCapacity = Math.max(1, Integer.parseInt(value)); break;
+				case "--search-results": config.searchResults = Math.max(1, Integer.parseInt(value)); break;
+				default: throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		if(config.mode == SessionMode.VIRTUAL && !VirtualThreads.isSupported()) {
+			throw new IllegalArgumentException("--mode=virtual needs Java 21 or later");
+		}
+		return config;
+	}
+} // end of the class ServerConfig
@@ -0,0 +1,453 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What the server has to say, its console output and the audit trail of every message, written by a thread of its own
+ * so that sessions never wait on the console or the disk, or on each other for either.
+ * <p>
+ * Sessions put entries in a ring of slots allocated up front, claiming a slot with a compare-and-set on the next sequence number
+ * and publishing it by writing its sequence number into the slot once the fields are in, so logging takes no lock
+ * and allocates nothing beyond the strings passed in, which are only formatted by the writer.
+ * The writer takes entries in order as they are published, writes all that are ready, then flushes once.
+ * When the ring is full an entry is dropped and counted, or under {@link ServerConfig.LogPolicy#BLOCK}
+ * the session waits for the writer to make room.
+ * <p>
+ * Without a directory the entries go to the console as they always have, otherwise to JSON lines in server.log there,
+ * one object per entry with its time, kind and fields, rolled over to server.log.1 and so on once it is too big,
+ * the oldest deleted past a limit.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class ServerLog {
+
+	/**
+	 * Kind of a line about what the server is doing.
+	 */
+	static final byte INFO = 0;
+
+	/**
+	 * Kind of a line about something that went wrong, printed to the error stream.
+	 */
+	static final byte ERROR = 1;
+
+	/**
+	 * Kind of a message broadcast to a room.
+	 */
+	static final byte BROADCAST = 2;
+
+	/**
+	 * Kind of a private message.
+	 */
+	static final byte PRIVATE = 3;
+
+	/**
+	 * Names of the kinds in the log files.
+	 */
+	private static final String[] KIND_NAMES = {"info", "error", "broadcast", "private"};
+
+	/**
+	 * Name of the file being written, the rolled over ones get a number after it.
+	 */
+	private static final String FILE_NAME = "server.log";
+
+	/**
+	 * Time of a console line, as {@link CachedClock} gives it.
+	 */
+	private static final DateTimeFormatter CONSOLE_TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	/**
+	 * Time of an entry in a log file.
+	 */
+	private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+		.withZone(ZoneId.systemDefault());
+
+	/**
+	 * Longest the writer sleeps with nothing to write, in case a session publishes without waking it.
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/**
+	 * How long a blocked session sleeps before looking for room again.
+	 */
+	private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * Time of each entry, in milliseconds since the epoch.
+	 */
+	private final long[] times;
+
+	/**
+	 * Kind of each entry.
+	 */
+	private final byte[] kinds;
+
+	/**
+	 * Sender of each message, null for other entries.
+	 */
+	private final String[] senders;
+
+	/**
+	 * Room or recipient of each message, null for other entries.
+	 */
+	private final String[] targets;
+
+	/**
+	 * Text of each entry.
+	 */
+	private final String[] texts;
+
+	/**
+	 * Sequence number of the entry last published in each slot, -1 before the first.
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * Slots minus one, the ring's size being a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * Sequence number the next entry will claim.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * Sequence number of the next entry the writer will take, slots before it can be reused.
+	 */
+	private volatile long consumed = 0;
+
+	/**
+	 * True to make sessions wait when the ring is full, false to drop the entry.
+	 */
+	private final boolean isBlocking;
+
+	/**
+	 * Entries dropped because the ring was full.
+	 */
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Directory of the log files, null to write to the console.
+	 */
+	private final Path directory;
+
+	/**
+	 * Size after which the file is rolled over, in bytes.
+	 */
+	private final long fileBytes;
+
+	/**
+	 * Most files kept, counting the one being written.
+	 */
+	private final int maxFiles;
+
+	/**
+	 * Thread writing the entries out.
+	 */
+	private final Thread writer = new Thread(this::drain, "server-log");
+
+	/**
+	 * Set while the writer sleeps, so sessions know to wake it.
+	 */
+	private volatile boolean isIdle = false;
+
+	/**
+	 * Set once the log is closing, the writer finishes what has been published and stops.
+	 */
+	private volatile boolean isClosed = false;
+
+	/**
+	 * File being written, or the console's output stream, only used by the writer.
+	 */
+	private Writer out;
+
+	/**
+	 * The console's error stream, only used by the writer.
+	 */
+	private Writer err;
+
+	/**
+	 * Characters written to the current file, close enough to its size in bytes.
+	 */
+	private long fileLength = 0;
+
+	/**
+	 * Constructor method for {@link ServerLog}.
+	 * @param config size of the ring, what to do when it is full, and where and how much to write
+	 */
+	ServerLog(ServerConfig config) {
+
+		int slots = Integer.highestOneBit(Math.max(2, config.logBufferEntries) * 2 - 1); // rounded up to a power of two
+
+		times = new long[slots];
+		kinds = new byte[slots];
+		senders = new String[slots];
+		targets = new String[slots];
+		texts = new String[slots];
+		published = new AtomicLongArray(slots);
+		for(int i = 0; i < slots; i++) published.set(i, -1);
+		mask = slots - 1;
+		isBlocking = config.logPolicy == ServerConfig.LogPolicy.BLOCK;
+		directory = config.logDirectory.isEmpty() ? null : Paths.get(config.logDirectory);
+		fileBytes = config.logFileBytes;
+		maxFiles = config.logFiles;
+	}
+
+	/**
+	 * Opens the log file, or the console, and starts the writer, entries logged before are kept until then.
+	 * @throws IOException if the directory or file could not be opened
+	 */
+	void start() throws IOException {
+
+		if(directory != null) {
+			Files.createDirectories(directory);
+			openFile();
+		}
+		else {
+			out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+			err = new BufferedWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8));
+		}
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Logs a line about what the server is doing.
+	 * @param text line to log
+	 */
+	void info(String text) {
+		append(INFO, null, null, text);
+	}
+
+	/**
+	 * Logs a line about something that went wrong.
+	 * @param text line to log
+	 */
+	void error(String text) {
+		append(ERROR, null, null, text);
+	}
+
+	/**
+	 * Logs a message broadcast to a room.
+	 * @param room name of the room
+	 * @param sender username of the sender
+	 * @param message message as typed
+	 */
+	void broadcast(String room, String sender, String message) {
+		append(BROADCAST, sender, room, message);
+	}
+
+	/**
+	 * Logs a private message.
+	 * @param sender username of the sender
+	 * @param recipient username of the recipient
+	 * @param message message as typed
+	 */
+	void privateMessage(String sender, String recipient, String message) {
+		append(PRIVATE, sender, recipient, message);
+	}
+
+	/**
+	 * Entries dropped because the ring was full.
+	 * @return entry count
+	 */
+	long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Claims the next slot, fills it in and publishes it.
+	 * @param kind kind of entry
+	 * @param sender sender of a message, null otherwise
+	 * @param target room or recipient of a message, null otherwise
+	 * @param text text of the entry
+	 */
+	private void append(byte kind, String sender, String target, String text) {
+
+		long sequence;
+
+		while(true) {
+			sequence = claimed.get();
+			if(sequence - consumed >= kinds.length) { // full
+				if(!isBlocking || isClosed) {
+					dropped.increment();
+					return;
+				}
+				LockSupport.unpark(writer);
+				LockSupport.parkNanos(FULL_NANOS);
+			}
+			else if(claimed.compareAndSet(sequence, sequence + 1)) break;
+		}
+
+		int index = (int) sequence & mask;
+		times[index] = System.currentTimeMillis();
+		kinds[index] = kind;
+		senders[index] = sender;
+		targets[index] = target;
+		texts[index] = String.valueOf(text); // "null" for a missing exception message, as println would print
+		published.set(index, sequence); // a volatile write, so the writer sees the fields once it sees this
+		if(isIdle) LockSupport.unpark(writer);
+	} // end of append() in the class ServerLog
+
+	/**
+	 * Body of the writer thread, takes entries in sequence as they are published,
+	 * flushing once nothing more is ready and sleeping until woken.
+	 */
+	private void drain() {
+
+		long next = 0;
+
+		while(true) {
+			int index = (int) next & mask;
+
+			if(published.get(index) == next) {
+				try {
+					write(index);
+				}
+				catch (IOException e) {
+					System.err.println("Exception writing the server log: " + e);
+				}
+				senders[index] = null; // let the strings go
+				targets[index] = null;
+				texts[index] = null;
+				consumed = ++next;
+				continue;
+			}
+
+			flush();
+			if(isClosed && claimed.get() == next) return; // everything claimed has been written
+			isIdle = true;
+			if(published.get(index) != next && !isClosed) LockSupport.parkNanos(IDLE_NANOS);
+			isIdle = false;
+		}
+	} // end of drain() in the class ServerLog
+
+	/**
+	 * Writes out one entry, rolling the file over once it is big enough.
+	 * @param index slot of the entry
+	 * @throws IOException if the entry could not be written
+	 */
+	private void write(int index) throws IOException {
+
+		if(directory == null) {
+			String time = CONSOLE_TIME.format(Instant.ofEpochMilli(times[index]));
+			switch(kinds[index]) {
+				case BROADCAST: out.write(time + " " + senders[index] + ": " + texts[index]); break;
+				case PRIVATE: out.write(time + "Private message sent from " + senders[index] + " to " + targets[index] + ": " + texts[index]); break;
+				case ERROR: err.write(texts[index] + System.lineSeparator()); return;
+				default: out.write(texts[index]);
+			}
+			out.write(System.lineSeparator());
+			return;
+		}
+
+		StringBuilder line = new StringBuilder(96);
+		line.append("{\"time\":\"").append(FILE_TIME.format(Instant.ofEpochMilli(times[index])))
+			.append("\",\"kind\":\"").append(KIND_NAMES[kinds[index]]).append('"');
+		if(senders[index] != null) appendField(line, "from", senders[index]);
+		if(targets[index] != null) appendField(line, kinds[index] == BROADCAST ? "room" : "to", targets[index]);
+		appendField(line, "text", texts[index]);
+		line.append('}').append('\n');
+
+		out.write(line.toString());
+		fileLength += line.length();
+		if(fileLength >= fileBytes) rollOver();
+	} // end of write() in the class ServerLog
+
+	/**
+	 * Adds a field to a JSON object, escaping its value.
+	 * @param line object being built
+	 * @param name name of the field
+	 * @param value value of the field
+	 */
+	private static void appendField(StringBuilder line, String name, String value) {
+
+		line.append(",\"").append(name).append("\":\"");
+
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') line.append('\\').append(c);
+			else if(c < 0x20) line.append(String.format("\\u%04x", (int) c));
+			else line.append(c);
+		}
+		line.append('"');
+	}
+
+	/**
+	 * Flushes what has been written, once per batch of entries.
+	 */
+	private void flush() {
+		try {
+			out.flush();
+			if(err != null) err.flush();
+		}
+		catch (IOException e) {
+			System.err.println("Exception writing the server log: " + e);
+		}
+	}
+
+	/**
+	 * Opens server.log to append to.
+	 * @throws IOException if the file could not be opened
+	 */
+	private void openFile() throws IOException {
+		Path file = directory.resolve(FILE_NAME);
+		fileLength = Files.exists(file) ? Files.size(file) : 0;
+		out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Closes the full file and starts a new one, numbering the old ones up by one and deleting the oldest past the limit.
+	 * @throws IOException if the files could not be renamed or opened
+	 */
+	private void rollOver() throws IOException {
+
+		out.close();
+		Files.deleteIfExists(directory.resolve(FILE_NAME + "." + (maxFiles - 1)));
+		for(int i = maxFiles - 2; i >= 1; i--) {
+			Path older = directory.resolve(FILE_NAME + "." + i);
+			if(Files.exists(older)) Files.move(older, directory.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+		}
+		if(maxFiles > 1) Files.move(directory.resolve(FILE_NAME), directory.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+		else Files.delete(directory.resolve(FILE_NAME));
+		openFile();
+	}
+
+	/**
+	 * Stops the writer once it has written everything already logged, on the way out.
+	 * @param timeoutMillis longest time to wait for the writer
+	 */
+	void close(long timeoutMillis) {
+
+		isClosed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(timeoutMillis);
+			if(directory != null && !writer.isAlive()) out.close();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			System.err.println("Exception closing the server log: " + e);
+		}
+		if(dropped() > 0) System.err.println("Server log: " + dropped() + " entries dropped, the log could not keep up");
+	}
+} // end of the class ServerLog
@@ -0,0 +1,385 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Live measurements of a running server, registered as a JMX MBean and shown to admins by \stats.
+ * Everything on the hot paths is recorded into striped counters, LongAdders and a {@link LatencyHistogram},
+ * which neither allocate nor lock, so measuring does not change what is measured.
+ * Totals, rates and queue depths are only worked out when somebody reads them.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+	/**
+	 * Counts taken at one moment, for working out rates.
+	 */
+	private static final class Sample {
+
+		/**
+		 * Time of the sample, by {@link System#nanoTime()}.
+		 */
+		final long nanos;
+
+		/**
+		 * Messages read so far.
+		 */
+		final long in;
+
+		/**
+		 * Messages written so far.
+		 */
+		final long out;
+
+		/**
+		 * Messages read per second since the sample before.
+		 */
+		final double inRate;
+
+		/**
+		 * Messages written per second since the sample before.
+		 */
+		final double outRate;
+
+		Sample(long nanos, long in, long out, double inRate, double outRate) {
+			this.nanos = nanos;
+			this.in = in;
+			this.out = out;
+			this.inRate = inRate;
+			this.outRate = outRate;
+		}
+	}
+
+	/**
+	 * Shortest time rates are worked out over, in nanoseconds.
+	 */
+	private static final long RATE_INTERVAL = 1_000_000_000L;
+
+	/**
+	 * Signed in sessions, for their count and queue depths.
+	 */
+	private final SessionRegistry sessions;
+
+	/**
+	 * Number of connected clients.
+	 */
+	private final IntSupplier connectedClients;
+
+	/**
+	 * Counters of the writes to clients.
+	 */
+	private final WriteStats writeStats;
+
+	/**
+	 * Counters of the output compressed.
+	 */
+	private final CompressionStats compressionStats;
+
+	/**
+	 * Pool of the buffers connections borrow.
+	 */
+	private final BufferPool buffers;
+
+	/**
+	 * Lines and frames read from clients.
+	 */
+	private final LongAdder messagesIn = new LongAdder();
+
+	/**
+	 * Bytes read from clients.
+	 */
+	private final LongAdder bytesIn = new LongAdder();
+
+	/**
+	 * Connections closed for having gone quiet.
+	 */
+	private final LongAdder connectionsReaped = new LongAdder();
+
+	/**
+	 * Connections accepted from clients.
+	 */
+	private final LongAdder connectionsAccepted = new LongAdder();
+
+	/**
+	 * Connections accepted at the last {@link ServerMetrics#sampleAccepts()}, only written by whoever samples.
+	 */
+	private long acceptsSampled = 0;
+
+	/**
+	 * Time of the last {@link ServerMetrics#sampleAccepts()}, by {@link System#nanoTime()}.
+	 */
+	private long acceptsSampledNanos = System.nanoTime();
+
+	/**
+	 * Connections accepted per second between the last two samples.
+	 */
+	private volatile double acceptRate = 0;
+
+	/**
+	 * Highest accept rate any sample has seen, what the listener has to be sized for.
+	 */
+	private volatile double peakAcceptRate = 0;
+
+	/**
+	 * Time from a line being read to its broadcast being written to the last member of the room.
+	 */
+	private final LatencyHistogram fanoutLatency = new LatencyHistogram();
+
+	/**
+	 * Counts at the last time rates were worked out.
+	 */
+	private final AtomicReference<Sample> lastSample = new AtomicReference<Sample>(new Sample(System.nanoTime(), 0, 0, 0, 0));
+
+	/**
+	 * Constructor method for {@link ServerMetrics}.
+	 * @param sessions signed in sessions
+	 * @param connectedClients number of connected clients
+	 * @param writeStats counters of the writes to clients
+	 * @param compressionStats counters of the output compressed
+	 * @param buffers pool of the buffers connections borrow
+	 */
+	ServerMetrics(SessionRegistry sessions, IntSupplier connectedClients, WriteStats writeStats, CompressionStats compressionStats, 
+		BufferPool buffers) {
+		this.sessions = sessions;
+		this.connectedClients = connectedClients;
+		this.writeStats = writeStats;
+		this.compressionStats = compressionStats;
+		this.buffers = buffers;
+	}
+
+	/**
+	 * Counts a line or frame read from a client.
+	 */
+	void messageIn() {
+		messagesIn.increment();
+	}
+
+	/**
+	 * Counts bytes read from a client.
+	 * @param count bytes read
+	 */
+	void bytesIn(long count) {
+		bytesIn.add(count);
+	}
+
+	/**
+	 * Counts a connection closed for having gone quiet.
+	 */
+	void connectionReaped() {
+		connectionsReaped.increment();
+	}
+
+	/**
+	 * Counts a connection accepted from a client.
+	 */
+	void connectionAccepted() {
+		connectionsAccepted.increment();
+	}
+
+	/**
+	 * Works out the accept rate since the last call, keeping the highest, 
+	 * called about once a second by one thread so that bursts show up in the peak however seldom the metrics are read.
+	 */
+	void sampleAccepts() {
+
+		long accepted = connectionsAccepted.sum();
+		long now = System.nanoTime();
+		double rate = (accepted - acceptsSampled) / ((now - acceptsSampledNanos) / 1e9);
+
+		acceptsSampled = accepted;
+		acceptsSampledNanos = now;
+		acceptRate = rate;
+		if(rate > peakAcceptRate) peakAcceptRate = rate;
+	}
+
+	/**
+	 * Histogram broadcasts record their fan-out latency in.
+	 * @return the histogram
+	 */
+	LatencyHistogram fanoutLatency() {
+		return fanoutLatency;
+	}
+
+	public int getActiveSessions() {
+		return sessions.size();
+	}
+
+	public int getConnectedClients() {
+		return connectedClients.getAsInt();
+	}
+
+	public long getConnectionsReaped() {
+		return connectionsReaped.sum();
+	}
+
+	public long getConnectionsAccepted() {
+		return connectionsAccepted.sum();
+	}
+
+	public double getAcceptsPerSecond() {
+		return acceptRate;
+	}
+
+	public double getPeakAcceptsPerSecond() {
+		return peakAcceptRate;
+	}
+
+	public long getMessagesIn() {
+		return messagesIn.sum();
+	}
+
+	public long getMessagesOut() {
+		return writeStats.messages();
+	}
+
+	public double getMessagesInPerSecond() {
+		return sample().inRate;
+	}
+
+	public double getMessagesOutPerSecond() {
+		return sample().outRate;
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return writeStats.bytes();
+	}
+
+	public long getSystemCallsSaved() {
+		return writeStats.saved();
+	}
+
+	public double getFanoutLatencyP50Micros() {
+		return micros(fanoutLatency.snapshot(), 50);
+	}
+
+	public double getFanoutLatencyP99Micros() {
+		return micros(fanoutLatency.snapshot(), 99);
+	}
+
+	public double getFanoutLatencyP999Micros() {
+		return micros(fanoutLatency.snapshot(), 99.9);
+	}
+
+	public double getFanoutLatencyMaxMicros() {
+		return fanoutLatency.max() / 1e3;
+	}
+
+	public int getMaxQueueDepth() {
+
+		int max = 0;
+
+		for(Server.HandleSession session : sessions.sessions()) max = Math.max(max, session.outbound.depth());
+		return max;
+	}
+
+	public long getTotalQueueDepth() {
+
+		long total = 0;
+
+		for(Server.HandleSession session : sessions.sessions()) total += session.outbound.depth();
+		return total;
+	}
+
+	public double getCompressionRatio() {
+		return compressionStats.ratio();
+	}
+
+	public long getCompressionBytesSaved() {
+		return compressionStats.saved();
+	}
+
+	public double getCompressionMillis() {
+		return compressionStats.millis();
+	}
+
+	public double getBufferPoolHitRate() {
+		return buffers.hitRate();
+	}
+
+	public long getBufferPoolResidentBytes() {
+		return buffers.residentBytes();
+	}
+
+	public void resetLatency() {
+		fanoutLatency.reset();
+	}
+
+	/**
+	 * Every measurement as lines of text, for the \stats command.
+	 * @return lines to show
+	 */
+	List<String> report() {
+
+		List<String> lines = new ArrayList<String>();
+		Sample sample = sample();
+		long[] latency = fanoutLatency.snapshot();
+		Server.HandleSession deepest = null;
+		long totalDepth = 0;
+		int maxDepth = 0;
+
+		for(Server.HandleSession session : sessions.sessions()) {
+			int depth = session.outbound.depth();
+			totalDepth += depth;
+			if(deepest == null || depth > maxDepth) {
+				deepest = session;
+				maxDepth = depth;
+			}
+		}
+
+		lines.add("Sessions: " + getActiveSessions() + " signed in, " + getConnectedClients() + " connected, " 
+			+ getConnectionsReaped() + " reaped for going quiet");
+		lines.add(String.format("Accepted: %d connections, %.1f/s, peak %.1f/s", 
+			getConnectionsAccepted(), acceptRate, peakAcceptRate));
+		lines.add(String.format("Messages in: %d (%.1f/s), out: %d (%.1f/s)",
+			getMessagesIn(), sample.inRate, getMessagesOut(), sample.outRate));
+		lines.add("Bytes in: " + getBytesIn() + ", out: " + getBytesOut());
+		lines.add("Writes: " + writeStats.writes() + ", system calls saved: " + writeStats.saved());
+		lines.add(String.format("Fan-out latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f, %d broadcasts",
+			micros(latency, 50), micros(latency, 90),
+			micros(latency, 99), micros(latency, 99.9),
+			fanoutLatency.max() / 1e3, LatencyHistogram.count(latency)));
+		lines.add("Compression: " + compressionStats);
+		lines.add("Buffers: " + buffers);
+		lines.add("Queue depth: max " + maxDepth + (deepest == null ? "" : " (" + deepest.name + ")") + ", total " + totalDepth);
+		return lines;
+	} // end of report() in the class ServerMetrics
+
+	/**
+	 * Fan-out latency at a percentile, no higher than the largest recorded, 
+	 * since the histogram only knows the bucket it falls in.
+	 * @param snapshot counts of the histogram
+	 * @param percentile share wanted, 0 to 100
+	 * @return latency in microseconds
+	 */
+	private double micros(long[] snapshot, double percentile) {
+		return Math.min(LatencyHistogram.percentile(snapshot, percentile), fanoutLatency.max()) / 1e3;
+	}
+
+	/**
+	 * Counts for working out rates, taking a new sample once the last is old enough.
+	 * @return the latest sample
+	 */
+	private Sample sample() {
+
+		Sample last = lastSample.get();
+		long now = System.nanoTime();
+
+		if(now - last.nanos < RATE_INTERVAL) return last;
+
+		long in = messagesIn.sum();
+		long out = writeStats.messages();
+		double seconds = (now - last.nanos) / 1e9;
+		Sample next = new Sample(now, in, out, (in - last.in) / seconds, (out - last.out) / seconds);
+
+		lastSample.compareAndSet(last, next); // another reader may have just done the same
+		return next;
+	}
+} // end of the class ServerMetrics
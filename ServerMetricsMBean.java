@@ -0,0 +1,158 @@
+/**
+ * Management interface of {@link ServerMetrics}, what JMX clients such as jconsole see of a running server.
+ * Latencies are from a client's line being read to its broadcast being written to the last member of the room.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+public interface ServerMetricsMBean {
+
+	/**
+	 * Clients signed in.
+	 * @return session count
+	 */
+	int getActiveSessions();
+
+	/**
+	 * Clients connected, signed in or not.
+	 * @return connection count
+	 */
+	int getConnectedClients();
+
+	/**
+	 * Connections closed because nothing was heard from the client, not even an answer to a ping.
+	 * @return connection count
+	 */
+	long getConnectionsReaped();
+
+	/**
+	 * Connections accepted from clients since the server started.
+	 * @return connection count
+	 */
+	long getConnectionsAccepted();
+
+	/**
+	 * Rate connections were accepted at, over the last second.
+	 * @return connections per second
+	 */
+	double getAcceptsPerSecond();
+
+	/**
+	 * Highest rate connections have been accepted at over any second, such as during a mass reconnect.
+	 * @return connections per second
+	 */
+	double getPeakAcceptsPerSecond();
+
+	/**
+	 * Lines and frames read from clients.
+	 * @return message count
+	 */
+	long getMessagesIn();
+
+	/**
+	 * Messages written to clients.
+	 * @return message count
+	 */
+	long getMessagesOut();
+
+	/**
+	 * Rate of lines and frames read, over the last second or more.
+	 * @return messages per second
+	 */
+	double getMessagesInPerSecond();
+
+	/**
+	 * Rate of messages written, over the last second or more.
+	 * @return messages per second
+	 */
+	double getMessagesOutPerSecond();
+
+	/**
+	 * Bytes read from clients.
+	 * @return byte count
+	 */
+	long getBytesIn();
+
+	/**
+	 * Bytes written to clients.
+	 * @return byte count
+	 */
+	long getBytesOut();
+
+	/**
+	 * Write calls saved by coalescing output.
+	 * @return system calls saved
+	 */
+	long getSystemCallsSaved();
+
+	/**
+	 * Median fan-out latency.
+	 * @return latency in microseconds
+	 */
+	double getFanoutLatencyP50Micros();
+
+	/**
+	 * 99th percentile fan-out latency.
+	 * @return latency in microseconds
+	 */
+	double getFanoutLatencyP99Micros();
+
+	/**
+	 * 99.9th percentile fan-out latency.
+	 * @return latency in microseconds
+	 */
+	double getFanoutLatencyP999Micros();
+
+	/**
+	 * Largest fan-out latency.
+	 * @return latency in microseconds
+	 */
+	double getFanoutLatencyMaxMicros();
+
+	/**
+	 * Deepest outbound queue of any signed in client.
+	 * @return messages waiting
+	 */
+	int getMaxQueueDepth();
+
+	/**
+	 * Messages waiting in every signed in client's outbound queue.
+	 * @return messages waiting
+	 */
+	long getTotalQueueDepth();
+
+	/**
+	 * Compressed size over original size of the output compressed for clients that asked for it.
+	 * @return ratio, 1 before anything has been compressed
+	 */
+	double getCompressionRatio();
+
+	/**
+	 * Bytes compression has kept off the network.
+	 * @return bytes saved
+	 */
+	long getCompressionBytesSaved();
+
+	/**
+	 * Time spent compressing output.
+	 * @return milliseconds
+	 */
+	double getCompressionMillis();
+
+	/**
+	 * Share of the buffers connections borrowed that the pool had idle rather than having to allocate.
+	 * @return ratio, 1 before anything has been borrowed
+	 */
+	double getBufferPoolHitRate();
+
+	/**
+	 * Direct memory held by the buffer pool, lent to connections or idle.
+	 * @return bytes
+	 */
+	long getBufferPoolResidentBytes();
+
+	/**
+	 * Starts the fan-out latency histogram afresh.
+	 */
+	void resetLatency();
+} // end of the interface ServerMetricsMBean
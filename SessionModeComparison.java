@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Comparison run of the server's session modes,
+ * starts a {@link Server} process in each mode, signs in many idle clients
+ * and reports the memory and threads each session costs the server
+ * and how long a broadcast takes to reach every client.
+ * Memory is the growth of the server's resident set, read from /proc, so needs Linux.
+ * <p>
+ * Usage: java SessionModeComparison [--sessions=2000] [--broadcasts=50] [--modes=thread,virtual,nio] [--port=5600]
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class SessionModeComparison {
+
+	/**
+	 * Number of idle clients signed in for each mode.
+	 */
+	private int sessions = 2000;
+
+	/**
+	 * Number of broadcasts timed for each mode.
+	 */
+	private int broadcasts = 50;
+
+	/**
+	 * Session modes to compare, as given to the server's --mode option.
+	 */
+	private String[] modes = {"thread", "virtual", "nio"};
+
+	/**
+	 * Port of the first server, each mode after it uses the next port.
+	 */
+	private int portNumber = 5600;
+
+	/**
+	 * Main method, runs the comparison and prints one row per mode.
+	 * @param args command-line arguments, see the class comment
+	 * @throws Exception simply terminate the comparison when exception is thrown
+	 */
+	public static void main(String[] args) throws Exception {
+
+		SessionModeComparison comparison = new SessionModeComparison();
+
+		for(String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch(option[0]) {
+				case "--sessions": comparison.sessions = Integer.parseInt(option[1]); break;
+				case "--broadcasts": comparison.broadcasts = Integer.parseInt(option[1]); break;
+				case "--modes": comparison.modes = option[1].split(","); break;
+				case "--port": comparison.portNumber = Integer.parseInt(option[1]); break;
+				default: throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		System.out.printf("%-8s %10s %12s %10s %14s %14s%n",
+			"mode", "sessions", "KB/session", "threads", "bcast p50 ms", "bcast max ms");
+		for(int i = 0; i < comparison.modes.length; i++) {
+			comparison.run(comparison.modes[i], comparison.portNumber + i);
+		}
+	}
+
+	/**
+	 * Measures one session mode against a fresh server process.
+	 * @param mode session mode of the server
+	 * @param port port for the server to listen on
+	 * @throws Exception if the server could not be started or a client failed
+	 */
+	private void run(String mode, int port) throws Exception {
+
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"Server", "--port=" + port, "--mode=" + mode)
+			.redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.start();
+
+		List<SocketChannel> clients = new ArrayList<SocketChannel>();
+		Selector selector = Selector.open();
+
+		try {
+			InetSocketAddress address = new InetSocketAddress("localhost", port);
+			SocketChannel sender = connect(address, "sender");
+			Thread.sleep(500); // let the server settle before taking the baseline
+			long baseMemory = residentKilobytes(server.pid());
+			int baseThreads = threads(server.pid());
+
+			for(int i = 0; i < sessions; i++) {
+				SocketChannel client = connect(address, "user" + i);
+				client.configureBlocking(false);
+				client.register(selector, SelectionKey.OP_READ, new int[1]); // attachment counts lines received
+				clients.add(client);
+			}
+			Thread.sleep(1000);
+			long memory = residentKilobytes(server.pid()) - baseMemory;
+			int threads = threads(server.pid()) - baseThreads;
+
+			long[] latencies = new long[broadcasts];
+			ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+			for(int b = 0; b < broadcasts; b++) {
+				long start = System.nanoTime();
+				sender.write(ByteBuffer.wrap(("message " + b + "\n").getBytes(StandardCharsets.UTF_8)));
+
+				int waiting = sessions;
+				while(waiting > 0) {
+					selector.select();
+					for(SelectionKey key : selector.selectedKeys()) {
+						int[] lines = (int[]) key.attachment();
+						readBuffer.clear();
+						((SocketChannel) key.channel()).read(readBuffer);
+						readBuffer.flip();
+						while(readBuffer.hasRemaining()) {
+							if(readBuffer.get() == '\n' && ++lines[0] == b + 1) waiting--;
+						}
+					}
+					selector.selectedKeys().clear();
+				}
+				latencies[b] = System.nanoTime() - start;
+				drain(sender, readBuffer);
+			}
+			Arrays.sort(latencies);
+
+			System.out.printf("%-8s %10d %12.1f %10d %14.2f %14.2f%n", mode, sessions,
+				memory / (double) sessions, threads,
+				latencies[latencies.length / 2] / 1e6, latencies[latencies.length - 1] / 1e6);
+		}
+		finally {
+			for(SocketChannel client : clients) client.close();
+			selector.close();
+			server.destroy();
+			server.waitFor();
+		}
+	} // end of run() in the class SessionModeComparison
+
+	/**
+	 * Connects a client and signs it in, retrying while the server is still starting.
+	 * @param address address of the server
+	 * @param name username to sign in with
+	 * @return blocking channel of the signed in client
+	 * @throws Exception if the client could not sign in
+	 */
+	private SocketChannel connect(InetSocketAddress address, String name) throws Exception {
+
+		for(int attempt = 0; ; attempt++) {
+			try {
+				SocketChannel channel = SocketChannel.open(address);
+				readUntil(channel, "Please type your username.");
+				channel.write(ByteBuffer.wrap((name + "\n").getBytes(StandardCharsets.UTF_8)));
+				readUntil(channel, "Please type messages.");
+				return channel;
+			}
+			catch(IOException e) {
+				if(attempt == 50) throw e;
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Reads from a blocking channel until the text has arrived.
+	 * @param channel channel to read
+	 * @param text text to wait for
+	 * @throws IOException if the channel closed first
+	 */
+	private void readUntil(SocketChannel channel, String text) throws IOException {
+
+		StringBuilder received = new StringBuilder();
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		while(received.indexOf(text) < 0) {
+			buffer.clear();
+			if(channel.read(buffer) < 0) throw new IOException("Server closed the connection");
+			received.append(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Reads the sender's own copy of a broadcast so its socket buffer never fills.
+	 * @param channel blocking channel of the sender
+	 * @param buffer buffer to read into
+	 * @throws IOException if the channel closed
+	 */
+	private void drain(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		do {
+			buffer.clear();
+			channel.read(buffer);
+		} while(buffer.get(buffer.position() - 1) != '\n');
+	}
+
+	/**
+	 * Resident memory of a process.
+	 * @param pid process id
+	 * @return VmRSS in kilobytes
+	 * @throws IOException if /proc could not be read
+	 */
+	private static long residentKilobytes(long pid) throws IOException {
+		return Long.parseLong(status(pid, "VmRSS:").replace("kB", "").trim());
+	}
+
+	/**
+	 * Number of threads of a process.
+	 * @param pid process id
+	 * @return threads the process is running
+	 * @throws IOException if /proc could not be read
+	 */
+	private static int threads(long pid) throws IOException {
+		return Integer.parseInt(status(pid, "Threads:").trim());
+	}
+
+	/**
+	 * Value of one field of /proc/pid/status.
+	 * @param pid process id
+	 * @param field name of the field including the colon
+	 * @return rest of the line after the field name
+	 * @throws IOException if /proc could not be read or has no such field
+	 */
+	private static String status(long pid, String field) throws IOException {
+		for(String line : Files.readAllLines(Paths.get("/proc", String.valueOf(pid), "status"))) {
+			if(line.startsWith(field)) return line.substring(field.length());
+		}
+		throw new IOException("No " + field + " for process " + pid);
+	}
+} // end of the class SessionModeComparison
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every signed in client session, keyed by username.
+ * Registering claims the name atomically, so two clients can never both get it,
+ * and reads never lock, so a fan-out can iterate the sessions while others sign in and out.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class SessionRegistry {
+
+	/**
+	 * Sessions by username.
+	 */
+	private final ConcurrentHashMap<String, Server.HandleSession> sessions = new ConcurrentHashMap<String, Server.HandleSession>();
+
+	/**
+	 * Signs a session in under a name, if nobody has it already.
+	 * @param name username the client asked for
+	 * @param session session of the client
+	 * @return true if the name was free and is now the session's
+	 */
+	boolean register(String name, Server.HandleSession session) {
+		return sessions.putIfAbsent(name, session) == null;
+	}
+
+	/**
+	 * Signs a session out, the name is only freed if it still belongs to that session.
+	 * @param name username of the session
+	 * @param session session of the client
+	 */
+	void unregister(String name, Server.HandleSession session) {
+		sessions.remove(name, session);
+	}
+
+	/**
+	 * Hands a name over to the session carrying on another, when a client resumes its session on a new connection.
+	 * @param name username of the session
+	 * @param previous session the name belongs to
+	 * @param session session taking it over
+	 * @return true if the name still belonged to the previous session and is now the new one's
+	 */
+	boolean replace(String name, Server.HandleSession previous, Server.HandleSession session) {
+		return sessions.replace(name, previous, session);
+	}
+
+	/**
+	 * Looks up the session signed in under a name.
+	 * @param name username
+	 * @return the session, or null if nobody is signed in under that name
+	 */
+	Server.HandleSession get(String name) {
+		return sessions.get(name);
+	}
+
+	/**
+	 * Live view of every signed in session for fan-out,
+	 * iterating it never locks and never throws ConcurrentModificationException,
+	 * sessions signing in or out meanwhile may or may not be seen.
+	 * @return signed in sessions
+	 */
+	Collection<Server.HandleSession> sessions() {
+		return sessions.values();
+	}
+
+	/**
+	 * Copy of the usernames signed in right now.
+	 * @return usernames, order not guaranteed
+	 */
+	List<String> names() {
+		return new ArrayList<String>(sessions.keySet());
+	}
+
+	/**
+	 * Number of signed in sessions.
+	 * @return sessions signed in
+	 */
+	int size() {
+		return sessions.size();
+	}
+} // end of the class SessionRegistry
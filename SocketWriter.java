@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated writer for a client whose session runs on a thread of its own,
+ * takes messages off the client's {@link OutboundQueue} and writes them to the blocking channel,
+ * so only this thread ever waits on a client that reads slowly.
+ * Whatever has queued up since the last write goes out in one gathering write,
+ * optionally waiting a few microseconds for more output to join it,
+ * or as one {@link BlockCompressor compressed} block once the client has asked for compression.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class SocketWriter implements Runnable {
+
+	/**
+	 * Blocking channel to the client.
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Queue of the client's output.
+	 */
+	private final OutboundQueue outbound;
+
+	/**
+	 * Bytes after which a batch is written without waiting for more.
+	 */
+	private final long flushBytes;
+
+	/**
+	 * Longest time output waits for more to join it, in nanoseconds.
+	 */
+	private final long flushDelayNanos;
+
+	/**
+	 * Counters the write calls are added to.
+	 */
+	private final WriteStats stats;
+
+	/**
+	 * Server log a failure to close the channel is reported to.
+	 */
+	private final ServerLog log;
+
+	/**
+	 * Messages of the batch being written.
+	 */
+	private final ByteBuffer[] batch = new ByteBuffer[64];
+
+	/**
+	 * Messages the batch came from, told once it has been written.
+	 */
+	private final WireMessage[] batchOwners = new WireMessage[64];
+
+	/**
+	 * Block a batch is compressed into, for a client that asked for compression.
+	 */
+	private final ByteBuffer[] block = new ByteBuffer[1];
+
+	/**
+	 * Constructor method for {@link SocketWriter}.
+	 * @param channel blocking channel to the client
+	 * @param outbound queue of the client's output
+	 * @param flushBytes bytes after which a batch is written without waiting for more
+	 * @param flushDelayMicros longest time output waits for more to join it, 0 to write at once
+	 * @param stats counters the write calls are added to
+	 * @param log server log a failure to close the channel is reported to
+	 */
+	SocketWriter(SocketChannel channel, OutboundQueue outbound, long flushBytes, long flushDelayMicros, WriteStats stats, ServerLog log) {
+		this.channel = channel;
+		this.outbound = outbound;
+		this.flushBytes = flushBytes;
+		this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(flushDelayMicros);
+		this.stats = stats;
+		this.log = log;
+	}
+
+	/**
+	 * Writes messages until the queue is closed and empty,
+	 * if the client can no longer be reached the rest of the queue is discarded
+	 * and the channel closed, which ends the session's reads too.
+	 */
+	public void run() {
+		int count = 0;
+
+		try {
+			while((count = outbound.takeBatch(batch, batchOwners, flushBytes, flushDelayNanos)) > 0) {
+				long writes = 0;
+				long bytes = 0;
+				ByteBuffer[] buffers = batch;
+				int length = count;
+				BlockCompressor compressor = outbound.batchCompressor();
+				if(compressor != null) {
+					block[0] = compressor.compress(batch, 0, count);
+					buffers = block;
+					length = 1;
+				}
+				while(buffers[length - 1].hasRemaining()) { // a blocking write can still stop short
+					bytes += channel.write(buffers, 0, length);
+					writes++;
+				}
+				stats.record(count, writes, bytes);
+				OutboundQueue.written(batchOwners, count);
+				Arrays.fill(batch, 0, count, null);
+				block[0] = null;
+			}
+			outbound.endCompression();
+		}
+		catch(IOException | InterruptedException e) {
+			OutboundQueue.written(batchOwners, count); // never will be, but the broadcasts must not wait for this client
+			outbound.abandon();
+			outbound.endCompression();
+			try {
+				channel.close();
+			}
+			catch(IOException ce) {
+				log.error(ce.getMessage());
+			}
+		}
+	}
+} // end of the class SocketWriter
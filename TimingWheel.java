@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hashed timing wheel, keeping the deadlines of any number of connections for the cost of one thread.
+ * <p>
+ * Time moves on in ticks. A timeout goes in the slot its deadline falls in, the deadline modulo the number of slots,
+ * with the number of whole turns of the wheel still to go before it is due, so every tick only looks at the one slot it reaches
+ * rather than at every timeout, and scheduling or cancelling a timeout unlinks or links one node however many there are.
+ * A timeout never fires before its delay is up, and at most a tick after.
+ * <p>
+ * Tasks run on the wheel's thread one after another, so they must be quick and hand anything that may block to another thread.
+ * Uses a ReentrantLock rather than monitors so virtual threads scheduling timeouts do not pin their carrier.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class TimingWheel {
+
+	/**
+	 * Task waiting on the wheel for its deadline, which can be cancelled until it fires.
+	 */
+	static final class Timeout {
+
+		/**
+		 * Run once the deadline comes.
+		 */
+		private final Runnable task;
+
+		/**
+		 * Turns of the wheel left before the deadline, once the timeout's slot comes round.
+		 */
+		private long rounds;
+
+		/**
+		 * Slot the timeout is linked into, -1 once it has fired or been cancelled.
+		 */
+		private int slot;
+
+		/**
+		 * Timeout before this one in its slot, null at the head.
+		 */
+		private Timeout previous;
+
+		/**
+		 * Timeout after this one in its slot, null at the tail.
+		 */
+		private Timeout next;
+
+		/**
+		 * Constructor method for {@link TimingWheel.Timeout}.
+		 * @param task run once the deadline comes
+		 */
+		private Timeout(Runnable task) {
+			this.task = task;
+		}
+	}
+
+	/**
+	 * Length of a tick in milliseconds.
+	 */
+	private final long tickMillis;
+
+	/**
+	 * Length of a tick in nanoseconds.
+	 */
+	private final long tickNanos;
+
+	/**
+	 * First timeout of each slot, null for an empty slot.
+	 */
+	private final Timeout[] slots;
+
+	/**
+	 * Slots minus one, the wheel's size being a power of two.
+	 */
+	private final int mask;
+
+	/**
+	 * Guards the slots and the timeouts in them.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Ticks gone by since the wheel started, only advanced by the wheel's thread with the lock held.
+	 */
+	private volatile long ticks = 0;
+
+	/**
+	 * Thread moving the wheel on and running the tasks due.
+	 */
+	private final Thread ticker;
+
+	/**
+	 * Set once the wheel is stopped.
+	 */
+	private volatile boolean isStopped = false;
+
+	/**
+	 * Constructor method for {@link TimingWheel}.
+	 * @param name name of the wheel's thread
+	 * @param tickMillis length of a tick in milliseconds
+	 * @param slotCount number of slots, rounded up to a power of two, a turn of the wheel being this many ticks
+	 */
+	TimingWheel(String name, long tickMillis, int slotCount) {
+		this.tickMillis = Math.max(1, tickMillis);
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(this.tickMillis);
+		slots = new Timeout[Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1];
+		mask = slots.length - 1;
+		ticker = new Thread(this::run, name);
+		ticker.setDaemon(true); // never keeps the process alive
+	}
+
+	/**
+	 * Starts moving the wheel on, the ticks count from now.
+	 */
+	void start() {
+		ticker.start();
+	}
+
+	/**
+	 * Stops the wheel, the timeouts still waiting never fire.
+	 */
+	void stop() {
+		isStopped = true;
+		LockSupport.unpark(ticker);
+	}
+
+	/**
+	 * Time on the wheel's clock, which only moves on a tick at a time,
+	 * cheap enough to read for everything a connection reads.
+	 * @return milliseconds since the wheel started, a whole number of ticks
+	 */
+	long now() {
+		return ticks * tickMillis;
+	}
+
+	/**
+	 * Runs a task on the wheel's thread once a delay is up.
+	 * @param delayMillis milliseconds to wait, rounded up to whole ticks, at least one
+	 * @param task quick task to run, anything that may block is to be handed to another thread
+	 * @return timeout, for cancelling it
+	 */
+	Timeout schedule(long delayMillis, Runnable task) {
+
+		long delay = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis); // in ticks, never early
+		Timeout timeout = new Timeout(task);
+
+		lock.lock();
+		try {
+			int slot = (int) ((ticks + delay) & mask);
+			timeout.rounds = (delay - 1) / slots.length; // the slot comes round every slots.length ticks, first within them
+			timeout.slot = slot;
+			timeout.next = slots[slot];
+			if(timeout.next != null) timeout.next.previous = timeout;
+			slots[slot] = timeout;
+		} finally {
+			lock.unlock();
+		}
+		return timeout;
+	}
+
+	/**
+	 * Takes a timeout off the wheel before it fires.
+	 * @param timeout timeout to cancel
+	 * @return false if it had already fired or been cancelled
+	 */
+	boolean cancel(Timeout timeout) {
+		lock.lock();
+		try {
+			if(timeout.slot < 0) return false;
+			unlink(timeout);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a timeout out of its slot, with the lock held.
+	 * @param timeout timeout linked into a slot
+	 */
+	private void unlink(Timeout timeout) {
+		if(timeout.previous != null) timeout.previous.next = timeout.next;
+		else slots[timeout.slot] = timeout.next;
+		if(timeout.next != null) timeout.next.previous = timeout.previous;
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.slot = -1;
+	}
+
+	/**
+	 * Moves the wheel on a tick every tick length, by the clock rather than by sleeping a tick each time,
+	 * so the wheel does not drift and catches up after a pause.
+	 */
+	private void run() {
+
+		long nextTick = System.nanoTime() + tickNanos;
+
+		while(!isStopped) {
+			long wait = nextTick - System.nanoTime();
+			if(wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			advance();
+			nextTick += tickNanos;
+		}
+	}
+
+	/**
+	 * Moves the wheel on one tick, taking the timeouts due out of the slot it reaches,
+	 * the others there having a turn less to go, then runs their tasks with the lock released
+	 * so they can schedule timeouts of their own.
+	 */
+	private void advance() {
+
+		List<Runnable> due = new ArrayList<Runnable>();
+
+		lock.lock();
+		try {
+			ticks++;
+			Timeout timeout = slots[(int) (ticks & mask)];
+			while(timeout != null) {
+				Timeout next = timeout.next;
+				if(timeout.rounds == 0) {
+					unlink(timeout);
+					due.add(timeout.task);
+				}
+				else timeout.rounds--;
+				timeout = next;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		for(Runnable task : due) {
+			try {
+				task.run();
+			}
+			catch(RuntimeException e) { // one bad task must not stop the others firing
+				Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+			}
+		}
+	} // end of advance() in the class TimingWheel
+} // end of the class TimingWheel
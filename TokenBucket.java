@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Lock-free token bucket, kept as the single time at which the bucket would next be full again
+ * (the generic cell rate algorithm), so taking tokens is one compare-and-set on one long
+ * and nothing has to refill the bucket in the background.
+ * Each token moves that time on by the interval between tokens at the bucket's rate.
+ * Tokens conform while that time, before they are taken, is no more than the burst allowance ahead of now,
+ * so a full bucket lets through even a message costing more than its burst, and a burst of 0 one message at a time.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class TokenBucket {
+
+	/**
+	 * Compare-and-set access to {@link TokenBucket#fullAt}, without an AtomicLong per bucket.
+	 */
+	private static final AtomicLongFieldUpdater<TokenBucket> FULL_AT = AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "fullAt");
+
+	/**
+	 * Nanoseconds each token is worth at the bucket's rate.
+	 */
+	private final long interval;
+
+	/**
+	 * Nanoseconds {@link TokenBucket#fullAt} may run ahead of now, the burst the bucket holds.
+	 */
+	private final long tolerance;
+
+	/**
+	 * Time by {@link System#nanoTime()} at which the bucket is full again, in the past while it is full.
+	 */
+	private volatile long fullAt = System.nanoTime();
+
+	/**
+	 * Constructor method for {@link TokenBucket}.
+	 * @param rate tokens per second
+	 * @param burstSeconds seconds' worth of tokens the bucket holds
+	 */
+	TokenBucket(double rate, double burstSeconds) {
+		interval = Math.max(1, (long) (1e9 / rate));
+		tolerance = (long) (burstSeconds * 1e9);
+	}
+
+	/**
+	 * Takes tokens whether or not there are enough, for shaping,
+	 * the caller waits out the time returned before taking more.
+	 * @param now current time by {@link System#nanoTime()}
+	 * @param tokens tokens to take
+	 * @return nanoseconds until the bucket is back within its burst, 0 if it still is
+	 */
+	long take(long now, long tokens) {
+
+		long cost = tokens * interval;
+		long last;
+		long next;
+
+		do {
+			last = fullAt;
+			next = (last - now < 0 ? now : last) + cost;
+		} while(!FULL_AT.compareAndSet(this, last, next));
+
+		return Math.max(0, next - now - tolerance);
+	}
+
+	/**
+	 * Takes tokens only if the bucket is within its burst, for rejecting,
+	 * the tokens may then take it past the burst and hold back what comes next.
+	 * @param now current time by {@link System#nanoTime()}
+	 * @param tokens tokens to take
+	 * @return true if they were taken
+	 */
+	boolean tryTake(long now, long tokens) {
+
+		long cost = tokens * interval;
+
+		while(true) {
+			long last = fullAt;
+			long start = last - now < 0 ? now : last;
+			if(start - now > tolerance) return false;
+			if(FULL_AT.compareAndSet(this, last, start + cost)) return true;
+		}
+	}
+
+	/**
+	 * Puts back tokens taken by {@link TokenBucket#tryTake(long, long)} for something that then did not happen.
+	 * @param tokens tokens to put back
+	 */
+	void giveBack(long tokens) {
+		FULL_AT.addAndGet(this, -tokens * interval);
+	}
+} // end of the class TokenBucket
@@ -0,0 +1,293 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compact binary trace of what clients send the server, for replaying real traffic with {@link TrafficReplay}.
+ * Every sign in, every line a signed in client sends and every sign out is one record,
+ * stamped with the time since the previous record so the trace keeps each session's timing.
+ * <p>
+ * The file starts with {@link TrafficRecorder#MAGIC} and the wall-clock time recording started,
+ * then each record is a type byte, the microseconds since the last record and the session number as variable-length integers,
+ * and for sign ins and lines the username or line as a length-prefixed UTF-8 string.
+ * Lines from clients using frames are recorded as the line the client would otherwise have typed.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class TrafficRecorder {
+
+	/**
+	 * First bytes of every trace, the last being the version of the format.
+	 */
+	static final byte[] MAGIC = {'C', 'H', 'A', 'T', 'T', 'R', 'C', 1};
+
+	/**
+	 * Record of a client signing in, with their username.
+	 */
+	static final byte LOGIN = 1;
+
+	/**
+	 * Record of a line sent by a signed in client.
+	 */
+	static final byte LINE = 2;
+
+	/**
+	 * Record of a client signing out or disconnecting.
+	 */
+	static final byte LOGOUT = 3;
+
+	/**
+	 * Trace being written, null once closed or after a failed write.
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Time of the last record, by {@link System#nanoTime()}.
+	 */
+	private long lastNanos = System.nanoTime();
+
+	/**
+	 * Number given to the next session to sign in.
+	 */
+	private int nextSession = 0;
+
+	/**
+	 * Server log a failing trace is reported to.
+	 */
+	private final ServerLog log;
+
+	/**
+	 * Serialises the records.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * One record read back from a trace.
+	 */
+	static class Event {
+
+		/**
+		 * {@link TrafficRecorder#LOGIN}, {@link TrafficRecorder#LINE} or {@link TrafficRecorder#LOGOUT}.
+		 */
+		final byte type;
+
+		/**
+		 * Microseconds since recording started.
+		 */
+		final long micros;
+
+		/**
+		 * Number of the session.
+		 */
+		final int session;
+
+		/**
+		 * Username of a sign in or text of a line, null for a sign out.
+		 */
+		final String text;
+
+		/**
+		 * Constructor method for {@link Event}.
+		 * @param type type of the record
+		 * @param micros microseconds since recording started
+		 * @param session number of the session
+		 * @param text username or line, null for a sign out
+		 */
+		Event(byte type, long micros, int session, String text) {
+			this.type = type;
+			this.micros = micros;
+			this.session = session;
+			this.text = text;
+		}
+	} // end of the class Event
+
+	/**
+	 * Constructor method for {@link TrafficRecorder}, starts a new trace, replacing any file already there.
+	 * @param path file to write the trace to
+	 * @param log server log a failing trace is reported to
+	 * @throws IOException if the file could not be created
+	 */
+	TrafficRecorder(Path path, ServerLog log) throws IOException {
+		this.log = log;
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+		out.write(MAGIC);
+		out.writeLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a client signing in.
+	 * @param name username the client signed in with
+	 * @return number of the session, for its later records
+	 */
+	int login(String name) {
+
+		lock.lock();
+		try {
+			int session = nextSession++;
+			write(LOGIN, session, name);
+			return session;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a line sent by a signed in client.
+	 * @param session number of the session
+	 * @param line line the client sent
+	 */
+	void line(int session, String line) {
+
+		lock.lock();
+		try {
+			write(LINE, session, line);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a client signing out or disconnecting.
+	 * @param session number of the session
+	 */
+	void logout(int session) {
+
+		lock.lock();
+		try {
+			write(LOGOUT, session, null);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes out what is buffered and closes the trace, later records are dropped.
+	 */
+	void close() {
+
+		lock.lock();
+		try {
+			if(out != null) out.close();
+		}
+		catch(IOException e) {
+			log.error("Exception closing the traffic trace: " + e);
+		}
+		finally {
+			out = null;
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes one record, called with the lock held.
+	 * @param type type of the record
+	 * @param session number of the session
+	 * @param text username or line, null for none
+	 */
+	private void write(byte type, int session, String text) {
+
+		if(out == null) return;
+
+		long now = System.nanoTime();
+
+		try {
+			out.writeByte(type);
+			writeVarLong(out, (now - lastNanos) / 1000);
+			writeVarLong(out, session);
+			if(text != null) {
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				writeVarLong(out, bytes.length);
+				out.write(bytes);
+			}
+			lastNanos = now - (now - lastNanos) % 1000; // carry the part of a microsecond left over
+		}
+		catch(IOException e) { // keep chatting without the trace rather than fail every message
+			log.error("Traffic trace disabled: " + e);
+			out = null;
+		}
+	} // end of write() in the class TrafficRecorder
+
+	/**
+	 * Reads a whole trace.
+	 * @param path file of the trace
+	 * @return records in the order they were written, with their times since recording started
+	 * @throws IOException if the file could not be read or is not a trace
+	 */
+	static List<Event> read(Path path) throws IOException {
+
+		List<Event> events = new ArrayList<Event>();
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new IOException(path + " is not a traffic trace");
+			in.readLong(); // wall-clock start, for people reading the trace
+
+			long micros = 0;
+			int type;
+
+			while((type = in.read()) != -1) {
+				micros += readVarLong(in);
+				int session = (int) readVarLong(in);
+				String text = null;
+				if(type != LOGOUT) {
+					byte[] bytes = new byte[(int) readVarLong(in)];
+					in.readFully(bytes);
+					text = new String(bytes, StandardCharsets.UTF_8);
+				}
+				events.add(new Event((byte) type, micros, session, text));
+			}
+		}
+		catch(EOFException e) { // a server stopped mid-record leaves half a record at the end, the rest is fine
+		}
+		return events;
+	} // end of read() in the class TrafficRecorder
+
+	/**
+	 * Writes a non-negative number seven bits at a time, low bits first, the top bit of each byte saying more follow.
+	 * @param out stream to write to
+	 * @param value number to write
+	 * @throws IOException if the stream failed
+	 */
+	private static void writeVarLong(OutputStream out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	/**
+	 * Reads a number written by {@link TrafficRecorder#writeVarLong(OutputStream, long)}.
+	 * @param in stream to read from
+	 * @return number read
+	 * @throws IOException if the stream failed or ended part way through
+	 */
+	private static long readVarLong(InputStream in) throws IOException {
+
+		long value = 0;
+
+		for(int shift = 0; ; shift += 7) {
+			int b = in.read();
+			if(b == -1) throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+	}
+} // end of the class TrafficRecorder
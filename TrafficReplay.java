@@ -0,0 +1,378 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Replays a trace recorded by a server started with --trace against a fresh {@link Server} process for each build given,
+ * signing the recorded clients in and out and sending their lines with the recorded timing,
+ * at the recorded speed, a multiple of it, or as fast as the server takes them,
+ * and reports one row per build so two builds can be compared on the same traffic.
+ * Latency is the time from sending a message to receiving the sender's own copy back,
+ * which the server queues with the rest of the fan-out.
+ * Each server runs in an empty temporary directory, so no history or mailboxes carry over between runs.
+ * <p>
+ * Usage: java TrafficReplay --trace=file [--speed=1|N|max] [--build=classes ...] [--server-args="--mode=nio"] [--port=5600]
+ * <p>
+ * Each --build is a class path holding a build of the server, the class path of the replay tool itself by default.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class TrafficReplay {
+
+	/**
+	 * Trace to replay.
+	 */
+	private Path trace;
+
+	/**
+	 * Multiple of the recorded speed, 0 for as fast as possible.
+	 */
+	private double speed = 1;
+
+	/**
+	 * Class paths of the builds to compare.
+	 */
+	private List<String> builds = new ArrayList<String>();
+
+	/**
+	 * Options for every server, as on its command line.
+	 */
+	private String[] serverArgs = {};
+
+	/**
+	 * Port of the first server, each build after it uses the next port.
+	 */
+	private int portNumber = 5600;
+
+	/**
+	 * Latency from sending a message to receiving the sender's copy, for the build being replayed.
+	 */
+	private LatencyHistogram latency;
+
+	/**
+	 * Lines received by all the clients, for the build being replayed.
+	 */
+	private LongAdder received;
+
+	/**
+	 * Sign ins the server refused, usually because the previous session of the same name had not gone yet.
+	 */
+	private int refused;
+
+	/**
+	 * Main method, replays the trace against every build and prints one row each.
+	 * @param args command-line arguments, see the class comment
+	 * @throws Exception simply terminate the replay when exception is thrown
+	 */
+	public static void main(String[] args) throws Exception {
+
+		TrafficReplay replay = new TrafficReplay();
+
+		for(String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch(option[0]) {
+				case "--trace": replay.trace = Paths.get(option[1]); break;
+				case "--speed": replay.speed = option[1].equals("max") ? 0 : Double.parseDouble(option[1]); break;
+				case "--build": replay.builds.add(option[1]); break;
+				case "--server-args": replay.serverArgs = option[1].trim().split("\\s+"); break;
+				case "--port": replay.portNumber = Integer.parseInt(option[1]); break;
+				default: throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+		if(replay.trace == null) throw new IllegalArgumentException("No --trace given");
+		if(replay.builds.isEmpty()) replay.builds.add(System.getProperty("java.class.path"));
+
+		List<TrafficRecorder.Event> events = TrafficRecorder.read(replay.trace);
+		System.out.printf("%d events, %.1f s recorded, replayed at %s%n", events.size(),
+			events.isEmpty() ? 0 : events.get(events.size() - 1).micros / 1e6, replay.speed == 0 ? "maximum speed" : replay.speed + "x");
+		System.out.printf("%-30s %10s %10s %10s %12s %10s %10s %10s %10s %8s%n", "build", "seconds", "sent", "sent/s",
+			"received/s", "p50 us", "p99 us", "p99.9 us", "max us", "refused");
+
+		for(int i = 0; i < replay.builds.size(); i++) {
+			replay.run(events, replay.builds.get(i), replay.portNumber + i);
+		}
+	}
+
+	/**
+	 * Replays the trace against one build.
+	 * @param events records of the trace
+	 * @param build class path of the build
+	 * @param port port for the server to listen on
+	 * @throws Exception if the server could not be started
+	 */
+	private void run(List<TrafficRecorder.Event> events, String build, int port) throws Exception {
+
+		Path directory = Files.createTempDirectory("replay");
+		String classPath = absolute(build);
+		List<String> command = new ArrayList<String>(Arrays.asList(
+			Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp", classPath, "Server", "--port=" + port));
+		command.addAll(Arrays.asList(serverArgs));
+		Process server = new ProcessBuilder(command)
+			.directory(directory.toFile())
+			.redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.start();
+
+		Map<Integer, ReplaySession> sessions = new HashMap<Integer, ReplaySession>();
+		latency = new LatencyHistogram();
+		received = new LongAdder();
+		refused = 0;
+		long sent = 0;
+
+		try {
+			awaitServer(port);
+			long start = System.nanoTime();
+
+			for(TrafficRecorder.Event event : events) {
+				if(speed > 0) {
+					long wait = start + (long) (event.micros * 1000 / speed) - System.nanoTime();
+					if(wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				ReplaySession session = sessions.get(event.session);
+
+				switch(event.type) {
+					case TrafficRecorder.LOGIN:
+						session = ReplaySession.signIn(this, port, event.text);
+						if(session != null) sessions.put(event.session, session);
+						else refused++;
+						break;
+					case TrafficRecorder.LINE:
+						if(session != null && session.send(event.text)) sent++;
+						break;
+					case TrafficRecorder.LOGOUT:
+						if(session != null) sessions.remove(event.session).close();
+						break;
+					default:
+						break;
+				}
+			}
+
+			long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5); // for the last copies to come back
+			while(sessions.values().stream().anyMatch(ReplaySession::isWaiting) && System.nanoTime() < waitUntil) {
+				Thread.sleep(10);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long[] snapshot = latency.snapshot();
+			long max = latency.max(); // percentiles are the top of their bucket, which can pass the largest value
+
+			System.out.printf("%-30s %10.2f %10d %10.1f %12.1f %10.1f %10.1f %10.1f %10.1f %8d%n", shorten(build), seconds, sent,
+				sent / seconds, received.sum() / seconds, Math.min(LatencyHistogram.percentile(snapshot, 50), max) / 1e3,
+				Math.min(LatencyHistogram.percentile(snapshot, 99), max) / 1e3, Math.min(LatencyHistogram.percentile(snapshot, 99.9), max) / 1e3,
+				max / 1e3, refused);
+		}
+		finally {
+			for(ReplaySession session : sessions.values()) session.close();
+			server.destroy();
+			server.waitFor();
+			try(Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	} // end of run() in the class TrafficReplay
+
+	/**
+	 * Waits for a server to accept connections.
+	 * @param port port of the server
+	 * @throws Exception if it has not started after ten seconds
+	 */
+	private static void awaitServer(int port) throws Exception {
+		for(int attempt = 0; ; attempt++) {
+			try {
+				new Socket("localhost", port).close();
+				return;
+			}
+			catch(IOException e) {
+				if(attempt == 100) throw e;
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/**
+	 * Makes every entry of a class path absolute, as the server runs in another directory.
+	 * @param classPath class path to convert
+	 * @return the same class path with absolute entries
+	 */
+	private static String absolute(String classPath) {
+
+		StringBuilder result = new StringBuilder();
+
+		for(String entry : classPath.split(File.pathSeparator)) {
+			if(result.length() > 0) result.append(File.pathSeparator);
+			result.append(Paths.get(entry).toAbsolutePath());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Keeps the end of a long class path, to fit its column.
+	 * @param build class path of a build
+	 * @return at most 30 characters
+	 */
+	private static String shorten(String build) {
+		return build.length() <= 30 ? build : "..." + build.substring(build.length() - 27);
+	}
+
+	/**
+	 * Connection of one recorded client, reading everything the server sends it on a virtual thread.
+	 */
+	private static class ReplaySession {
+
+		/**
+		 * Replay the session belongs to.
+		 */
+		private final TrafficReplay replay;
+
+		/**
+		 * Connection to the server.
+		 */
+		private final Socket socket;
+
+		/**
+		 * Lines to the server.
+		 */
+		private final OutputStream out;
+
+		/**
+		 * Send times of the messages whose copy has not come back yet, oldest first.
+		 */
+		private final Queue<Long> pending = new ConcurrentLinkedQueue<Long>();
+
+		/**
+		 * Constructor method for {@link ReplaySession}.
+		 * @param replay replay the session belongs to
+		 * @param socket connection to the server
+		 * @throws IOException if the stream could not be opened
+		 */
+		private ReplaySession(TrafficReplay replay, Socket socket) throws IOException {
+			this.replay = replay;
+			this.socket = socket;
+			out = socket.getOutputStream();
+		}
+
+		/**
+		 * Connects and signs in, retrying for a second while the name is still taken.
+		 * @param replay replay the session belongs to
+		 * @param port port of the server
+		 * @param name recorded username
+		 * @return signed in session, null if the server refused the name every time
+		 * @throws IOException if the connection failed
+		 */
+		static ReplaySession signIn(TrafficReplay replay, int port, String name) throws IOException {
+
+			for(int attempt = 0; attempt < 20; attempt++) {
+				Socket socket = new Socket("localhost", port);
+				socket.setTcpNoDelay(true); // a recorded line goes out when its time comes, not when the last is acknowledged
+				ReplaySession session = new ReplaySession(replay, socket);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				String line;
+
+				while((line = in.readLine()) != null && !line.startsWith("Please type your username."));
+				session.write(name);
+				while((line = in.readLine()) != null && !line.startsWith("Your username is accepted.") && !line.startsWith("Sorry"));
+
+				if(line != null && line.startsWith("Your username is accepted.")) {
+					VirtualThreads.start(() -> session.receive(in)); // a daemon platform thread before Java 21
+					return session;
+				}
+				socket.close();
+				try {
+					Thread.sleep(50);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return null;
+		} // end of signIn() in the class ReplaySession
+
+		/**
+		 * Sends a recorded line, remembering when if the server will send the client a copy back.
+		 * @param line line to send
+		 * @return true if it was sent
+		 */
+		boolean send(String line) {
+
+			boolean isEchoed = !line.isEmpty() && !line.startsWith("\\") && (!line.startsWith("@") || line.contains(" "));
+
+			if(isEchoed) pending.add(System.nanoTime());
+			try {
+				write(line);
+				return true;
+			}
+			catch(IOException e) {
+				if(isEchoed) pending.clear();
+				return false;
+			}
+		}
+
+		/**
+		 * Whether a copy of a message sent is still to come back.
+		 * @return true while waiting
+		 */
+		boolean isWaiting() {
+			return !pending.isEmpty() && !socket.isClosed();
+		}
+
+		/**
+		 * Closes the connection, as the recorded client did.
+		 */
+		void close() {
+			try {
+				socket.close();
+			}
+			catch(IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+
+		/**
+		 * Writes one line with its terminator.
+		 * @param line line to write
+		 * @throws IOException if the connection failed
+		 */
+		private void write(String line) throws IOException {
+			out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			out.flush();
+		}
+
+		/**
+		 * Counts every line received and records the latency of the client's own copies.
+		 * @param in lines from the server
+		 */
+		private void receive(BufferedReader in) {
+			try {
+				String line;
+				while((line = in.readLine()) != null) {
+					replay.received.increment();
+					if(line.contains(" You: ")) {
+						Long sentAt = pending.poll();
+						if(sentAt != null) replay.latency.record(System.nanoTime() - sentAt);
+					}
+				}
+			}
+			catch(IOException e) { // closed, as recorded
+			}
+		}
+	} // end of the class ReplaySession
+} // end of the class TrafficReplay
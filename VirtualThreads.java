@@ -0,0 +1,106 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads, for the parts that want them, found by reflection
+ * so the rest of the tree still compiles and runs on Java 17 and only those parts need Java 21:
+ * the server's --mode=virtual, which refuses to start without them,
+ * and the load tools, which fall back to platform threads.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class VirtualThreads {
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), null before Java 21.
+	 */
+	private static final Method NEW_EXECUTOR = find(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+	/**
+	 * Thread.startVirtualThread(Runnable), null before Java 21.
+	 */
+	private static final Method START = find(Thread.class, "startVirtualThread", Runnable.class);
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Whether this Java has virtual threads.
+	 * @return true from Java 21
+	 */
+	static boolean isSupported() {
+		return NEW_EXECUTOR != null && START != null;
+	}
+
+	/**
+	 * Executor starting a virtual thread for every task.
+	 * @return the executor
+	 * @throws UnsupportedOperationException before Java 21
+	 */
+	static ExecutorService newPerTaskExecutor() {
+		if(!isSupported()) throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		return (ExecutorService) invoke(NEW_EXECUTOR);
+	}
+
+	/**
+	 * Executor starting a virtual thread for every task where there are any, a platform thread otherwise.
+	 * @return the executor
+	 */
+	static ExecutorService newPerTaskExecutorOrCached() {
+		return isSupported() ? newPerTaskExecutor() : Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Runs a task on a virtual thread where there are any, on a daemon platform thread otherwise.
+	 * @param task task to run
+	 */
+	static void start(Runnable task) {
+		if(isSupported()) {
+			invoke(START, task);
+			return;
+		}
+		Thread thread = new Thread(task);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Looks a public static method up.
+	 * @param type class declaring it
+	 * @param name name of the method
+	 * @param parameters types of its parameters
+	 * @return the method, null if this Java has none
+	 */
+	private static Method find(Class<?> type, String name, Class<?>... parameters) {
+		try {
+			return type.getMethod(name, parameters);
+		}
+		catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Calls a static method found by {@link VirtualThreads#find(Class, String, Class...)}.
+	 * @param method the method
+	 * @param arguments its arguments
+	 * @return what it returned
+	 */
+	private static Object invoke(Method method, Object... arguments) {
+		try {
+			return method.invoke(null, arguments);
+		}
+		catch(InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		catch(IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+} // end of the class VirtualThreads
@@ -0,0 +1,49 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encoding of the line protocol shared by the server's fan-out paths,
+ * builds a message's bytes once so every recipient can be sent a view of the same buffer.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class WireFormat {
+
+	/**
+	 * Character set of the line protocol, the platform default the client's streams use.
+	 */
+	static final Charset CHARSET = Charset.defaultCharset();
+
+	/**
+	 * End of line, as PrintWriter.println() writes it.
+	 */
+	static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+	/**
+	 * Fan-outs to at least this many recipients build a direct buffer,
+	 * which costs more to allocate but is written to every socket without the JDK copying it first.
+	 */
+	static final int DIRECT_FANOUT = 16;
+
+	private WireFormat() {
+	}
+
+	/**
+	 * Builds one line out of three encoded parts.
+	 * @param isDirect whether to build a direct buffer
+	 * @param first first part
+	 * @param second second part
+	 * @param third third part
+	 * @return message holding the line and its separator, to be offered to every recipient's queue
+	 */
+	static WireMessage line(boolean isDirect, byte[] first, byte[] second, byte[] third) {
+
+		int length = first.length + second.length + third.length + LINE_SEPARATOR.length;
+		ByteBuffer buffer = isDirect ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+
+		buffer.put(first).put(second).put(third).put(LINE_SEPARATOR);
+		buffer.flip();
+		return new WireMessage(buffer.asReadOnlyBuffer());
+	}
+} // end of the class WireFormat
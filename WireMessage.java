@@ -0,0 +1,155 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Encoded output for one or more clients, 
+ * the text of the line protocol and, built the first time a framed client needs it, 
+ * the same text wrapped in a {@link Frame#TEXT} frame. 
+ * Both are read-only and shared, each client's queue is given a {@link ByteBuffer#duplicate()}. 
+ * A broadcast can also be tracked, recording how long it took from being read to being written to its last recipient. 
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+final class WireMessage {
+
+	/**
+	 * Text as the line protocol sends it, whole lines with their separators.
+	 */
+	private final ByteBuffer text;
+
+	/**
+	 * Text in a frame, null until first asked for.
+	 * Two threads may both build it, either copy will do.
+	 */
+	private volatile ByteBuffer framed;
+
+	/**
+	 * Shared instance standing for output that is not tracked.
+	 */
+	static final WireMessage UNTRACKED = new WireMessage(ByteBuffer.allocate(0));
+
+	/**
+	 * Updates {@link WireMessage#pendingRecipients} without an AtomicInteger for every message.
+	 */
+	private static final AtomicIntegerFieldUpdater<WireMessage> PENDING = 
+		AtomicIntegerFieldUpdater.newUpdater(WireMessage.class, "pendingRecipients");
+
+	/**
+	 * Recipients still to be written to, plus one while the fan-out is still going.
+	 */
+	private volatile int pendingRecipients = 0;
+
+	/**
+	 * Time the message was read from the sender, by {@link System#nanoTime()}.
+	 */
+	private long receivedNanos;
+
+	/**
+	 * Histogram the time to the last recipient is recorded in, null while not tracked.
+	 */
+	private LatencyHistogram latency;
+
+	/**
+	 * Line separators in the text, counted the first time a {@link ReplayBuffer} needs them, -1 until then.
+	 * Two threads may both count them, either count will do.
+	 */
+	private int lineCount = -1;
+
+	/**
+	 * Constructor method for {@link WireMessage}.
+	 * @param text encoded lines, read-only and not changed afterwards
+	 */
+	WireMessage(ByteBuffer text) {
+		this.text = text;
+	}
+
+	/**
+	 * View of the message for a client of the line protocol.
+	 * @return buffer with its own position
+	 */
+	ByteBuffer text() {
+		return text.duplicate();
+	}
+
+	/**
+	 * View of the message for a client that asked for frames.
+	 * @return buffer with its own position
+	 */
+	ByteBuffer framed() {
+
+		ByteBuffer buffer = framed;
+
+		if(buffer == null) {
+			int length = text.remaining();
+			buffer = text.isDirect() ? ByteBuffer.allocateDirect(Frame.HEADER_LENGTH + length) 
+				: ByteBuffer.allocate(Frame.HEADER_LENGTH + length);
+			Frame.putHeader(buffer, Frame.TEXT, 0, length);
+			buffer.put(text.duplicate());
+			buffer.flip();
+			buffer = buffer.asReadOnlyBuffer();
+			framed = buffer;
+		}
+		return buffer.duplicate();
+	}
+
+	/**
+	 * Number of lines in the message, as a client reading it counts them.
+	 * @return line separators in the text
+	 */
+	int lineCount() {
+
+		int count = lineCount;
+
+		if(count < 0) {
+			count = 0;
+			for(int i = text.position(); i < text.limit(); i++) {
+				if(text.get(i) == '\n') count++;
+			}
+			lineCount = count;
+		}
+		return count;
+	}
+
+	/**
+	 * The rest of the message after its first lines, for a client that had already read them.
+	 * @param count lines to leave out
+	 * @return new message sharing this one's bytes
+	 */
+	WireMessage skipLines(int count) {
+
+		ByteBuffer rest = text.duplicate();
+
+		while(count > 0 && rest.hasRemaining()) {
+			if(rest.get() == '\n') count--;
+		}
+		return new WireMessage(rest.slice());
+	}
+
+	/**
+	 * Starts tracking a broadcast, before it is offered to anybody.
+	 * Counts as a recipient until {@link WireMessage#recipientDone()} is called once the fan-out is over,
+	 * so the latency is not recorded while recipients are still being added.
+	 * @param latency histogram to record the time to the last recipient in
+	 * @param receivedNanos time the message was read from the sender
+	 */
+	void track(LatencyHistogram latency, long receivedNanos) {
+		this.latency = latency;
+		this.receivedNanos = receivedNanos;
+		pendingRecipients = 1;
+	}
+
+	/**
+	 * Counts a queue the message has been added to.
+	 */
+	void addRecipient() {
+		PENDING.incrementAndGet(this);
+	}
+
+	/**
+	 * Counts a recipient as written to, or dropped, recording the latency once it is the last one.
+	 */
+	void recipientDone() {
+		if(PENDING.decrementAndGet(this) == 0) latency.record(System.nanoTime() - receivedNanos);
+	}
+} // end of the class WireMessage
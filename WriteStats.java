@@ -0,0 +1,76 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the writes to clients, shared by every writer of the server,
+ * showing how many system calls coalescing queued messages into one write has saved.
+ * LongAdders, as many writers count at once and the totals are only read now and then.
+ * @author jack
+ * @version 1.0
+ * @since 2026-10-17
+ */
+class WriteStats {
+
+	/**
+	 * Messages written to clients.
+	 */
+	private final LongAdder messages = new LongAdder();
+
+	/**
+	 * Write calls made to send them.
+	 */
+	private final LongAdder writes = new LongAdder();
+
+	/**
+	 * Bytes written.
+	 */
+	private final LongAdder bytes = new LongAdder();
+
+	/**
+	 * Counts the messages sent by a number of write calls.
+	 * @param messageCount messages fully written
+	 * @param writeCount write calls made
+	 * @param byteCount bytes written
+	 */
+	void record(long messageCount, long writeCount, long byteCount) {
+		messages.add(messageCount);
+		writes.add(writeCount);
+		bytes.add(byteCount);
+	}
+
+	/**
+	 * Messages written to clients.
+	 * @return message count
+	 */
+	long messages() {
+		return messages.sum();
+	}
+
+	/**
+	 * Write calls made.
+	 * @return write count
+	 */
+	long writes() {
+		return writes.sum();
+	}
+
+	/**
+	 * Bytes written to clients.
+	 * @return byte count
+	 */
+	long bytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Write calls saved by coalescing, compared with one write per message.
+	 * @return messages less writes, never negative
+	 */
+	long saved() {
+		return Math.max(0, messages() - writes());
+	}
+
+	@Override
+	public String toString() {
+		return messages() + " messages in " + writes() + " writes, " + saved() + " system calls saved";
+	}
+} // end of the class WriteStats